@@ -0,0 +1,65 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator and player layouts shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+    static final String WORLD = "world";
+    // Side length in blocks of the square generators and players are spread over
+    static final int AREA = 4096;
+
+    private static final Particle[] PARTICLES = {Particle.FLAME, Particle.END_ROD, Particle.CLOUD, Particle.HEART, Particle.PORTAL};
+
+    private BenchmarkData() {
+    }
+
+    static List<GeneratorRecord> records(int count, long seed) {
+        Random random = new Random(seed);
+        List<GeneratorRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double x = random.nextInt(AREA) - AREA / 2 + 0.5;
+            double z = random.nextInt(AREA) - AREA / 2 + 0.5;
+            records.add(new GeneratorRecord("gen" + i, WORLD, x, 64 + random.nextInt(16), z, PARTICLES[random.nextInt(PARTICLES.length)],
+                    1 + random.nextInt(10), 1 + random.nextInt(20), random.nextInt(10) / 100.0, random.nextDouble(), random.nextDouble(), random.nextDouble(),
+                    Collections.singletonMap("viewRadius", "48")));
+        }
+        return records;
+    }
+
+    /**
+     * Writes the bundled config.yml to the data folder with the given generators in it.
+     */
+    static void writeConfig(File dataFolder, Collection<GeneratorRecord> records) throws IOException {
+        YamlConfiguration config;
+        try (Reader reader = new InputStreamReader(ParticleGeneratorPlugin.class.getClassLoader().getResourceAsStream("config.yml"), StandardCharsets.UTF_8)) {
+            config = YamlConfiguration.loadConfiguration(reader);
+        }
+        config.set("generators", null);
+        for (GeneratorRecord record : records) {
+            config.set("generators." + record.getName(), record.toLegacy());
+        }
+        config.save(new File(dataFolder, "config.yml"));
+    }
+
+    static void addPlayers(StubServer server, int count, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            server.addPlayer(WORLD, random.nextInt(AREA) - AREA / 2, 72, random.nextInt(AREA) - AREA / 2);
+        }
+    }
+}
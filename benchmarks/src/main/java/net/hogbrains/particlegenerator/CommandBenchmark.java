@@ -0,0 +1,87 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.command.Command;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message formatting and tab completion, both of which run on the main thread for every
+ * command a player types.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark {
+
+    @Param({"1000", "10000"})
+    public int generators;
+
+    private static final String[] ITEM_REPLACEMENTS = {"gen1", "FLAME", "world", "0.5", "64.0", "0.5", "5", "20", "0.05", "1.0", "0.5", "0.0"};
+
+    private File dataFolder;
+    private ParticleGeneratorPlugin plugin;
+    private Player player;
+    private Command command;
+
+    @Setup
+    public void setUp() throws Exception {
+        StubServer server = StubServer.get();
+        server.getWorld(BenchmarkData.WORLD);
+        server.clearPlayers();
+        player = server.addPlayer(BenchmarkData.WORLD, 0, 64, 0);
+
+        dataFolder = StubServer.createDataFolder();
+        BenchmarkData.writeConfig(dataFolder, BenchmarkData.records(generators, 1));
+        plugin = server.enablePlugin(dataFolder);
+        command = plugin.getCommand("particlegen");
+    }
+
+    @TearDown
+    public void tearDown() {
+        plugin.onDisable();
+        StubServer.deleteRecursively(dataFolder);
+    }
+
+    @Benchmark
+    public String parseMessagePlain() {
+        return plugin.parseMessage("generatorCreated", null, true);
+    }
+
+    @Benchmark
+    public String parseMessageReplacements() {
+        return plugin.parseMessage("paginItem", ITEM_REPLACEMENTS, false);
+    }
+
+    @Benchmark
+    public List<String> tabCompleteSubcommand() {
+        return plugin.onTabComplete(player, command, "particlegen", new String[]{"s"});
+    }
+
+    @Benchmark
+    public List<String> tabCompleteGenerator() {
+        return plugin.onTabComplete(player, command, "particlegen", new String[]{"edit", "gen1"});
+    }
+
+    @Benchmark
+    public List<String> tabCompleteParticle() {
+        return plugin.onTabComplete(player, command, "particlegen", new String[]{"create", "gen", "F"});
+    }
+}
@@ -0,0 +1,585 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Headless load test. Enables the plugin on the stub server with a production sized layout,
+ * walks players around, replays a scripted command workload and drives the server tick by
+ * tick, then writes what the plugin cost as JSON so runs can be compared with each other:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar net.hogbrains.particlegenerator.LoadTest --generators 10000 --players 200 --out run.json
+ * </pre>
+ *
+ * Options are {@code --generators}, {@code --players}, {@code --ticks}, {@code --warmup},
+ * {@code --async}, {@code --storage}, {@code --seed}, {@code --script}, {@code --realtime}
+ * and {@code --out}; see {@code loadtest.txt} for the script format. Without
+ * {@code --realtime} ticks run back to back, which leaves async planning no time between
+ * ticks.
+ *
+ * Tick times include the stub server's own event dispatch and are only comparable between
+ * runs on the same machine.
+ */
+public final class LoadTest {
+
+    // Walking speed in blocks per tick
+    private static final double WALK_SPEED = 0.2;
+
+    private final Map<String, String> options;
+    private final StubServer server = StubServer.get();
+    private final Random random;
+    private final List<Action> actions = new ArrayList<>();
+
+    private ParticleGeneratorPlugin plugin;
+    private Command command;
+    private List<Player> players;
+    private double[] headings;
+    private int nextSender;
+
+    // Per player [particles, packets], counted by the sink
+    private final Map<Player, long[]> sent = new HashMap<>();
+    private boolean counting;
+
+    private final LatencyHistogram tickNanos = new LatencyHistogram();
+    private final LatencyHistogram eventNanos = new LatencyHistogram();
+    private final LatencyHistogram actionNanos = new LatencyHistogram();
+    private final LatencyHistogram taskNanos = new LatencyHistogram();
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.random = new Random(getLong("seed", 1));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            // Flags without a value, like --realtime, are true
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        new LoadTest(options).run();
+        // The planner and store threads are daemons, but the metrics server may not be
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        int generatorCount = (int) getLong("generators", 10000);
+        int playerCount = (int) getLong("players", 200);
+        int ticks = (int) getLong("ticks", 1200);
+        int warmup = (int) getLong("warmup", 200);
+        boolean async = Boolean.parseBoolean(getString("async", "true"));
+        String storage = getString("storage", "yaml");
+        boolean realtime = Boolean.parseBoolean(getString("realtime", "false"));
+        loadScript(getString("script", null));
+
+        server.getWorld(BenchmarkData.WORLD);
+        server.clearPlayers();
+        BenchmarkData.addPlayers(server, playerCount, getLong("seed", 1) + 1);
+        players = new ArrayList<>(server.getPlayers());
+        headings = new double[players.size()];
+        for (int i = 0; i < headings.length; i++) {
+            headings[i] = random.nextDouble() * Math.PI * 2;
+        }
+
+        File dataFolder = StubServer.createDataFolder();
+        BenchmarkData.writeConfig(dataFolder, BenchmarkData.records(generatorCount, getLong("seed", 1)));
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(new File(dataFolder, "config.yml"));
+        config.set("planning.async", async);
+        config.set("storage.type", storage);
+        config.save(new File(dataFolder, "config.yml"));
+
+        long enableStart = System.nanoTime();
+        plugin = server.enablePlugin(dataFolder);
+        long enableNanos = System.nanoTime() - enableStart;
+        plugin.getEmissionPipeline().setSink(this::count);
+        command = plugin.getCommand("particlegen");
+
+        for (int i = 0; i < warmup; i++) {
+            tick(-1, false);
+        }
+
+        // Everything from here on is measured
+        counting = true;
+        GeneratorStore store = plugin.getStore();
+        long savesBefore = store.getSaveCount();
+        PluginMetrics metrics = plugin.getMetrics();
+        metrics.tickNanos.reset();
+        long packetsBefore = metrics.packets;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long mainThread = Thread.currentThread().getId();
+        long mainBytesBefore = allocatedBytes(threads, new long[]{mainThread})[0];
+        long[] threadIds = threads.getAllThreadIds();
+        long[] allBytesBefore = allocatedBytes(threads, threadIds);
+        long[] gcBefore = gcTotals();
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks; i++) {
+            long tickStart = System.nanoTime();
+            tick(i, true);
+            if (realtime) {
+                long remaining = 50_000_000 - (System.nanoTime() - tickStart);
+                if (remaining > 0) {
+                    Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long mainBytes = allocatedBytes(threads, new long[]{mainThread})[0] - mainBytesBefore;
+        long allBytes = allocatedSince(threads, threadIds, allBytesBefore);
+        long[] gc = gcTotals();
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long packets = metrics.packets - packetsBefore;
+        long savesDuringRun = store.getSaveCount() - savesBefore;
+
+        // Shutting down writes whatever is still pending, which counts towards the writes
+        plugin.onDisable();
+        long saves = store.getSaveCount() - savesBefore;
+
+        Json json = new Json();
+        json.beginObject(null);
+        json.beginObject("setup");
+        json.field("generators", generatorCount);
+        json.field("players", playerCount);
+        json.field("ticks", ticks);
+        json.field("warmupTicks", warmup);
+        json.field("async", async);
+        json.field("storage", storage);
+        json.field("realtime", realtime);
+        json.field("seed", getLong("seed", 1));
+        json.field("script", getString("script", "loadtest.txt"));
+        json.field("enableMillis", millis(enableNanos));
+        json.endObject();
+
+        json.beginObject("tick");
+        json.field("wallMillis", millis(elapsed));
+        histogram(json, "total", tickNanos);
+        histogram(json, "events", eventNanos);
+        histogram(json, "commands", actionNanos);
+        histogram(json, "tasks", taskNanos);
+        histogram(json, "scheduler", metrics.tickNanos);
+        json.endObject();
+
+        long[] particleTotals = new long[players.size()];
+        long[] packetTotals = new long[players.size()];
+        for (int i = 0; i < players.size(); i++) {
+            long[] counts = sent.get(players.get(i));
+            particleTotals[i] = counts == null ? 0 : counts[0];
+            packetTotals[i] = counts == null ? 0 : counts[1];
+        }
+        perPlayer(json, "particles", particleTotals, ticks);
+        perPlayer(json, "packets", packetTotals, ticks);
+        json.beginObject("pipeline");
+        json.field("packets", packets);
+        json.field("throttleLevel", plugin.getBudgetManager().getLevel());
+        json.endObject();
+
+        json.beginObject("storage");
+        json.field("saves", saves);
+        json.field("savesDuringRun", savesDuringRun);
+        json.field("averageSaveMillis", millis(store.getAverageSaveNanos()));
+        json.field("p99SaveMillis", millis(store.getWriteLatency().getPercentile(99)));
+        json.endObject();
+
+        json.beginObject("heap");
+        json.field("mainThreadBytesPerTick", mainBytes < 0 ? -1 : mainBytes / Math.max(1, ticks));
+        json.field("allThreadsBytesPerTick", allBytes < 0 ? -1 : allBytes / Math.max(1, ticks));
+        json.field("gcCount", gc[0] - gcBefore[0]);
+        json.field("gcMillis", gc[1] - gcBefore[1]);
+        json.field("usedAfterBytes", heapUsed);
+        json.endObject();
+
+        json.beginArray("actions");
+        for (Action action : actions) {
+            json.beginObject(null);
+            json.field("line", action.line);
+            json.field("runs", action.runs);
+            json.field("meanMicros", micros(action.nanos.getMean()));
+            json.field("p99Micros", micros(action.nanos.getPercentile(99)));
+            json.field("maxMicros", micros(action.nanos.getMax()));
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+
+        String out = getString("out", null);
+        if (out == null) {
+            System.out.println(json);
+        } else {
+            try (Writer writer = new OutputStreamWriter(Files.newOutputStream(new File(out).toPath()), StandardCharsets.UTF_8)) {
+                writer.write(json.toString());
+                writer.write('\n');
+            }
+        }
+        StubServer.deleteRecursively(dataFolder);
+    }
+
+    /**
+     * One server tick: players move, the script's due actions run, then every scheduled task.
+     */
+    private void tick(int scriptTick, boolean measure) {
+        long start = System.nanoTime();
+        for (int i = 0; i < players.size(); i++) {
+            walk(i);
+        }
+        long events = System.nanoTime();
+        if (scriptTick >= 0) {
+            for (Action action : actions) {
+                if (action.isDue(scriptTick)) {
+                    runAction(action);
+                }
+            }
+        }
+        long commands = System.nanoTime();
+        server.tick();
+        long end = System.nanoTime();
+        if (measure) {
+            eventNanos.record(events - start);
+            actionNanos.record(commands - events);
+            taskNanos.record(end - commands);
+            tickNanos.record(end - start);
+        }
+    }
+
+    private void walk(int index) {
+        Player player = players.get(index);
+        if (random.nextInt(20) == 0) {
+            headings[index] += (random.nextDouble() - 0.5) * Math.PI;
+        }
+        double x = player.getLocation().getX() + Math.cos(headings[index]) * WALK_SPEED;
+        double z = player.getLocation().getZ() + Math.sin(headings[index]) * WALK_SPEED;
+        // Turn around at the edge of the area everything is spread over
+        if (Math.abs(x) > BenchmarkData.AREA / 2 || Math.abs(z) > BenchmarkData.AREA / 2) {
+            headings[index] += Math.PI;
+            return;
+        }
+        server.movePlayer(player, x, player.getLocation().getY(), z);
+    }
+
+    private void runAction(Action action) {
+        String[] args = action.args.clone();
+        for (int i = 0; i < args.length; i++) {
+            args[i] = args[i].replace("{n}", String.valueOf(action.runs));
+        }
+        long start = System.nanoTime();
+        if (action.kind.equals("console")) {
+            plugin.onCommand(server.getConsole(), command, "particlegen", args);
+        } else {
+            CommandSender sender = players.get(nextSender++ % players.size());
+            if (action.kind.equals("tab")) {
+                plugin.onTabComplete(sender, command, "particlegen", args);
+            } else {
+                plugin.onCommand(sender, command, "particlegen", args);
+            }
+        }
+        action.nanos.record(System.nanoTime() - start);
+        action.runs++;
+    }
+
+    private void count(Player player, ParticleBatch batch) {
+        if (!counting) {
+            return;
+        }
+        long[] counts = sent.get(player);
+        if (counts == null) {
+            counts = new long[2];
+            sent.put(player, counts);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            counts[0] += batch.getCount(i);
+        }
+        // The default sink sends one packet per emission
+        counts[1] += batch.size();
+    }
+
+    private void loadScript(String path) throws IOException {
+        InputStream in = path == null ? LoadTest.class.getClassLoader().getResourceAsStream("loadtest.txt") : new FileInputStream(path);
+        if (in == null) {
+            throw new IOException("No script given and loadtest.txt is missing");
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                actions.add(Action.parse(line, number));
+            }
+        }
+    }
+
+    private static void histogram(Json json, String name, LatencyHistogram histogram) {
+        json.beginObject(name);
+        json.field("meanMillis", millis(histogram.getMean()));
+        json.field("p50Millis", millis(histogram.getPercentile(50)));
+        json.field("p99Millis", millis(histogram.getPercentile(99)));
+        json.field("maxMillis", millis(histogram.getMax()));
+        json.endObject();
+    }
+
+    private static void perPlayer(Json json, String name, long[] totals, int ticks) {
+        long[] sorted = totals.clone();
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (long total : sorted) {
+            sum += total;
+        }
+        json.beginObject(name);
+        json.field("total", sum);
+        json.field("perPlayerPerTick", sorted.length == 0 ? 0 : (double) sum / sorted.length / Math.max(1, ticks));
+        json.field("medianPlayerTotal", sorted.length == 0 ? 0 : sorted[sorted.length / 2]);
+        json.field("maxPlayerTotal", sorted.length == 0 ? 0 : sorted[sorted.length - 1]);
+        json.endObject();
+    }
+
+    /**
+     * Returns the bytes each thread has allocated so far, or -1 where the JVM cannot tell.
+     */
+    private static long[] allocatedBytes(ThreadMXBean threads, long[] ids) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(ids);
+        }
+        long[] unknown = new long[ids.length];
+        Arrays.fill(unknown, -1);
+        return unknown;
+    }
+
+    /**
+     * Adds up what every live thread allocated since the baseline. Threads that ended in
+     * between are not counted.
+     */
+    private static long allocatedSince(ThreadMXBean threads, long[] baselineIds, long[] baseline) {
+        Map<Long, Long> before = new HashMap<>();
+        for (int i = 0; i < baselineIds.length; i++) {
+            before.put(baselineIds[i], baseline[i]);
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] now = allocatedBytes(threads, ids);
+        long total = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (now[i] < 0) {
+                return -1;
+            }
+            Long previous = before.get(ids[i]);
+            total += now[i] - (previous == null || previous < 0 ? 0 : previous);
+        }
+        return total;
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1_000.0;
+    }
+
+    private String getString(String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private long getLong(String name, long defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    /**
+     * One line of the workload script.
+     */
+    private static final class Action {
+        final String line;
+        // Tick to run at once, or -1 to repeat every period ticks
+        final int tick;
+        final int period;
+        final String kind;
+        final String[] args;
+        final LatencyHistogram nanos = new LatencyHistogram();
+        int runs;
+
+        private Action(String line, int tick, int period, String kind, String[] args) {
+            this.line = line;
+            this.tick = tick;
+            this.period = period;
+            this.kind = kind;
+            this.args = args;
+        }
+
+        static Action parse(String line, int number) {
+            String[] words = line.split("\\s+");
+            int tick = -1;
+            int period = 0;
+            int next;
+            try {
+                if (words[0].equalsIgnoreCase("every")) {
+                    period = Integer.parseInt(words[1]);
+                    next = 2;
+                } else {
+                    tick = Integer.parseInt(words[0]);
+                    next = 1;
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Line " + number + ": expected a tick or every <n>: " + line);
+            }
+            if (words.length <= next + 1 || (tick < 0 && period < 1)) {
+                throw new IllegalArgumentException("Line " + number + ": expected <tick> <action> <args...>: " + line);
+            }
+            String kind = words[next].toLowerCase(Locale.ROOT);
+            if (!kind.equals("command") && !kind.equals("console") && !kind.equals("tab")) {
+                throw new IllegalArgumentException("Line " + number + ": unknown action " + words[next]);
+            }
+            return new Action(line, tick, period, kind, Arrays.copyOfRange(words, next + 1, words.length));
+        }
+
+        boolean isDue(int scriptTick) {
+            return tick < 0 ? scriptTick % period == period - 1 : scriptTick == tick;
+        }
+    }
+
+    /**
+     * Just enough of a JSON writer for the report: objects, arrays, numbers, booleans and
+     * strings, indented two spaces per level.
+     */
+    private static final class Json {
+        private final StringBuilder builder = new StringBuilder();
+        // Whether the container at each level already has an element
+        private final List<Boolean> started = new ArrayList<>();
+
+        void beginObject(String name) {
+            name(name);
+            builder.append('{');
+            started.add(false);
+        }
+
+        void endObject() {
+            close('}');
+        }
+
+        void beginArray(String name) {
+            name(name);
+            builder.append('[');
+            started.add(false);
+        }
+
+        void endArray() {
+            close(']');
+        }
+
+        void field(String name, long value) {
+            name(name);
+            builder.append(value);
+        }
+
+        void field(String name, double value) {
+            name(name);
+            builder.append(String.format(Locale.ROOT, "%.4f", value));
+        }
+
+        void field(String name, boolean value) {
+            name(name);
+            builder.append(value);
+        }
+
+        void field(String name, String value) {
+            name(name);
+            if (value == null) {
+                builder.append("null");
+            } else {
+                string(value);
+            }
+        }
+
+        private void name(String name) {
+            if (!started.isEmpty()) {
+                int level = started.size() - 1;
+                if (started.get(level)) {
+                    builder.append(',');
+                }
+                started.set(level, true);
+                newline(started.size());
+            }
+            if (name != null) {
+                string(name);
+                builder.append(": ");
+            }
+        }
+
+        private void close(char bracket) {
+            boolean empty = !started.remove(started.size() - 1);
+            if (!empty) {
+                newline(started.size());
+            }
+            builder.append(bracket);
+        }
+
+        private void newline(int level) {
+            builder.append('\n');
+            for (int i = 0; i < level; i++) {
+                builder.append("  ");
+            }
+        }
+
+        private void string(String value) {
+            builder.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    builder.append('\\').append(c);
+                } else if (c < 0x20) {
+                    builder.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                } else {
+                    builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+
+        @Override
+        public String toString() {
+            return builder.toString();
+        }
+    }
+}
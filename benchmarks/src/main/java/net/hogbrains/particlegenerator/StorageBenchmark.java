@@ -0,0 +1,118 @@
+package net.hogbrains.particlegenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup loading and the serialization behind saving, for both storage backends.
+ * The load benchmarks include turning records into live generators, as onEnable does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int generators;
+
+    private File dataFolder;
+    private ParticleGeneratorPlugin plugin;
+    private List<GeneratorRecord> records;
+    private YamlGeneratorStorage yaml;
+    private BinaryGeneratorStorage binary;
+    private BinaryGeneratorStorage binaryScratch;
+    private String[] names;
+    private ParticleGenerator[] generatorArray;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        StubServer server = StubServer.get();
+        server.getWorld(BenchmarkData.WORLD);
+        server.clearPlayers();
+
+        dataFolder = StubServer.createDataFolder();
+        records = BenchmarkData.records(generators, 1);
+        BenchmarkData.writeConfig(dataFolder, records);
+        plugin = server.enablePlugin(dataFolder);
+
+        yaml = new YamlGeneratorStorage(plugin);
+        binary = new BinaryGeneratorStorage(new File(dataFolder, "generators.dat"));
+        binary.save(records);
+        binaryScratch = new BinaryGeneratorStorage(new File(dataFolder, "scratch.dat"));
+        names = plugin.getGenerators().keySet().toArray(new String[0]);
+        generatorArray = new ParticleGenerator[names.length];
+        for (int i = 0; i < names.length; i++) {
+            generatorArray[i] = plugin.getGenerators().get(names[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        plugin.onDisable();
+        StubServer.deleteRecursively(dataFolder);
+    }
+
+    @Benchmark
+    public void loadYaml(Blackhole blackhole) {
+        // Parse config.yml again like a restart would, then build the generators
+        plugin.reloadConfig();
+        for (GeneratorRecord record : yaml.load().values()) {
+            blackhole.consume(record.toGenerator(plugin));
+        }
+    }
+
+    @Benchmark
+    public void loadBinary(Blackhole blackhole) throws IOException {
+        Map<String, GeneratorRecord> loaded = binary.load();
+        for (GeneratorRecord record : loaded.values()) {
+            blackhole.consume(record.toGenerator(plugin));
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void saveGenerator() {
+        // Main thread cost of one edit; the stub scheduler never runs the flush
+        int index = next++ % names.length;
+        plugin.saveGenerator(names[index], generatorArray[index]);
+    }
+
+    @Benchmark
+    public void serializeLegacy(Blackhole blackhole) {
+        // What every saveGenerator call costs once its batch is flushed
+        for (Map.Entry<String, ParticleGenerator> entry : plugin.getGenerators().entrySet()) {
+            blackhole.consume(GeneratorRecord.of(entry.getKey(), entry.getValue()).toLegacy());
+        }
+    }
+
+    @Benchmark
+    public void saveYaml() throws IOException {
+        yaml.save(records);
+    }
+
+    @Benchmark
+    public void saveBinary() throws IOException {
+        binaryScratch.save(records);
+    }
+}
@@ -0,0 +1,434 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.java.JavaPluginLoader;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Just enough of a Bukkit server to enable the plugin on a plain JVM. Worlds and players
+ * are dynamic proxies and every chunk counts as loaded. Scheduled tasks never run on their
+ * own: benchmarks drive the scheduler tick directly, the load test calls {@link #tick()}
+ * to run every task due like the server's main loop would.
+ */
+final class StubServer {
+
+    private static StubServer instance;
+
+    private final Logger logger = Logger.getLogger("StubServer");
+    private final Map<String, World> worlds = new LinkedHashMap<>();
+    private final Map<UUID, World> worldsById = new HashMap<>();
+    private final List<Player> players = new ArrayList<>();
+    // Current position of each player, changed by movePlayer
+    private final Map<Player, Location> locations = new HashMap<>();
+    private final List<RegisteredHandler> handlers = new ArrayList<>();
+    // Guarded by itself, since the plugin schedules tasks from its writer thread too
+    private final List<StubTask> tasks = new ArrayList<>();
+    private long currentTick;
+    private int nextTaskId = 1;
+    private final Server server;
+    private final BukkitScheduler scheduler;
+    private final PluginManager pluginManager;
+    private final CommandSender console;
+    private Plugin plugin;
+
+    private StubServer() {
+        logger.setLevel(Level.WARNING);
+        scheduler = proxy(BukkitScheduler.class, this::handleScheduler);
+        pluginManager = proxy(PluginManager.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "registerEvents":
+                    register((Listener) args[0]);
+                    return null;
+                case "callEvent":
+                    callEvent((Event) args[0]);
+                    return null;
+                default:
+                    return defaultValue(method);
+            }
+        });
+        console = proxy(CommandSender.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return "CONSOLE";
+                case "isOp":
+                case "hasPermission":
+                    return true;
+                default:
+                    return defaultValue(method);
+            }
+        });
+        server = proxy(Server.class, this::handleServer);
+    }
+
+    /**
+     * Returns the stub server, installing it as the Bukkit server on first use.
+     */
+    static synchronized StubServer get() {
+        if (instance == null) {
+            instance = new StubServer();
+            Bukkit.setServer(instance.server);
+        }
+        return instance;
+    }
+
+    World getWorld(String name) {
+        World world = worlds.get(name);
+        if (world == null) {
+            UUID id = UUID.nameUUIDFromBytes(name.getBytes());
+            world = proxy(World.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getName":
+                        return name;
+                    case "getUID":
+                        return id;
+                    case "isChunkLoaded":
+                        return true;
+                    default:
+                        return defaultValue(method);
+                }
+            });
+            worlds.put(name, world);
+            worldsById.put(id, world);
+        }
+        return world;
+    }
+
+    /**
+     * Adds an online player standing still at the given position.
+     */
+    Player addPlayer(String worldName, double x, double y, double z) {
+        World world = getWorld(worldName);
+        UUID id = UUID.randomUUID();
+        String name = "Player" + players.size();
+        Player player = proxy(Player.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getLocation":
+                    return locations.get(proxy).clone();
+                case "getWorld":
+                    return locations.get(proxy).getWorld();
+                case "getUniqueId":
+                    return id;
+                case "getName":
+                    return name;
+                case "isOnline":
+                case "hasPermission":
+                    return true;
+                default:
+                    return defaultValue(method);
+            }
+        });
+        players.add(player);
+        locations.put(player, new Location(world, x, y, z));
+        return player;
+    }
+
+    /**
+     * Moves a player within its world and tells the listeners, as a client's move packet
+     * would.
+     */
+    void movePlayer(Player player, double x, double y, double z) {
+        Location from = locations.get(player);
+        Location to = new Location(from.getWorld(), x, y, z);
+        locations.put(player, to);
+        callEvent(new PlayerMoveEvent(player, from.clone(), to.clone()));
+    }
+
+    CommandSender getConsole() {
+        return console;
+    }
+
+    List<Player> getPlayers() {
+        return players;
+    }
+
+    void clearPlayers() {
+        players.clear();
+        locations.clear();
+    }
+
+    /**
+     * Advances the server by one tick and runs every task due, in the order they were
+     * scheduled.
+     */
+    void tick() {
+        List<StubTask> due = new ArrayList<>();
+        synchronized (tasks) {
+            currentTick++;
+            for (int i = 0; i < tasks.size(); i++) {
+                StubTask task = tasks.get(i);
+                if (task.nextTick <= currentTick) {
+                    due.add(task);
+                }
+            }
+        }
+        for (StubTask task : due) {
+            if (task.cancelled) {
+                continue;
+            }
+            if (task.period > 0) {
+                task.nextTick = currentTick + task.period;
+            } else {
+                task.cancel();
+            }
+            task.runnable.run();
+        }
+    }
+
+    long getCurrentTick() {
+        return currentTick;
+    }
+
+    /**
+     * Drops every scheduled task, so the next plugin starts from an empty scheduler.
+     */
+    void clearTasks() {
+        synchronized (tasks) {
+            tasks.clear();
+        }
+    }
+
+    private void register(Listener listener) {
+        for (Method method : listener.getClass().getMethods()) {
+            EventHandler annotation = method.getAnnotation(EventHandler.class);
+            if (annotation != null && method.getParameterCount() == 1 && Event.class.isAssignableFrom(method.getParameterTypes()[0])) {
+                handlers.add(new RegisteredHandler(listener, method, annotation));
+            }
+        }
+        // Same order as Bukkit, lowest priority first and monitors last
+        handlers.sort(Comparator.comparingInt(handler -> handler.annotation.priority().ordinal()));
+    }
+
+    void callEvent(Event event) {
+        for (int i = 0; i < handlers.size(); i++) {
+            RegisteredHandler handler = handlers.get(i);
+            if (!handler.method.getParameterTypes()[0].isInstance(event)) {
+                continue;
+            }
+            if (handler.annotation.ignoreCancelled() && event instanceof Cancellable && ((Cancellable) event).isCancelled()) {
+                continue;
+            }
+            try {
+                handler.method.invoke(handler.listener, event);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                throw new IllegalStateException("Handler " + handler.method + " failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Drops the listeners of the previous plugin instance.
+     */
+    void clearListeners() {
+        handlers.clear();
+    }
+
+    /**
+     * Creates and enables a plugin instance using the given data folder.
+     */
+    ParticleGeneratorPlugin enablePlugin(File dataFolder) {
+        ParticleGeneratorPlugin created = new ParticleGeneratorPlugin(new JavaPluginLoader(server), new PluginDescriptionFile("ParticleGenerator", "benchmark", ParticleGeneratorPlugin.class.getName()), dataFolder, new File(dataFolder, "ParticleGenerator.jar"));
+        plugin = created;
+        // Whatever the previous instance left behind would otherwise keep running
+        clearListeners();
+        clearTasks();
+        created.onEnable();
+        return created;
+    }
+
+    static File createDataFolder() throws IOException {
+        File folder = Files.createTempDirectory("particlegen-bench").toFile();
+        folder.deleteOnExit();
+        return folder;
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private Object handleScheduler(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "runTask":
+                return schedule(args[1], 0, 0);
+            case "runTaskLater":
+                return schedule(args[1], (Long) args[2], 0);
+            case "runTaskTimer":
+                return schedule(args[1], (Long) args[2], (Long) args[3]);
+            default:
+                return defaultValue(method);
+        }
+    }
+
+    private BukkitTask schedule(Object runnable, long delay, long period) {
+        if (!(runnable instanceof Runnable)) {
+            // The Consumer<BukkitTask> variants are not used by the plugin
+            return null;
+        }
+        synchronized (tasks) {
+            StubTask task = new StubTask(nextTaskId++, (Runnable) runnable, currentTick + Math.max(1, delay), period);
+            tasks.add(task);
+            return task.handle;
+        }
+    }
+
+    private Object handleServer(Object proxy, Method method, Object[] args) throws Exception {
+        switch (method.getName()) {
+            case "getLogger":
+                return logger;
+            case "getName":
+                return "StubServer";
+            case "getVersion":
+                return "benchmark";
+            case "getBukkitVersion":
+                return "1.19.2-R0.1-SNAPSHOT";
+            case "getWorld":
+                return args[0] instanceof UUID ? worldsById.get(args[0]) : worlds.get(args[0]);
+            case "getWorlds":
+                return new ArrayList<>(worlds.values());
+            case "getOnlinePlayers":
+                return new ArrayList<>(players);
+            case "getScheduler":
+                return scheduler;
+            case "getPluginManager":
+                return pluginManager;
+            case "getPluginCommand":
+                Constructor<PluginCommand> constructor = PluginCommand.class.getDeclaredConstructor(String.class, Plugin.class);
+                constructor.setAccessible(true);
+                return constructor.newInstance(args[0], plugin);
+            case "isPrimaryThread":
+                return true;
+            default:
+                return defaultValue(method);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(StubServer.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            // Identity semantics for the Object methods so proxies work as map keys
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                }
+            }
+            return handler.invoke(proxy, method, args);
+        });
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        }
+        return (byte) 0;
+    }
+
+    private final class StubTask {
+        final int id;
+        final Runnable runnable;
+        final long period;
+        final BukkitTask handle;
+        long nextTick;
+        volatile boolean cancelled;
+
+        StubTask(int id, Runnable runnable, long nextTick, long period) {
+            this.id = id;
+            this.runnable = runnable;
+            this.nextTick = nextTick;
+            this.period = period;
+            this.handle = proxy(BukkitTask.class, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "cancel":
+                        cancel();
+                        return null;
+                    case "getTaskId":
+                        return this.id;
+                    case "isCancelled":
+                        return cancelled;
+                    case "isSync":
+                        return true;
+                    default:
+                        return defaultValue(method);
+                }
+            });
+        }
+
+        void cancel() {
+            cancelled = true;
+            synchronized (tasks) {
+                tasks.remove(this);
+            }
+        }
+    }
+
+    private static final class RegisteredHandler {
+        final Listener listener;
+        final Method method;
+        final EventHandler annotation;
+
+        RegisteredHandler(Listener listener, Method method, EventHandler annotation) {
+            this.listener = listener;
+            this.method = method;
+            this.annotation = annotation;
+        }
+    }
+}
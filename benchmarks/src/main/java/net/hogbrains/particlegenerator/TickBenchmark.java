@@ -0,0 +1,82 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full scheduler tick: due generators emit, budgets apply and the batches are handed
+ * to a sink that only counts particles. With async planning the benchmark loop leaves the
+ * workers no time between ticks, so the score includes waiting for the plan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TickBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int generators;
+
+    @Param({"50"})
+    public int players;
+
+    @Param({"false", "true"})
+    public boolean async;
+
+    private File dataFolder;
+    private ParticleGeneratorPlugin plugin;
+    private GeneratorScheduler scheduler;
+    private long particles;
+
+    @Setup
+    public void setUp() throws Exception {
+        StubServer server = StubServer.get();
+        server.getWorld(BenchmarkData.WORLD);
+        server.clearPlayers();
+        BenchmarkData.addPlayers(server, players, 2);
+
+        dataFolder = StubServer.createDataFolder();
+        BenchmarkData.writeConfig(dataFolder, BenchmarkData.records(generators, 1));
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(new File(dataFolder, "config.yml"));
+        config.set("planning.async", async);
+        config.save(new File(dataFolder, "config.yml"));
+        plugin = server.enablePlugin(dataFolder);
+        plugin.getEmissionPipeline().setSink(this::count);
+        scheduler = plugin.getScheduler();
+    }
+
+    @TearDown
+    public void tearDown() {
+        plugin.onDisable();
+        StubServer.deleteRecursively(dataFolder);
+    }
+
+    @Benchmark
+    public long tick() {
+        scheduler.run();
+        return particles;
+    }
+
+    private void count(Player player, ParticleBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            particles += batch.getCount(i);
+        }
+    }
+}
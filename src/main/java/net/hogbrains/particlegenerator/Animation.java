@@ -0,0 +1,204 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Color;
+import org.bukkit.Particle;
+
+import java.util.Locale;
+
+/**
+ * Formulas over tick time for the values a generator emits with, so effects can change
+ * every tick without commands, task restarts or saves. Each animated channel replaces the
+ * generator's own value for that channel: count, speed, the offset spread, the position
+ * relative to the generator, and the colour and size of dust particles.
+ *
+ * Written as {@code channel=formula} pairs separated by {@code |}, for example
+ * {@code count=5+3*sin(t/10)|y=keys(0:0,20:1.5,40:0)}. See {@link Expression} for formulas.
+ *
+ * Instances are immutable and shared by reference through {@link ParticleParams}.
+ */
+final class Animation {
+
+    static final int COUNT = 0;
+    static final int SPEED = 1;
+    static final int OFFSET_X = 2;
+    static final int OFFSET_Y = 3;
+    static final int OFFSET_Z = 4;
+    static final int X = 5;
+    static final int Y = 6;
+    static final int Z = 7;
+    static final int RED = 8;
+    static final int GREEN = 9;
+    static final int BLUE = 10;
+    static final int SIZE = 11;
+    static final String[] CHANNELS = {"count", "speed", "offsetx", "offsety", "offsetz", "x", "y", "z", "red", "green", "blue", "size"};
+
+    private final String spec;
+    // Formulas and their source by channel, null where the channel is not animated
+    private final Expression[] tracks;
+    private final String[] sources;
+    private final boolean moves;
+    private final boolean colours;
+
+    private Animation(String[] sources) {
+        this.sources = sources;
+        this.tracks = new Expression[CHANNELS.length];
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < CHANNELS.length; i++) {
+            if (sources[i] == null) {
+                continue;
+            }
+            try {
+                tracks[i] = Expression.compile(sources[i]);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(CHANNELS[i] + ": " + e.getMessage());
+            }
+            if (builder.length() > 0) {
+                builder.append('|');
+            }
+            builder.append(CHANNELS[i]).append('=').append(sources[i]);
+        }
+        this.spec = builder.toString();
+        this.moves = tracks[X] != null || tracks[Y] != null || tracks[Z] != null;
+        this.colours = tracks[RED] != null || tracks[GREEN] != null || tracks[BLUE] != null || tracks[SIZE] != null;
+    }
+
+    /**
+     * Parses a full spec as stored with a generator.
+     *
+     * @throws IllegalArgumentException if a channel or formula is invalid
+     */
+    static Animation parse(String spec) {
+        String[] sources = new String[CHANNELS.length];
+        for (String part : spec.split("\\|")) {
+            int separator = part.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected channel=formula but got " + part.trim());
+            }
+            sources[channel(part.substring(0, separator))] = normalize(part.substring(separator + 1));
+        }
+        return new Animation(sources);
+    }
+
+    /**
+     * Returns a copy of the animation, which may be null, with one channel set to a formula,
+     * or removed when the formula is null. Returns null if no channel is left.
+     *
+     * @throws IllegalArgumentException if the channel or formula is invalid
+     */
+    static Animation with(Animation animation, String channel, String formula) {
+        String[] sources = animation == null ? new String[CHANNELS.length] : animation.sources.clone();
+        sources[channel(channel)] = formula == null ? null : normalize(formula);
+        for (String source : sources) {
+            if (source != null) {
+                return new Animation(sources);
+            }
+        }
+        return null;
+    }
+
+    private static int channel(String name) {
+        String channel = name.trim().toLowerCase(Locale.ROOT);
+        for (int i = 0; i < CHANNELS.length; i++) {
+            if (CHANNELS[i].equals(channel)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown channel " + name.trim() + ", expected one of " + String.join(", ", CHANNELS));
+    }
+
+    private static String normalize(String formula) {
+        // The spec is stored inside ;-separated generator strings, so it is kept free of spaces
+        String normalized = formula.replace(" ", "").toLowerCase(Locale.ROOT);
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("Empty formula");
+        }
+        if (normalized.indexOf(';') >= 0 || normalized.indexOf('|') >= 0) {
+            throw new IllegalArgumentException("Formulas cannot contain ; or |");
+        }
+        return normalized;
+    }
+
+    /**
+     * Evaluates every channel at the given tick into the frame, taking the values of
+     * channels that are not animated from the params. Allocates nothing.
+     */
+    void evaluate(long tick, ParticleParams params, Frame frame) {
+        double t = tick;
+        frame.count = tracks[COUNT] == null ? params.count : (int) Math.max(0, Math.min(Integer.MAX_VALUE, Math.round(tracks[COUNT].eval(t))));
+        frame.speed = tracks[SPEED] == null ? params.speed : Math.max(0, tracks[SPEED].eval(t));
+        frame.offsetX = tracks[OFFSET_X] == null ? params.offsetX : tracks[OFFSET_X].eval(t);
+        frame.offsetY = tracks[OFFSET_Y] == null ? params.offsetY : tracks[OFFSET_Y].eval(t);
+        frame.offsetZ = tracks[OFFSET_Z] == null ? params.offsetZ : tracks[OFFSET_Z].eval(t);
+        frame.x = tracks[X] == null ? 0 : tracks[X].eval(t);
+        frame.y = tracks[Y] == null ? 0 : tracks[Y].eval(t);
+        frame.z = tracks[Z] == null ? 0 : tracks[Z].eval(t);
+        if (colours) {
+            // Channels that are not animated keep the colour and size of the generator's dust
+            Object data = params.data.getValue();
+            Particle.DustOptions dust = data instanceof Particle.DustOptions ? (Particle.DustOptions) data : null;
+            Color color = dust == null ? null : dust.getColor();
+            frame.red = channelValue(tracks[RED], t, color == null ? 255 : color.getRed());
+            frame.green = channelValue(tracks[GREEN], t, color == null ? 255 : color.getGreen());
+            frame.blue = channelValue(tracks[BLUE], t, color == null ? 255 : color.getBlue());
+            frame.size = tracks[SIZE] == null ? (dust == null ? 1 : dust.getSize()) : (float) Math.max(0.01, Math.min(4, tracks[SIZE].eval(t)));
+        }
+    }
+
+    private static int channelValue(Expression track, double t, int fallback) {
+        if (track == null) {
+            return fallback;
+        }
+        return (int) Math.max(0, Math.min(255, Math.round(track.eval(t))));
+    }
+
+    /**
+     * Returns the canonical spec, as stored with the generator.
+     */
+    public String getSpec() {
+        return spec;
+    }
+
+    /**
+     * Returns the formula of a channel, or null if it is not animated.
+     */
+    public String getSource(int channel) {
+        return sources[channel];
+    }
+
+    public boolean isMoving() {
+        return moves;
+    }
+
+    public boolean isColoured() {
+        return colours;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Animation && spec.equals(((Animation) o).spec);
+    }
+
+    @Override
+    public int hashCode() {
+        return spec.hashCode();
+    }
+
+    /**
+     * Values of one firing, reused by a generator from firing to firing.
+     */
+    static final class Frame {
+        int count;
+        double speed;
+        double offsetX;
+        double offsetY;
+        double offsetZ;
+        // Displacement from the generator's position
+        double x;
+        double y;
+        double z;
+        int red;
+        int green;
+        int blue;
+        float size;
+    }
+}
@@ -0,0 +1,140 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Typed parsers for command arguments. Parsers validate their input up front and return
+ * null for anything invalid instead of throwing, so a mistyped command costs no exception.
+ */
+final class Arguments {
+
+    static final Parser<Integer> INTEGER = Arguments::parseInt;
+    static final Parser<Double> NUMBER = Arguments::parseDouble;
+    static final Parser<Particle> PARTICLE = Arguments::parseParticle;
+
+    // Particles by upper case name, built once
+    private static final Map<String, Particle> PARTICLES = new HashMap<>();
+
+    static {
+        for (Particle particle : Particle.values()) {
+            PARTICLES.put(particle.name(), particle);
+        }
+    }
+
+    private Arguments() {
+    }
+
+    interface Parser<T> {
+        /**
+         * Returns the parsed value, or null if the input is invalid.
+         */
+        T parse(String input);
+    }
+
+    static Integer parseInt(String input) {
+        int length = input.length();
+        if (length == 0) {
+            return null;
+        }
+        int i = 0;
+        boolean negative = false;
+        if (input.charAt(0) == '-' || input.charAt(0) == '+') {
+            negative = input.charAt(0) == '-';
+            if (++i == length) {
+                return null;
+            }
+        }
+        // Accumulate negatively so Integer.MIN_VALUE still fits
+        int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        int result = 0;
+        for (; i < length; i++) {
+            int digit = input.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < limit / 10) {
+                return null;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return null;
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Parses a plain decimal number with an optional exponent. NaN, infinity and hex
+     * floats are rejected.
+     */
+    static Double parseDouble(String input) {
+        int length = input.length();
+        int i = 0;
+        if (i < length && (input.charAt(i) == '-' || input.charAt(i) == '+')) {
+            i++;
+        }
+        int digits = 0;
+        while (i < length && isDigit(input.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < length && input.charAt(i) == '.') {
+            i++;
+            while (i < length && isDigit(input.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return null;
+        }
+        if (i < length && (input.charAt(i) == 'e' || input.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (input.charAt(i) == '-' || input.charAt(i) == '+')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < length && isDigit(input.charAt(i))) {
+                i++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return null;
+            }
+        }
+        if (i != length) {
+            return null;
+        }
+        double value = Double.parseDouble(input);
+        return Double.isInfinite(value) ? null : value;
+    }
+
+    static Particle parseParticle(String input) {
+        return PARTICLES.get(input.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns whether the input can name a generator, template or group: letters, digits,
+     * underscores and dashes only, so it survives both YAML keys and the semicolon
+     * separated records.
+     */
+    static boolean isName(String input) {
+        int length = input.length();
+        if (length == 0) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || isDigit(c) || c == '_' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
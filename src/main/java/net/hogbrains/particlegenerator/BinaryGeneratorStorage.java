@@ -0,0 +1,281 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact columnar storage in generators.dat.
+ *
+ * Layout (big-endian): magic, version, a string table holding every name, world, particle
+ * and property string once, the record count, and then one column per field. Properties
+ * are stored as a per-record count followed by flat key/value string table indices.
+ */
+class BinaryGeneratorStorage implements GeneratorStorage {
+
+    static final int MAGIC = 0x5047454E; // "PGEN"
+    static final int VERSION = 1;
+
+    private final File file;
+
+    BinaryGeneratorStorage(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public String getName() {
+        return "binary";
+    }
+
+    public boolean exists() {
+        return file.isFile();
+    }
+
+    @Override
+    public Map<String, GeneratorRecord> load() throws IOException {
+        Map<String, GeneratorRecord> records = new LinkedHashMap<>();
+        if (!file.isFile()) {
+            return records;
+        }
+
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be a generator store");
+            }
+            buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the whole file is in the buffer
+            }
+        }
+        buffer.flip();
+
+        try {
+            read(buffer, records);
+        } catch (RuntimeException e) {
+            // Whatever a damaged file trips over, callers only have to handle an IOException
+            throw new IOException(file + " is damaged: " + e.getMessage(), e);
+        }
+        return records;
+    }
+
+    /**
+     * Reads the records from the buffer. Every count and string index is checked against
+     * what the buffer actually holds, so a truncated or damaged file fails with a runtime
+     * exception before anything is allocated or read out of bounds.
+     */
+    private void read(ByteBuffer buffer, Map<String, GeneratorRecord> records) throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException(file + " is not a generator store");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported generator store version " + version + " in " + file);
+        }
+
+        String[] strings = new String[readCount(buffer, 4, "strings")];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[readCount(buffer, 1, "string bytes")];
+            buffer.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // Each record takes six int and seven double columns
+        int count = readCount(buffer, 6 * 4 + 7 * 8, "records");
+        int[] names = readIndices(buffer, count, strings.length);
+        int[] worlds = readIndices(buffer, count, strings.length);
+        double[] xs = readDoubles(buffer, count);
+        double[] ys = readDoubles(buffer, count);
+        double[] zs = readDoubles(buffer, count);
+        int[] particles = readIndices(buffer, count, strings.length);
+        int[] counts = readInts(buffer, count);
+        int[] intervals = readInts(buffer, count);
+        double[] speeds = readDoubles(buffer, count);
+        double[] offsetXs = readDoubles(buffer, count);
+        double[] offsetYs = readDoubles(buffer, count);
+        double[] offsetZs = readDoubles(buffer, count);
+        int[] propertyCounts = readInts(buffer, count);
+        long propertyTotal = 0;
+        for (int propertyCount : propertyCounts) {
+            if (propertyCount < 0) {
+                throw new IllegalStateException("negative property count " + propertyCount);
+            }
+            propertyTotal += propertyCount;
+        }
+        checkRemaining(buffer, propertyTotal * 2 * 4, "properties");
+        int[] propertyStrings = readIndices(buffer, (int) propertyTotal * 2, strings.length);
+
+        // Resolve each distinct particle name once rather than once per record
+        Particle[] particleTable = new Particle[strings.length];
+        int property = 0;
+        for (int i = 0; i < count; i++) {
+            Particle particle = particleTable[particles[i]];
+            if (particle == null) {
+                particle = Particle.valueOf(strings[particles[i]]);
+                particleTable[particles[i]] = particle;
+            }
+            Map<String, String> recordProperties = Collections.emptyMap();
+            if (propertyCounts[i] > 0) {
+                recordProperties = new LinkedHashMap<>();
+                for (int j = 0; j < propertyCounts[i]; j++, property += 2) {
+                    recordProperties.put(strings[propertyStrings[property]], strings[propertyStrings[property + 1]]);
+                }
+                recordProperties = Collections.unmodifiableMap(recordProperties);
+            }
+            String name = strings[names[i]];
+            records.put(name, new GeneratorRecord(name, strings[worlds[i]], xs[i], ys[i], zs[i], particle, counts[i], intervals[i], speeds[i], offsetXs[i], offsetYs[i], offsetZs[i], recordProperties));
+        }
+    }
+
+    @Override
+    public void save(Collection<GeneratorRecord> records) throws IOException {
+        Map<String, Integer> stringIndex = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        int count = records.size();
+        int[] names = new int[count];
+        int[] worlds = new int[count];
+        int[] particles = new int[count];
+        int[] propertyCounts = new int[count];
+        int propertyTotal = 0;
+        int i = 0;
+        for (GeneratorRecord record : records) {
+            names[i] = intern(record.getName(), stringIndex, strings);
+            worlds[i] = intern(record.getWorldName(), stringIndex, strings);
+            particles[i] = intern(record.getParticle().name(), stringIndex, strings);
+            propertyCounts[i] = record.getProperties().size();
+            propertyTotal += propertyCounts[i];
+            i++;
+        }
+        int[] propertyStrings = new int[propertyTotal * 2];
+        int property = 0;
+        for (GeneratorRecord record : records) {
+            for (Map.Entry<String, String> entry : record.getProperties().entrySet()) {
+                propertyStrings[property++] = intern(entry.getKey(), stringIndex, strings);
+                propertyStrings[property++] = intern(entry.getValue(), stringIndex, strings);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + count * 96);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+        out.writeInt(count);
+        writeInts(out, names);
+        writeInts(out, worlds);
+        for (GeneratorRecord record : records) {
+            out.writeDouble(record.getX());
+        }
+        for (GeneratorRecord record : records) {
+            out.writeDouble(record.getY());
+        }
+        for (GeneratorRecord record : records) {
+            out.writeDouble(record.getZ());
+        }
+        writeInts(out, particles);
+        for (GeneratorRecord record : records) {
+            out.writeInt(record.getCount());
+        }
+        for (GeneratorRecord record : records) {
+            out.writeInt(record.getInterval());
+        }
+        for (GeneratorRecord record : records) {
+            out.writeDouble(record.getSpeed());
+        }
+        for (GeneratorRecord record : records) {
+            out.writeDouble(record.getOffsetX());
+        }
+        for (GeneratorRecord record : records) {
+            out.writeDouble(record.getOffsetY());
+        }
+        for (GeneratorRecord record : records) {
+            out.writeDouble(record.getOffsetZ());
+        }
+        writeInts(out, propertyCounts);
+        writeInts(out, propertyStrings);
+        out.flush();
+
+        StorageFiles.writeAtomically(file, bytes.toByteArray());
+    }
+
+    private static int intern(String value, Map<String, Integer> stringIndex, List<String> strings) {
+        Integer index = stringIndex.get(value);
+        if (index == null) {
+            index = strings.size();
+            stringIndex.put(value, index);
+            strings.add(value);
+        }
+        return index;
+    }
+
+    /**
+     * Reads a count and checks that the rest of the buffer can hold that many elements of
+     * at least the given size.
+     */
+    private static int readCount(ByteBuffer buffer, int elementSize, String what) {
+        checkRemaining(buffer, 4, what);
+        int count = buffer.getInt();
+        if (count < 0) {
+            throw new IllegalStateException("negative number of " + what + ": " + count);
+        }
+        checkRemaining(buffer, (long) count * elementSize, what);
+        return count;
+    }
+
+    private static void checkRemaining(ByteBuffer buffer, long bytes, String what) {
+        if (bytes > buffer.remaining()) {
+            throw new IllegalStateException("file ends in the middle of the " + what);
+        }
+    }
+
+    private static int[] readIndices(ByteBuffer buffer, int count, int limit) {
+        int[] values = readInts(buffer, count);
+        for (int value : values) {
+            if (value < 0 || value >= limit) {
+                throw new IllegalStateException("string index " + value + " outside the table of " + limit);
+            }
+        }
+        return values;
+    }
+
+    private static int[] readInts(ByteBuffer buffer, int count) {
+        checkRemaining(buffer, (long) count * 4, "columns");
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer buffer, int count) {
+        checkRemaining(buffer, (long) count * 8, "columns");
+        double[] values = new double[count];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+        return values;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+}
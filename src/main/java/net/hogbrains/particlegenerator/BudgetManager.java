@@ -0,0 +1,172 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Holds the particle budgets and the adaptive throttle level.
+ *
+ * The throttle level rises while the server's tick time stays above the configured
+ * threshold and falls again once it recovers. Generators whose priority is below the
+ * current level emit fewer particles and fire less often, one halving per level.
+ */
+class BudgetManager {
+
+    private static final int CHECK_PERIOD = 20;
+    // Halving more often than this leaves nothing to thin out, and larger shifts overflow
+    static final int MAX_THROTTLE_STEPS = 16;
+    static final int MIN_PRIORITY = -100;
+    static final int MAX_PRIORITY = 100;
+
+    private final int maxCount;
+    private final int minInterval;
+    private final int maxInterval;
+    private final int globalPerTick;
+    private final int worldPerTick;
+    private final int chunkPerTick;
+    private final int playerPerTick;
+    private final boolean throttleEnabled;
+    private final double msptThreshold;
+    private final double recoverMspt;
+    private final int maxLevel;
+
+    // Paper exposes the server's average tick time; on Spigot we estimate it ourselves
+    private final MethodHandle averageTickTime;
+    private long lastTickNanos;
+    private double estimatedMspt = 50;
+    private int ticksUntilCheck = CHECK_PERIOD;
+    private int level;
+
+    BudgetManager(ConfigurationSection config) {
+        maxCount = config.getInt("limits.max-count", 1000);
+        minInterval = Math.max(1, config.getInt("limits.min-interval", 1));
+        maxInterval = Math.max(minInterval, config.getInt("limits.max-interval", 72000));
+        globalPerTick = config.getInt("budget.global-per-tick", 0);
+        worldPerTick = config.getInt("budget.world-per-tick", 0);
+        chunkPerTick = config.getInt("budget.chunk-per-tick", 0);
+        playerPerTick = config.getInt("budget.player-per-tick", 0);
+        throttleEnabled = config.getBoolean("budget.throttle.enabled", true);
+        msptThreshold = config.getDouble("budget.throttle.mspt-threshold", 45);
+        recoverMspt = config.getDouble("budget.throttle.recover-mspt", 35);
+        maxLevel = Math.max(0, Math.min(config.getInt("budget.throttle.max-level", 3), MAX_THROTTLE_STEPS));
+        averageTickTime = findAverageTickTime();
+    }
+
+    private static MethodHandle findAverageTickTime() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Bukkit.getServer().getClass(), "getAverageTickTime", MethodType.methodType(double.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Called once at the start of every scheduler tick.
+     */
+    public void onTick() {
+        long now = System.nanoTime();
+        if (lastTickNanos != 0) {
+            // The gap between our ticks never drops below 50ms, so this only sees overload
+            double elapsed = (now - lastTickNanos) / 1_000_000.0;
+            estimatedMspt += (elapsed - estimatedMspt) * 0.1;
+        }
+        lastTickNanos = now;
+
+        if (!throttleEnabled || --ticksUntilCheck > 0) {
+            return;
+        }
+        ticksUntilCheck = CHECK_PERIOD;
+        double mspt = getMspt();
+        if (mspt > msptThreshold && level < maxLevel) {
+            level++;
+        } else if (mspt < recoverMspt && level > 0) {
+            level--;
+        }
+    }
+
+    public double getMspt() {
+        if (averageTickTime != null) {
+            try {
+                return (double) averageTickTime.invoke(Bukkit.getServer());
+            } catch (Throwable ignored) {
+                // Fall back to our own estimate
+            }
+        }
+        return estimatedMspt;
+    }
+
+    /**
+     * Number of halvings applied to a generator of the given priority at the current level.
+     */
+    public int getThrottleSteps(int priority) {
+        return throttleSteps(level, priority);
+    }
+
+    static int throttleSteps(int level, int priority) {
+        // Compared as longs, since a very negative priority would overflow the difference
+        return level > priority ? (int) Math.min((long) level - priority, MAX_THROTTLE_STEPS) : 0;
+    }
+
+    /**
+     * Returns the priority moved into the allowed range, for values that were never checked
+     * by a command, such as hand-edited storage.
+     */
+    static int clampPriority(int priority) {
+        return Math.max(MIN_PRIORITY, Math.min(priority, MAX_PRIORITY));
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getMaxCount() {
+        return maxCount;
+    }
+
+    /**
+     * Returns the count moved into the allowed range, like {@link #clampInterval}.
+     */
+    public int clampCount(int count) {
+        return Math.max(0, Math.min(count, maxCount));
+    }
+
+    public int getMinInterval() {
+        return minInterval;
+    }
+
+    public int getMaxInterval() {
+        return maxInterval;
+    }
+
+    /**
+     * Returns the interval moved into the allowed range, for values that were never checked
+     * by a command, such as hand-edited storage.
+     */
+    public int clampInterval(int interval) {
+        return Math.max(minInterval, Math.min(interval, maxInterval));
+    }
+
+    public int getGlobalPerTick() {
+        return globalPerTick;
+    }
+
+    public int getWorldPerTick() {
+        return worldPerTick;
+    }
+
+    public int getChunkPerTick() {
+        return chunkPerTick;
+    }
+
+    public int getPlayerPerTick() {
+        return playerPerTick;
+    }
+
+    public boolean hasEmissionCaps() {
+        return globalPerTick > 0 || worldPerTick > 0 || chunkPerTick > 0;
+    }
+}
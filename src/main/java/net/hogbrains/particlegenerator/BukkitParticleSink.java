@@ -0,0 +1,19 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Sends each emission with {@link Player#spawnParticle}. The Bukkit API has no way to
+ * bundle particle packets, so this still writes one packet per emission, but only to
+ * players that can actually see it. Bukkit always sends player particles as forced, so
+ * the force flag of LOD tiers only takes effect with a packet-level sink.
+ */
+class BukkitParticleSink implements ParticleSink {
+
+    @Override
+    public void send(Player player, ParticleBatch batch) {
+        for (int i = 0, size = batch.size(); i < size; i++) {
+            player.spawnParticle(batch.getParticle(i), batch.getX(i), batch.getY(i), batch.getZ(i), batch.getCount(i), batch.getOffsetX(i), batch.getOffsetY(i), batch.getOffsetZ(i), batch.getSpeed(i), batch.getData(i));
+        }
+    }
+}
@@ -0,0 +1,570 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+import org.bukkit.World;
+
+import java.util.Arrays;
+
+/**
+ * Collects every emission made during a tick, merges identical ones and then hands each
+ * viewer all of the emissions they can see in a single sink call.
+ *
+ * Emissions are stored in reusable parallel arrays and viewers accumulate indices into
+ * them, so a steady-state tick does not allocate. When a tick goes over one of the
+ * configured budgets, emissions are admitted in priority order until the budget runs out.
+ *
+ * Emissions with LOD tiers are scaled per viewer: each viewer's count, firing rate and
+ * force flag come from the band their distance falls into.
+ *
+ * A count of zero is its own mode in Minecraft: one particle moving along the offset with
+ * the speed as velocity. Such directional emissions are never merged, are sent with their
+ * count of zero and cost one particle against the budgets.
+ */
+class EmissionPipeline implements EmissionTarget, PlayerTracker.ViewerConsumer {
+
+    private final PlayerTracker tracker;
+    private final BudgetManager budget;
+    private final PlayerBatch batchView = new PlayerBatch();
+    private ParticleSink sink;
+
+    private int size;
+    private World[] worlds;
+    private Particle[] particles;
+    private double[] xs;
+    private double[] ys;
+    private double[] zs;
+    private int[] counts;
+    // Count zero emissions still to be sent; cleared when a budget drops one
+    private boolean[] directional;
+    private double[] offsetXs;
+    private double[] offsetYs;
+    private double[] offsetZs;
+    private double[] speeds;
+    private Object[] data;
+    private double[] radii;
+    private int[] priorities;
+    private long[] chunkKeys;
+    private LodTiers[] lods;
+    private int[] intervals;
+
+    // Open-addressing table of emission index + 1, used to merge identical emissions
+    private int[] table;
+    private int[] slots;
+    private int[] hashes;
+
+    private PlayerTracker.TrackedPlayer[] recipients = new PlayerTracker.TrackedPlayer[16];
+    private int recipientCount;
+    private int currentEmission;
+    private long tick;
+
+    // Scratch space for priority ordering, per-player trimming and per-world/per-chunk budget usage
+    private long[] order = new long[64];
+    private int[] keptIndices = new int[64];
+    private int[] keptCounts = new int[64];
+    private boolean[] keptForce = new boolean[64];
+    private World[] budgetWorlds = new World[4];
+    private int[] budgetWorldUsed = new int[4];
+    private LongHashMap<int[]>[] budgetChunks = newChunkUsage(4);
+    private int budgetWorldCount;
+    private int budgetStamp;
+
+    private long lastEmissions;
+    private long lastPackets;
+    private long lastThrottled;
+
+    EmissionPipeline(PlayerTracker tracker, BudgetManager budget, ParticleSink sink) {
+        this.tracker = tracker;
+        this.budget = budget;
+        this.sink = sink;
+        allocate(64);
+    }
+
+    public void setSink(ParticleSink sink) {
+        this.sink = sink;
+    }
+
+    public ParticleSink getSink() {
+        return sink;
+    }
+
+    @Override
+    public void add(World world, long chunkKey, Particle particle, double x, double y, double z, int count, double offsetX, double offsetY, double offsetZ, double speed, Object particleData, double radius, int priority, LodTiers lod, int interval) {
+        int hash = hash(world, particle, x, y, z, offsetX, offsetY, offsetZ, speed, particleData, lod);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        int entry;
+        while ((entry = table[slot]) != 0) {
+            int index = entry - 1;
+            // Summing counts would turn a directional emission into a random spread
+            if (count > 0 && !directional[index] && hashes[index] == hash && worlds[index] == world && particles[index] == particle && data[index] == particleData && sameLod(lods[index], lod)
+                    && xs[index] == x && ys[index] == y && zs[index] == z
+                    && offsetXs[index] == offsetX && offsetYs[index] == offsetY && offsetZs[index] == offsetZ && speeds[index] == speed) {
+                // Stacked generators with identical parameters become one bigger emission
+                counts[index] += count;
+                if (radius > radii[index]) {
+                    radii[index] = radius;
+                }
+                if (priority > priorities[index]) {
+                    priorities[index] = priority;
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == xs.length) {
+            grow();
+            add(world, chunkKey, particle, x, y, z, count, offsetX, offsetY, offsetZ, speed, particleData, radius, priority, lod, interval);
+            return;
+        }
+        int index = size++;
+        worlds[index] = world;
+        particles[index] = particle;
+        xs[index] = x;
+        ys[index] = y;
+        zs[index] = z;
+        counts[index] = count;
+        directional[index] = count == 0;
+        offsetXs[index] = offsetX;
+        offsetYs[index] = offsetY;
+        offsetZs[index] = offsetZ;
+        speeds[index] = speed;
+        data[index] = particleData;
+        radii[index] = radius;
+        priorities[index] = priority;
+        chunkKeys[index] = chunkKey;
+        lods[index] = lod;
+        intervals[index] = interval;
+        hashes[index] = hash;
+        slots[index] = slot;
+        table[slot] = index + 1;
+    }
+
+    /**
+     * Groups the queued emissions by viewer, sends each viewer their batch and resets.
+     */
+    public void flush(long tick) {
+        this.tick = tick;
+        long packets = 0;
+        long throttled = applyBudget();
+        for (int i = 0; i < size; i++) {
+            if (counts[i] <= 0 && !directional[i]) {
+                continue;
+            }
+            currentEmission = i;
+            tracker.forEachViewer(worlds[i], xs[i], ys[i], zs[i], radii[i], this);
+        }
+        for (int i = 0; i < recipientCount; i++) {
+            PlayerTracker.TrackedPlayer recipient = recipients[i];
+            if (budget.getPlayerPerTick() > 0) {
+                throttled += applyPlayerBudget(recipient);
+            }
+            batchView.indices = recipient.pending;
+            batchView.counts = recipient.pendingCounts;
+            batchView.force = recipient.pendingForce;
+            batchView.length = recipient.pendingCount;
+            packets += recipient.pendingCount;
+            sink.send(recipient.player, batchView);
+            recipient.pendingCount = 0;
+            recipients[i] = null;
+        }
+        lastEmissions = size;
+        lastPackets = packets;
+        lastThrottled = throttled;
+        recipientCount = 0;
+        batchView.indices = null;
+        batchView.counts = null;
+        batchView.force = null;
+        reset();
+    }
+
+    @Override
+    public void accept(PlayerTracker.TrackedPlayer viewer) {
+        int index = currentEmission;
+        int count = counts[index];
+        boolean force = true;
+        LodTiers lod = lods[index];
+        if (lod != null) {
+            double dx = viewer.x - xs[index];
+            double dy = viewer.y - ys[index];
+            double dz = viewer.z - zs[index];
+            int tier = lod.tierFor(dx * dx + dy * dy + dz * dz);
+            // A generator fires once per interval, so tick / interval counts its firings
+            int intervalScale = lod.getIntervalScale(tier);
+            if (intervalScale > 1 && (tick / intervals[index]) % intervalScale != 0) {
+                return;
+            }
+            // A directional particle has no count to scale, only its firing rate thins out
+            if (!directional[index]) {
+                count = lod.scaleCount(tier, count);
+                if (count == 0) {
+                    return;
+                }
+            }
+            force = lod.isForce(tier);
+        }
+
+        if (viewer.pendingCount == 0) {
+            if (recipientCount == recipients.length) {
+                recipients = Arrays.copyOf(recipients, recipientCount * 2);
+            }
+            recipients[recipientCount++] = viewer;
+        } else if (viewer.pendingCount == viewer.pending.length) {
+            int capacity = viewer.pendingCount * 2;
+            viewer.pending = Arrays.copyOf(viewer.pending, capacity);
+            viewer.pendingCounts = Arrays.copyOf(viewer.pendingCounts, capacity);
+            viewer.pendingForce = Arrays.copyOf(viewer.pendingForce, capacity);
+        }
+        viewer.pending[viewer.pendingCount] = index;
+        viewer.pendingCounts[viewer.pendingCount] = count;
+        viewer.pendingForce[viewer.pendingCount++] = force;
+    }
+
+    public long getLastEmissions() {
+        return lastEmissions;
+    }
+
+    public long getLastPackets() {
+        return lastPackets;
+    }
+
+    public long getLastThrottled() {
+        return lastThrottled;
+    }
+
+    /**
+     * Trims this tick's emissions to the global, per-world and per-chunk budgets, keeping
+     * higher priority emissions first. Returns the number of particles that were cut.
+     */
+    private long applyBudget() {
+        if (size == 0 || !budget.hasEmissionCaps()) {
+            return 0;
+        }
+        int globalCap = budget.getGlobalPerTick();
+        int worldCap = budget.getWorldPerTick();
+        int chunkCap = budget.getChunkPerTick();
+
+        // Cheap first pass: most ticks fit in the budget and need no ordering at all
+        budgetStamp++;
+        budgetWorldCount = 0;
+        long total = 0;
+        boolean over = false;
+        for (int i = 0; i < size; i++) {
+            int cost = cost(i);
+            total += cost;
+            if (worldCap > 0 || chunkCap > 0) {
+                int world = budgetWorld(worlds[i]);
+                budgetWorldUsed[world] += cost;
+                if (worldCap > 0 && budgetWorldUsed[world] > worldCap) {
+                    over = true;
+                }
+                if (chunkCap > 0 && addChunkUsage(world, chunkKeys[i], cost) > chunkCap) {
+                    over = true;
+                }
+            }
+        }
+        if (!over && (globalCap <= 0 || total <= globalCap)) {
+            return 0;
+        }
+
+        // Admit emissions from the highest priority down until each budget runs out
+        if (order.length < size) {
+            order = new long[xs.length];
+        }
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) -priorities[i] << 32) | i;
+        }
+        Arrays.sort(order, 0, size);
+        budgetStamp++;
+        budgetWorldCount = 0;
+        long remaining = globalCap > 0 ? globalCap : Long.MAX_VALUE;
+        long throttled = 0;
+        for (int k = 0; k < size; k++) {
+            int i = (int) order[k];
+            int cost = cost(i);
+            int allowed = (int) Math.min(cost, remaining);
+            int world = budgetWorld(worlds[i]);
+            if (worldCap > 0) {
+                allowed = Math.min(allowed, worldCap - budgetWorldUsed[world]);
+            }
+            if (chunkCap > 0) {
+                allowed = Math.min(allowed, chunkCap - addChunkUsage(world, chunkKeys[i], 0));
+            }
+            allowed = Math.max(0, allowed);
+            throttled += cost - allowed;
+            if (directional[i]) {
+                // All or nothing: the one particle either fits or is dropped
+                directional[i] = allowed > 0;
+            } else {
+                counts[i] = allowed;
+            }
+            remaining -= allowed;
+            budgetWorldUsed[world] += allowed;
+            if (chunkCap > 0) {
+                addChunkUsage(world, chunkKeys[i], allowed);
+            }
+        }
+        return throttled;
+    }
+
+    /**
+     * Drops a recipient's lowest priority emissions until the batch fits the per-player cap.
+     */
+    private long applyPlayerBudget(PlayerTracker.TrackedPlayer recipient) {
+        int cap = budget.getPlayerPerTick();
+        int[] pending = recipient.pending;
+        int[] pendingCounts = recipient.pendingCounts;
+        boolean[] pendingForce = recipient.pendingForce;
+        int pendingCount = recipient.pendingCount;
+        long total = 0;
+        for (int i = 0; i < pendingCount; i++) {
+            total += Math.max(1, pendingCounts[i]);
+        }
+        if (total <= cap) {
+            return 0;
+        }
+        if (order.length < pendingCount) {
+            order = new long[pending.length];
+        }
+        // Sort positions in the batch, since the per-viewer counts and flags are stored by position
+        for (int i = 0; i < pendingCount; i++) {
+            order[i] = ((long) -priorities[pending[i]] << 32) | i;
+        }
+        Arrays.sort(order, 0, pendingCount);
+        long remaining = cap;
+        long dropped = 0;
+        int kept = 0;
+        if (keptIndices.length < pendingCount) {
+            keptIndices = new int[pending.length];
+            keptCounts = new int[pending.length];
+            keptForce = new boolean[pending.length];
+        }
+        for (int k = 0; k < pendingCount; k++) {
+            int position = (int) order[k];
+            // Only directional emissions have a count of zero in a batch, and they cost one
+            int cost = Math.max(1, pendingCounts[position]);
+            if (cost <= remaining) {
+                remaining -= cost;
+                keptIndices[kept] = pending[position];
+                keptCounts[kept] = pendingCounts[position];
+                keptForce[kept++] = pendingForce[position];
+            } else {
+                dropped += cost;
+            }
+        }
+        System.arraycopy(keptIndices, 0, pending, 0, kept);
+        System.arraycopy(keptCounts, 0, pendingCounts, 0, kept);
+        System.arraycopy(keptForce, 0, pendingForce, 0, kept);
+        recipient.pendingCount = kept;
+        return dropped;
+    }
+
+    private int cost(int index) {
+        return directional[index] ? 1 : counts[index];
+    }
+
+    private int budgetWorld(World world) {
+        for (int i = 0; i < budgetWorldCount; i++) {
+            if (budgetWorlds[i] == world) {
+                return i;
+            }
+        }
+        if (budgetWorldCount == budgetWorlds.length) {
+            int capacity = budgetWorldCount * 2;
+            budgetWorlds = Arrays.copyOf(budgetWorlds, capacity);
+            budgetWorldUsed = Arrays.copyOf(budgetWorldUsed, capacity);
+            LongHashMap<int[]>[] chunks = newChunkUsage(capacity);
+            System.arraycopy(budgetChunks, 0, chunks, 0, budgetWorldCount);
+            budgetChunks = chunks;
+        }
+        int index = budgetWorldCount++;
+        budgetWorlds[index] = world;
+        budgetWorldUsed[index] = 0;
+        return index;
+    }
+
+    private int addChunkUsage(int world, long chunkKey, int amount) {
+        // Entries are {stamp, used}; a stale stamp means the counter is from an earlier pass
+        int[] usage = budgetChunks[world].get(chunkKey);
+        if (usage == null) {
+            usage = new int[2];
+            budgetChunks[world].put(chunkKey, usage);
+        }
+        if (usage[0] != budgetStamp) {
+            usage[0] = budgetStamp;
+            usage[1] = 0;
+        }
+        usage[1] += amount;
+        return usage[1];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static LongHashMap<int[]>[] newChunkUsage(int capacity) {
+        LongHashMap<int[]>[] chunks = new LongHashMap[capacity];
+        for (int i = 0; i < capacity; i++) {
+            chunks[i] = new LongHashMap<>();
+        }
+        return chunks;
+    }
+
+    private void reset() {
+        // Only clear the table slots that were used this tick
+        for (int i = 0; i < size; i++) {
+            table[slots[i]] = 0;
+            worlds[i] = null;
+            data[i] = null;
+            lods[i] = null;
+        }
+        size = 0;
+        for (int i = 0; i < budgetWorldCount; i++) {
+            budgetWorlds[i] = null;
+        }
+        budgetWorldCount = 0;
+    }
+
+    private static boolean sameLod(LodTiers first, LodTiers second) {
+        return first == second || first != null && first.equals(second);
+    }
+
+    private static int hash(World world, Particle particle, double x, double y, double z, double offsetX, double offsetY, double offsetZ, double speed, Object particleData, LodTiers lod) {
+        long h = System.identityHashCode(world);
+        h = h * 31 + particle.ordinal();
+        h = h * 31 + Double.doubleToLongBits(x);
+        h = h * 31 + Double.doubleToLongBits(y);
+        h = h * 31 + Double.doubleToLongBits(z);
+        h = h * 31 + Double.doubleToLongBits(offsetX);
+        h = h * 31 + Double.doubleToLongBits(offsetY);
+        h = h * 31 + Double.doubleToLongBits(offsetZ);
+        h = h * 31 + Double.doubleToLongBits(speed);
+        h = h * 31 + System.identityHashCode(particleData);
+        h = h * 31 + (lod == null ? 0 : lod.hashCode());
+        h *= 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity) {
+        worlds = new World[capacity];
+        particles = new Particle[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        zs = new double[capacity];
+        counts = new int[capacity];
+        directional = new boolean[capacity];
+        offsetXs = new double[capacity];
+        offsetYs = new double[capacity];
+        offsetZs = new double[capacity];
+        speeds = new double[capacity];
+        data = new Object[capacity];
+        radii = new double[capacity];
+        priorities = new int[capacity];
+        chunkKeys = new long[capacity];
+        lods = new LodTiers[capacity];
+        intervals = new int[capacity];
+        hashes = new int[capacity];
+        slots = new int[capacity];
+        table = new int[capacity * 2];
+    }
+
+    private void grow() {
+        int capacity = xs.length * 2;
+        worlds = Arrays.copyOf(worlds, capacity);
+        particles = Arrays.copyOf(particles, capacity);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        zs = Arrays.copyOf(zs, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        directional = Arrays.copyOf(directional, capacity);
+        offsetXs = Arrays.copyOf(offsetXs, capacity);
+        offsetYs = Arrays.copyOf(offsetYs, capacity);
+        offsetZs = Arrays.copyOf(offsetZs, capacity);
+        speeds = Arrays.copyOf(speeds, capacity);
+        data = Arrays.copyOf(data, capacity);
+        radii = Arrays.copyOf(radii, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+        chunkKeys = Arrays.copyOf(chunkKeys, capacity);
+        lods = Arrays.copyOf(lods, capacity);
+        intervals = Arrays.copyOf(intervals, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        slots = Arrays.copyOf(slots, capacity);
+
+        // Rehash the existing emissions into a table twice the new capacity
+        table = new int[capacity * 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = hashes[i] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+            slots[i] = slot;
+        }
+    }
+
+    private final class PlayerBatch implements ParticleBatch {
+        int[] indices;
+        // Per viewer values, by position in the batch
+        int[] counts;
+        boolean[] force;
+        int length;
+
+        @Override
+        public int size() {
+            return length;
+        }
+
+        @Override
+        public Particle getParticle(int index) {
+            return particles[indices[index]];
+        }
+
+        @Override
+        public double getX(int index) {
+            return xs[indices[index]];
+        }
+
+        @Override
+        public double getY(int index) {
+            return ys[indices[index]];
+        }
+
+        @Override
+        public double getZ(int index) {
+            return zs[indices[index]];
+        }
+
+        @Override
+        public int getCount(int index) {
+            return counts[index];
+        }
+
+        @Override
+        public double getOffsetX(int index) {
+            return offsetXs[indices[index]];
+        }
+
+        @Override
+        public double getOffsetY(int index) {
+            return offsetYs[indices[index]];
+        }
+
+        @Override
+        public double getOffsetZ(int index) {
+            return offsetZs[indices[index]];
+        }
+
+        @Override
+        public double getSpeed(int index) {
+            return speeds[indices[index]];
+        }
+
+        @Override
+        public Object getData(int index) {
+            return data[indices[index]];
+        }
+
+        @Override
+        public boolean isForce(int index) {
+            return force[index];
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+import org.bukkit.World;
+
+import java.util.Arrays;
+
+/**
+ * One tick's emissions, built ahead of time by the {@link EmissionPlanner} and replayed
+ * into the {@link EmissionPipeline} on the main thread. Every planning task fills its own
+ * segment, so workers never write to shared arrays, and segments are reused from tick to
+ * tick.
+ */
+final class EmissionPlan {
+
+    long tick;
+    Segment[] segments = new Segment[0];
+    int segmentCount;
+    // Wall time the workers needed, and the error that aborted planning if any
+    long buildNanos;
+    Throwable failure;
+
+    void reset(long tick, int segmentCount) {
+        this.tick = tick;
+        if (segments.length < segmentCount) {
+            Segment[] grown = Arrays.copyOf(segments, segmentCount);
+            for (int i = segments.length; i < segmentCount; i++) {
+                grown[i] = new Segment();
+            }
+            segments = grown;
+        }
+        this.segmentCount = segmentCount;
+        buildNanos = 0;
+        failure = null;
+    }
+
+    /**
+     * Queues every planned emission of generators that are still active and adds the
+     * firing totals to the metrics, to each generator's shard and to the cost counters of
+     * each generator, which are only written here on the main thread. Costs one step per
+     * firing and emission, not per generator.
+     */
+    void replay(EmissionPipeline pipeline, PluginMetrics metrics) {
+        for (int s = 0; s < segmentCount; s++) {
+            Segment segment = segments[s];
+            int start = 0;
+            for (int f = 0; f < segment.firingCount; f++) {
+                int end = segment.firingEnds[f];
+                ParticleGenerator generator = segment.firingGenerators[f];
+                int emitted = segment.firingParticles[f];
+                generator.recordFiring(emitted, segment.firingNanos[f]);
+                // Generators stopped or unloaded since planning lose their emissions
+                if (emitted >= 0 && generator.isActive()) {
+                    WorldShard shard = generator.getShard();
+                    shard.emissions++;
+                    shard.particles += emitted;
+                    for (int i = start; i < end; i++) {
+                        pipeline.add(segment.worlds[i], segment.chunkKeys[i], segment.particles[i], segment.xs[i], segment.ys[i], segment.zs[i], segment.counts[i],
+                                segment.offsetXs[i], segment.offsetYs[i], segment.offsetZs[i], segment.speeds[i], segment.data[i], segment.radii[i], segment.priorities[i], segment.lods[i], segment.intervals[i]);
+                    }
+                }
+                start = end;
+            }
+            metrics.emissions += segment.firingCount - segment.skipped;
+            metrics.particles += segment.particleTotal;
+            metrics.skipped += segment.skipped;
+            segment.clear();
+        }
+    }
+
+    static final class Segment implements EmissionTarget {
+        private int size;
+        private World[] worlds;
+        private Particle[] particles;
+        private double[] xs;
+        private double[] ys;
+        private double[] zs;
+        private int[] counts;
+        private double[] offsetXs;
+        private double[] offsetYs;
+        private double[] offsetZs;
+        private double[] speeds;
+        private Object[] data;
+        private double[] radii;
+        private int[] priorities;
+        private long[] chunkKeys;
+        private LodTiers[] lods;
+        private int[] intervals;
+
+        // Generators that fired, each with the end of its emissions in the arrays above, the
+        // particles it queued or -1 if it skipped, and the time the firing took
+        private ParticleGenerator[] firingGenerators = new ParticleGenerator[16];
+        private int[] firingEnds = new int[16];
+        private int[] firingParticles = new int[16];
+        private long[] firingNanos = new long[16];
+        private int firingCount;
+        private long particleTotal;
+        private long skipped;
+
+        Segment() {
+            allocate(64);
+        }
+
+        @Override
+        public void add(World world, long chunkKey, Particle particle, double x, double y, double z, int count, double offsetX, double offsetY, double offsetZ, double speed, Object particleData, double radius, int priority, LodTiers lod, int interval) {
+            if (size == xs.length) {
+                grow();
+            }
+            int index = size++;
+            worlds[index] = world;
+            particles[index] = particle;
+            xs[index] = x;
+            ys[index] = y;
+            zs[index] = z;
+            counts[index] = count;
+            offsetXs[index] = offsetX;
+            offsetYs[index] = offsetY;
+            offsetZs[index] = offsetZ;
+            speeds[index] = speed;
+            data[index] = particleData;
+            radii[index] = radius;
+            priorities[index] = priority;
+            chunkKeys[index] = chunkKey;
+            lods[index] = lod;
+            intervals[index] = interval;
+        }
+
+        /**
+         * Closes the firing of a generator whose emissions were just added. A negative
+         * count marks a skipped firing, which is kept so replay can record its cost.
+         */
+        void endFiring(ParticleGenerator generator, int emitted, long nanos) {
+            if (firingCount == firingEnds.length) {
+                firingGenerators = Arrays.copyOf(firingGenerators, firingCount * 2);
+                firingEnds = Arrays.copyOf(firingEnds, firingCount * 2);
+                firingParticles = Arrays.copyOf(firingParticles, firingCount * 2);
+                firingNanos = Arrays.copyOf(firingNanos, firingCount * 2);
+            }
+            firingGenerators[firingCount] = generator;
+            firingParticles[firingCount] = emitted;
+            firingNanos[firingCount] = nanos;
+            firingEnds[firingCount++] = size;
+            if (emitted < 0) {
+                skipped++;
+            } else {
+                particleTotal += emitted;
+            }
+        }
+
+        void clear() {
+            // Drop references so unloaded worlds and removed generators can be collected
+            Arrays.fill(worlds, 0, size, null);
+            Arrays.fill(data, 0, size, null);
+            Arrays.fill(lods, 0, size, null);
+            Arrays.fill(firingGenerators, 0, firingCount, null);
+            size = 0;
+            firingCount = 0;
+            particleTotal = 0;
+            skipped = 0;
+        }
+
+        private void allocate(int capacity) {
+            worlds = new World[capacity];
+            particles = new Particle[capacity];
+            xs = new double[capacity];
+            ys = new double[capacity];
+            zs = new double[capacity];
+            counts = new int[capacity];
+            offsetXs = new double[capacity];
+            offsetYs = new double[capacity];
+            offsetZs = new double[capacity];
+            speeds = new double[capacity];
+            data = new Object[capacity];
+            radii = new double[capacity];
+            priorities = new int[capacity];
+            chunkKeys = new long[capacity];
+            lods = new LodTiers[capacity];
+            intervals = new int[capacity];
+        }
+
+        private void grow() {
+            int capacity = xs.length * 2;
+            worlds = Arrays.copyOf(worlds, capacity);
+            particles = Arrays.copyOf(particles, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            zs = Arrays.copyOf(zs, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            offsetXs = Arrays.copyOf(offsetXs, capacity);
+            offsetYs = Arrays.copyOf(offsetYs, capacity);
+            offsetZs = Arrays.copyOf(offsetZs, capacity);
+            speeds = Arrays.copyOf(speeds, capacity);
+            data = Arrays.copyOf(data, capacity);
+            radii = Arrays.copyOf(radii, capacity);
+            priorities = Arrays.copyOf(priorities, capacity);
+            chunkKeys = Arrays.copyOf(chunkKeys, capacity);
+            lods = Arrays.copyOf(lods, capacity);
+            intervals = Arrays.copyOf(intervals, capacity);
+        }
+    }
+}
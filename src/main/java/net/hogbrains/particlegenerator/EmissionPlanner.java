@@ -0,0 +1,182 @@
+package net.hogbrains.particlegenerator;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plans the next tick's emissions on a fork-join pool while the server runs the rest of
+ * its tick.
+ *
+ * The main thread copies the due generators out of the timing wheel and snapshots the
+ * players, so workers only read immutable params, placements and positions plus each
+ * generator's own firing counters. Only one plan is in flight at a time and it comes back
+ * through a single-slot queue, which the scheduler replays in O(emissions).
+ */
+class EmissionPlanner {
+
+    // Generators per planning task: enough to keep task overhead small, few enough to balance
+    private static final int SEGMENT_SIZE = 256;
+
+    private final ForkJoinPool pool;
+    private final long timeoutMillis;
+    private final BlockingQueue<EmissionPlan> handoff = new ArrayBlockingQueue<>(1);
+    private final EmissionPlan plan = new EmissionPlan();
+    private ParticleGenerator[] due = new ParticleGenerator[SEGMENT_SIZE];
+    private int dueCount;
+    private boolean pending;
+    // Set on shutdown so workers stop at the next generator instead of finishing the plan
+    private volatile boolean cancelled;
+
+    EmissionPlanner(int threads, long timeoutMillis) {
+        this.pool = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("ParticleGenerator-Planner-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getThreads() {
+        return pool.getParallelism();
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Appends one wheel slot's generators to the next plan.
+     */
+    void addDue(ParticleGenerator[] generators, int count) {
+        if (dueCount + count > due.length) {
+            due = Arrays.copyOf(due, Math.max(due.length * 2, dueCount + count));
+        }
+        System.arraycopy(generators, 0, due, dueCount, count);
+        dueCount += count;
+    }
+
+    /**
+     * Starts planning the given tick for the generators added since the last submit.
+     */
+    void submit(long tick, ViewerQuery viewers, int throttleLevel, boolean timing) {
+        ParticleGenerator[] generators = due;
+        int count = dueCount;
+        dueCount = 0;
+        plan.reset(tick, (count + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        pending = true;
+        pool.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                new PlanTask(generators, count, 0, plan.segmentCount, viewers, throttleLevel, timing).invoke();
+            } catch (Throwable t) {
+                plan.failure = t;
+            }
+            plan.buildNanos = System.nanoTime() - start;
+            handoff.offer(plan);
+        });
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Returns the finished plan without waiting, or null if it isn't ready yet.
+     */
+    EmissionPlan poll() {
+        EmissionPlan finished = handoff.poll();
+        if (finished != null) {
+            pending = false;
+        }
+        return finished;
+    }
+
+    /**
+     * Waits for the plan in flight for up to the timeout. Returns null if it didn't arrive.
+     */
+    EmissionPlan await() {
+        try {
+            EmissionPlan finished = handoff.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (finished != null) {
+                pending = false;
+            }
+            return finished;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Stops the workers and waits up to the timeout for a plan still in flight to give up.
+     * Returns false if a worker is still running, in which case it may still be firing
+     * generators and reading the due array.
+     */
+    public boolean shutdown() {
+        cancelled = true;
+        pool.shutdownNow();
+        try {
+            if (!pool.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        // Nothing reads the due generators anymore
+        Arrays.fill(due, null);
+        dueCount = 0;
+        return true;
+    }
+
+    /**
+     * Fires a range of segments, splitting until each task owns a single segment.
+     */
+    private final class PlanTask extends RecursiveAction {
+        private final ParticleGenerator[] generators;
+        private final int count;
+        private final int from;
+        private final int to;
+        private final ViewerQuery viewers;
+        private final int throttleLevel;
+        private final boolean timing;
+
+        PlanTask(ParticleGenerator[] generators, int count, int from, int to, ViewerQuery viewers, int throttleLevel, boolean timing) {
+            this.generators = generators;
+            this.count = count;
+            this.from = from;
+            this.to = to;
+            this.viewers = viewers;
+            this.throttleLevel = throttleLevel;
+            this.timing = timing;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PlanTask(generators, count, from, middle, viewers, throttleLevel, timing),
+                        new PlanTask(generators, count, middle, to, viewers, throttleLevel, timing));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+            EmissionPlan.Segment segment = plan.segments[from];
+            int end = Math.min(count, (from + 1) * SEGMENT_SIZE);
+            for (int i = from * SEGMENT_SIZE; i < end && !cancelled; i++) {
+                ParticleGenerator generator = generators[i];
+                long start = timing ? System.nanoTime() : 0;
+                int emitted = generator.emit(segment, viewers, throttleLevel, plan.tick);
+                // The generator's own counters are read by commands, so replay records them
+                segment.endFiring(generator, emitted, timing ? System.nanoTime() - start : 0);
+            }
+        }
+    }
+}
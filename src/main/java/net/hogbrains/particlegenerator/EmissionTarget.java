@@ -0,0 +1,14 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+import org.bukkit.World;
+
+/**
+ * Receives the emissions of firing generators: the pipeline when a tick is planned on the
+ * main thread, or a plan segment when it is planned ahead on a worker. The LOD tiers and
+ * the generator's interval let the pipeline thin the emission out per viewer.
+ */
+interface EmissionTarget {
+
+    void add(World world, long chunkKey, Particle particle, double x, double y, double z, int count, double offsetX, double offsetY, double offsetZ, double speed, Object particleData, double radius, int priority, LodTiers lod, int interval);
+}
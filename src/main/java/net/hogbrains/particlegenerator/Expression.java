@@ -0,0 +1,363 @@
+package net.hogbrains.particlegenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A formula over the tick time {@code t}, compiled once into a tree of nodes. Evaluating
+ * walks the tree with primitive doubles only, so it allocates nothing, and subtrees that do
+ * not depend on {@code t} are folded into constants when compiling.
+ *
+ * Supports numbers, {@code t}, {@code pi}, {@code + - * / % ^}, parentheses, the functions
+ * sin, cos, tan, abs, sqrt, floor, ceil, round, sign, min, max, pow and clamp, and looping
+ * keyframe tracks written as {@code keys(time:value,...)} (linear) or
+ * {@code steps(time:value,...)} (held until the next key).
+ */
+abstract class Expression {
+
+    abstract double eval(double t);
+
+    boolean isConstant() {
+        return false;
+    }
+
+    /**
+     * Compiles a formula.
+     *
+     * @throws IllegalArgumentException if the formula is invalid
+     */
+    static Expression compile(String source) {
+        Parser parser = new Parser(source.toLowerCase(Locale.ROOT));
+        Expression expression = parser.parseSum();
+        parser.skipSpaces();
+        if (parser.position < parser.source.length()) {
+            throw new IllegalArgumentException("Unexpected '" + parser.source.charAt(parser.position) + "' in " + source);
+        }
+        return expression;
+    }
+
+    private static final class Parser {
+        // Deeper formulas are rejected before the recursion can overflow the stack
+        static final int MAX_DEPTH = 64;
+
+        final String source;
+        int position;
+        int depth;
+
+        Parser(String source) {
+            this.source = source;
+        }
+
+        Expression parseSum() {
+            Expression left = parseProduct();
+            while (true) {
+                if (accept('+')) {
+                    left = fold(new Binary('+', left, parseProduct()));
+                } else if (accept('-')) {
+                    left = fold(new Binary('-', left, parseProduct()));
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        Expression parseProduct() {
+            Expression left = parseUnary();
+            while (true) {
+                if (accept('*')) {
+                    left = fold(new Binary('*', left, parseUnary()));
+                } else if (accept('/')) {
+                    left = fold(new Binary('/', left, parseUnary()));
+                } else if (accept('%')) {
+                    left = fold(new Binary('%', left, parseUnary()));
+                } else {
+                    return left;
+                }
+            }
+        }
+
+        Expression parseUnary() {
+            // Every nested parenthesis, argument, sign and power passes through here
+            if (++depth > MAX_DEPTH) {
+                throw new IllegalArgumentException("Formula is nested more than " + MAX_DEPTH + " levels deep");
+            }
+            try {
+                if (accept('-')) {
+                    return fold(new Binary('-', new Constant(0), parseUnary()));
+                }
+                accept('+');
+                Expression base = parsePrimary();
+                if (accept('^')) {
+                    return fold(new Binary('^', base, parseUnary()));
+                }
+                return base;
+            } finally {
+                depth--;
+            }
+        }
+
+        Expression parsePrimary() {
+            skipSpaces();
+            if (accept('(')) {
+                Expression inner = parseSum();
+                expect(')');
+                return inner;
+            }
+            if (position < source.length() && (Character.isDigit(source.charAt(position)) || source.charAt(position) == '.')) {
+                return new Constant(parseNumber());
+            }
+            int start = position;
+            while (position < source.length() && Character.isLetter(source.charAt(position))) {
+                position++;
+            }
+            String name = source.substring(start, position);
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException(position < source.length() ? "Unexpected '" + source.charAt(position) + "'" : "Unexpected end of formula");
+            }
+            if (name.equals("t")) {
+                return new Time();
+            } else if (name.equals("pi")) {
+                return new Constant(Math.PI);
+            } else if (name.equals("keys") || name.equals("steps")) {
+                return parseKeyframes(name.equals("steps"));
+            }
+            expect('(');
+            List<Expression> arguments = new ArrayList<>();
+            arguments.add(parseSum());
+            while (accept(',')) {
+                arguments.add(parseSum());
+            }
+            expect(')');
+            return fold(Function.create(name, arguments.toArray(new Expression[0])));
+        }
+
+        Expression parseKeyframes(boolean hold) {
+            expect('(');
+            List<double[]> keys = new ArrayList<>();
+            do {
+                skipSpaces();
+                double time = parseNumber();
+                expect(':');
+                skipSpaces();
+                double value = accept('-') ? -parseNumber() : parseNumber();
+                if (!keys.isEmpty() && time <= keys.get(keys.size() - 1)[0]) {
+                    throw new IllegalArgumentException("Keyframe times must be increasing");
+                }
+                keys.add(new double[]{time, value});
+            } while (accept(','));
+            expect(')');
+            if (keys.get(0)[0] < 0) {
+                throw new IllegalArgumentException("Keyframe times cannot be negative");
+            }
+            double[] times = new double[keys.size()];
+            double[] values = new double[keys.size()];
+            for (int i = 0; i < times.length; i++) {
+                times[i] = keys.get(i)[0];
+                values[i] = keys.get(i)[1];
+            }
+            return times.length == 1 ? new Constant(values[0]) : new Keyframes(times, values, hold);
+        }
+
+        double parseNumber() {
+            int start = position;
+            while (position < source.length() && (Character.isDigit(source.charAt(position)) || source.charAt(position) == '.')) {
+                position++;
+            }
+            Double value = Arguments.parseDouble(source.substring(start, position));
+            if (value == null) {
+                throw new IllegalArgumentException("Invalid number " + source.substring(start, position));
+            }
+            return value;
+        }
+
+        boolean accept(char c) {
+            skipSpaces();
+            if (position < source.length() && source.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!accept(c)) {
+                throw new IllegalArgumentException("Expected '" + c + "'" + (position < source.length() ? " at '" + source.charAt(position) + "'" : " at the end"));
+            }
+        }
+
+        void skipSpaces() {
+            while (position < source.length() && source.charAt(position) == ' ') {
+                position++;
+            }
+        }
+
+        static Expression fold(Expression expression) {
+            return expression.isConstant() ? new Constant(expression.eval(0)) : expression;
+        }
+    }
+
+    private static final class Constant extends Expression {
+        private final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double eval(double t) {
+            return value;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+    }
+
+    private static final class Time extends Expression {
+        @Override
+        double eval(double t) {
+            return t;
+        }
+    }
+
+    private static final class Binary extends Expression {
+        private final char operator;
+        private final Expression left;
+        private final Expression right;
+
+        Binary(char operator, Expression left, Expression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double eval(double t) {
+            double a = left.eval(t);
+            double b = right.eval(t);
+            switch (operator) {
+                case '+':
+                    return a + b;
+                case '-':
+                    return a - b;
+                case '*':
+                    return a * b;
+                case '/':
+                    return b == 0 ? 0 : a / b;
+                case '%':
+                    // Always positive, so looping over t works the same before and after zero
+                    return b == 0 ? 0 : ((a % b) + b) % b;
+                default:
+                    return Math.pow(a, b);
+            }
+        }
+
+        @Override
+        boolean isConstant() {
+            return left.isConstant() && right.isConstant();
+        }
+    }
+
+    private static final class Function extends Expression {
+        private static final String[] NAMES = {"sin", "cos", "tan", "abs", "sqrt", "floor", "ceil", "round", "sign", "min", "max", "pow", "clamp"};
+        private static final int[] ARITIES = {1, 1, 1, 1, 1, 1, 1, 1, 1, 2, 2, 2, 3};
+
+        private final int function;
+        private final Expression a;
+        private final Expression b;
+        private final Expression c;
+
+        private Function(int function, Expression[] arguments) {
+            this.function = function;
+            this.a = arguments[0];
+            this.b = arguments.length > 1 ? arguments[1] : null;
+            this.c = arguments.length > 2 ? arguments[2] : null;
+        }
+
+        static Function create(String name, Expression[] arguments) {
+            for (int i = 0; i < NAMES.length; i++) {
+                if (NAMES[i].equals(name)) {
+                    if (arguments.length != ARITIES[i]) {
+                        throw new IllegalArgumentException(name + " takes " + ARITIES[i] + " argument" + (ARITIES[i] == 1 ? "" : "s"));
+                    }
+                    return new Function(i, arguments);
+                }
+            }
+            throw new IllegalArgumentException("Unknown function " + name);
+        }
+
+        @Override
+        double eval(double t) {
+            double x = a.eval(t);
+            switch (function) {
+                case 0:
+                    return Math.sin(x);
+                case 1:
+                    return Math.cos(x);
+                case 2:
+                    return Math.tan(x);
+                case 3:
+                    return Math.abs(x);
+                case 4:
+                    return x < 0 ? 0 : Math.sqrt(x);
+                case 5:
+                    return Math.floor(x);
+                case 6:
+                    return Math.ceil(x);
+                case 7:
+                    return Math.rint(x);
+                case 8:
+                    return Math.signum(x);
+                case 9:
+                    return Math.min(x, b.eval(t));
+                case 10:
+                    return Math.max(x, b.eval(t));
+                case 11:
+                    return Math.pow(x, b.eval(t));
+                default:
+                    return Math.max(b.eval(t), Math.min(c.eval(t), x));
+            }
+        }
+
+        @Override
+        boolean isConstant() {
+            return a.isConstant() && (b == null || b.isConstant()) && (c == null || c.isConstant());
+        }
+    }
+
+    /**
+     * Keyframe track that loops over the time of its last key.
+     */
+    private static final class Keyframes extends Expression {
+        private final double[] times;
+        private final double[] values;
+        private final boolean hold;
+        private final double period;
+
+        Keyframes(double[] times, double[] values, boolean hold) {
+            this.times = times;
+            this.values = values;
+            this.hold = hold;
+            this.period = times[times.length - 1];
+        }
+
+        @Override
+        double eval(double t) {
+            double time = ((t % period) + period) % period;
+            if (time < times[0]) {
+                return values[0];
+            }
+            int i = 1;
+            while (times[i] <= time) {
+                i++;
+            }
+            if (hold) {
+                return values[i - 1];
+            }
+            double fraction = (time - times[i - 1]) / (times[i] - times[i - 1]);
+            return values[i - 1] + (values[i] - values[i - 1]) * fraction;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.util.Vector;
+
+/**
+ * Direct reference to one generator, returned by {@link ParticleGeneratorService}. Changes
+ * through a handle skip the name lookup and only validate the value being changed, so it
+ * is the cheap way to adjust a generator every few ticks. Each change is saved with the
+ * next batched write.
+ *
+ * A handle stops working once its generator is removed, or replaced by a storage import;
+ * {@link #isValid()} tells whether it still does. Changes picked up by /particlegen reload
+ * are applied to the same generator, so they keep it working. Like the service, it has to
+ * be used on the main thread.
+ */
+public final class GeneratorHandle {
+
+    private final GeneratorService service;
+    private final ParticleGenerator generator;
+
+    GeneratorHandle(GeneratorService service, ParticleGenerator generator) {
+        this.service = service;
+        this.generator = generator;
+    }
+
+    public String getName() {
+        return generator.getName();
+    }
+
+    /**
+     * Returns whether the generator still exists.
+     */
+    public boolean isValid() {
+        return service.isCurrent(generator);
+    }
+
+    public Location getLocation() {
+        return generator.getLocation();
+    }
+
+    public String getWorldName() {
+        return generator.getWorldName();
+    }
+
+    public Particle getParticle() {
+        return generator.getParticle();
+    }
+
+    public int getCount() {
+        return generator.getCount();
+    }
+
+    public int getInterval() {
+        return generator.getInterval();
+    }
+
+    public double getSpeed() {
+        return generator.getSpeed();
+    }
+
+    public Vector getOffset() {
+        return generator.getOffset();
+    }
+
+    public boolean isEnabled() {
+        return generator.isEnabled();
+    }
+
+    /**
+     * Returns whether the generator is emitting right now, i.e. it is enabled, its chunk is
+     * loaded and its trigger, if any, has fired.
+     */
+    public boolean isActive() {
+        return generator.isActive();
+    }
+
+    public void setEnabled(boolean enabled) {
+        service.checkHandle(generator);
+        if (enabled) {
+            generator.start();
+        } else {
+            generator.stop();
+        }
+        service.save(generator);
+    }
+
+    public void setLocation(Location location) {
+        service.checkHandle(generator);
+        if (location.getWorld() == null) {
+            throw new IllegalArgumentException("Location of generator " + generator.getName() + " has no world");
+        }
+        service.checkFinite(generator.getName(), "location", location.getX(), location.getY(), location.getZ());
+        generator.setLocation(location);
+        service.save(generator);
+    }
+
+    /**
+     * Changes the particle together with its data, null for particles without data.
+     */
+    public void setParticle(Particle particle, String data) {
+        service.checkHandle(generator);
+        generator.setParticle(particle, service.parseData(generator.getName(), particle, data));
+        service.save(generator);
+    }
+
+    public void setCount(int count) {
+        service.checkHandle(generator);
+        service.checkCount(generator.getName(), count);
+        generator.setCount(count);
+        service.save(generator);
+    }
+
+    public void setInterval(int interval) {
+        service.checkHandle(generator);
+        service.checkInterval(generator.getName(), interval);
+        generator.setInterval(interval);
+        service.save(generator);
+    }
+
+    public void setSpeed(double speed) {
+        service.checkHandle(generator);
+        service.checkFinite(generator.getName(), "speed", speed);
+        generator.setSpeed(speed);
+        service.save(generator);
+    }
+
+    public void setOffset(double offsetX, double offsetY, double offsetZ) {
+        service.checkHandle(generator);
+        service.checkFinite(generator.getName(), "offset", offsetX, offsetY, offsetZ);
+        generator.setOffset(new Vector(offsetX, offsetY, offsetZ));
+        service.save(generator);
+    }
+
+    public void setViewRadius(int viewRadius) {
+        service.checkHandle(generator);
+        if (viewRadius < 1) {
+            throw new IllegalArgumentException("View radius of generator " + generator.getName() + " must be at least 1");
+        }
+        generator.setViewRadius(viewRadius);
+        service.save(generator);
+    }
+
+    public void setPriority(int priority) {
+        service.checkHandle(generator);
+        service.checkPriority(generator.getName(), priority);
+        generator.setPriority(priority);
+        service.save(generator);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof GeneratorHandle && generator == ((GeneratorHandle) o).generator;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(generator);
+    }
+}
@@ -0,0 +1,256 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes generators by world and chunk, keeping one {@link WorldShard} per world.
+ * Generators whose chunk is not loaded are kept out of the scheduler and woken up again
+ * when their chunk loads. Generators waiting for a trigger stay out of the scheduler until
+ * the trigger arms them.
+ */
+class GeneratorIndex implements Listener {
+
+    private final GeneratorScheduler scheduler;
+    // Shards in the order their worlds were first seen, kept while the plugin runs
+    private final Map<String, WorldShard> shards = new LinkedHashMap<>();
+
+    GeneratorIndex(GeneratorScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns the shard of a world, creating it the first time the world is seen.
+     */
+    public WorldShard getShard(String worldName) {
+        WorldShard shard = shards.get(worldName);
+        if (shard == null) {
+            World world = Bukkit.getWorld(worldName);
+            shard = new WorldShard(worldName, world);
+            shards.put(worldName, shard);
+            if (world != null) {
+                scheduler.attach(shard);
+            }
+        }
+        return shard;
+    }
+
+    public Collection<WorldShard> getShards() {
+        return shards.values();
+    }
+
+    public void add(ParticleGenerator generator) {
+        WorldShard shard = getShard(generator.getWorldName());
+        long key = generator.getChunkKey();
+        ArrayList<ParticleGenerator> chunk = shard.chunks.get(key);
+        if (chunk == null) {
+            chunk = new ArrayList<>(4);
+            shard.chunks.put(key, chunk);
+        }
+        chunk.add(generator);
+        shard.add(generator);
+        generator.setShard(shard);
+    }
+
+    public void remove(ParticleGenerator generator) {
+        scheduler.unregister(generator);
+        WorldShard shard = shards.get(generator.getWorldName());
+        if (shard == null) {
+            return;
+        }
+        long key = generator.getChunkKey();
+        ArrayList<ParticleGenerator> chunk = shard.chunks.get(key);
+        if (chunk != null) {
+            chunk.remove(generator);
+            if (chunk.isEmpty()) {
+                shard.chunks.remove(key);
+            }
+        }
+        shard.remove(generator);
+    }
+
+    /**
+     * Registers the generator with the scheduler if it is enabled and its chunk is loaded,
+     * otherwise parks it.
+     */
+    public void refresh(ParticleGenerator generator) {
+        if (generator.isEnabled() && generator.isArmed() && isChunkLoaded(generator)) {
+            scheduler.register(generator);
+        } else {
+            scheduler.unregister(generator);
+        }
+    }
+
+    public void clear() {
+        shards.clear();
+    }
+
+    /**
+     * Returns the generators inside the given box. Only the chunks the box overlaps are
+     * visited, or every indexed chunk of the world if that is fewer.
+     */
+    public List<ParticleGenerator> within(String worldName, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        final List<ParticleGenerator> results = new ArrayList<>();
+        WorldShard world = shards.get(worldName);
+        if (world == null) {
+            return results;
+        }
+        final double x1 = Math.min(minX, maxX);
+        final double y1 = Math.min(minY, maxY);
+        final double z1 = Math.min(minZ, maxZ);
+        final double x2 = Math.max(minX, maxX);
+        final double y2 = Math.max(minY, maxY);
+        final double z2 = Math.max(minZ, maxZ);
+        int minChunkX = Location.locToBlock(x1) >> 4;
+        int maxChunkX = Location.locToBlock(x2) >> 4;
+        int minChunkZ = Location.locToBlock(z1) >> 4;
+        int maxChunkZ = Location.locToBlock(z2) >> 4;
+        long cellCount = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+
+        if (cellCount > world.chunks.size()) {
+            world.chunks.forEach(new LongHashMap.Visitor<ArrayList<ParticleGenerator>>() {
+                @Override
+                public void visit(long key, ArrayList<ParticleGenerator> generators) {
+                    addWithin(generators, x1, y1, z1, x2, y2, z2, results);
+                }
+            });
+            return results;
+        }
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                ArrayList<ParticleGenerator> generators = world.chunks.get(LongHashMap.key(chunkX, chunkZ));
+                if (generators != null) {
+                    addWithin(generators, x1, y1, z1, x2, y2, z2, results);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the generators within the radius of a point, nearest first.
+     */
+    public List<ParticleGenerator> near(String worldName, final double x, final double y, final double z, double radius) {
+        List<ParticleGenerator> candidates = within(worldName, x - radius, y - radius, z - radius, x + radius, y + radius, z + radius);
+        double radiusSquared = radius * radius;
+        List<ParticleGenerator> results = new ArrayList<>(candidates.size());
+        for (ParticleGenerator generator : candidates) {
+            if (distanceSquared(generator, x, y, z) <= radiusSquared) {
+                results.add(generator);
+            }
+        }
+        results.sort((first, second) -> Double.compare(distanceSquared(first, x, y, z), distanceSquared(second, x, y, z)));
+        return results;
+    }
+
+    private static void addWithin(ArrayList<ParticleGenerator> generators, double x1, double y1, double z1, double x2, double y2, double z2, List<ParticleGenerator> results) {
+        for (int i = 0, size = generators.size(); i < size; i++) {
+            ParticleGenerator generator = generators.get(i);
+            if (generator.getX() >= x1 && generator.getX() <= x2 && generator.getY() >= y1 && generator.getY() <= y2 && generator.getZ() >= z1 && generator.getZ() <= z2) {
+                results.add(generator);
+            }
+        }
+    }
+
+    static double distanceSquared(ParticleGenerator generator, double x, double y, double z) {
+        double dx = generator.getX() - x;
+        double dy = generator.getY() - y;
+        double dz = generator.getZ() - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private boolean isChunkLoaded(ParticleGenerator generator) {
+        World world = generator.getWorld();
+        if (world == null) {
+            return false;
+        }
+        long key = generator.getChunkKey();
+        return world.isChunkLoaded(LongHashMap.keyX(key), LongHashMap.keyZ(key));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        Chunk chunk = event.getChunk();
+        WorldShard shard = shards.get(chunk.getWorld().getName());
+        if (shard == null) {
+            return;
+        }
+        // Chunks around the spawn load before the world reports itself as loaded
+        attach(shard, chunk.getWorld());
+        ArrayList<ParticleGenerator> generators = shard.chunks.get(LongHashMap.key(chunk.getX(), chunk.getZ()));
+        if (generators == null) {
+            return;
+        }
+        for (int i = 0, size = generators.size(); i < size; i++) {
+            ParticleGenerator generator = generators.get(i);
+            if (generator.isEnabled() && generator.isArmed()) {
+                scheduler.register(generator);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(ChunkUnloadEvent event) {
+        ArrayList<ParticleGenerator> generators = getChunk(event.getChunk());
+        if (generators == null) {
+            return;
+        }
+        for (int i = 0, size = generators.size(); i < size; i++) {
+            scheduler.unregister(generators.get(i));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        World loaded = event.getWorld();
+        WorldShard shard = shards.get(loaded.getName());
+        if (shard == null) {
+            return;
+        }
+        // Generators in chunks that loaded with the world registered as those chunks
+        // loaded, the rest follow with their chunks
+        attach(shard, loaded);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        WorldShard shard = shards.get(event.getWorld().getName());
+        if (shard == null) {
+            return;
+        }
+        // Drop the whole shard from ticking at once, without visiting its generators
+        scheduler.detach(shard);
+        shard.setWorld(null);
+        shard.wheel = new TimingWheel();
+    }
+
+    private void attach(WorldShard shard, World world) {
+        if (shard.getWorld() != world) {
+            shard.setWorld(world);
+        }
+        scheduler.attach(shard);
+    }
+
+    private ArrayList<ParticleGenerator> getChunk(Chunk chunk) {
+        WorldShard shard = shards.get(chunk.getWorld().getName());
+        if (shard == null) {
+            return null;
+        }
+        return shard.chunks.get(LongHashMap.key(chunk.getX(), chunk.getZ()));
+    }
+}
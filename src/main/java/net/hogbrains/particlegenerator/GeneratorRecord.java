@@ -0,0 +1,350 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+import org.bukkit.util.Vector;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable persisted form of a generator, shared by every storage backend so that
+ * snapshots can be serialized away from the main thread.
+ */
+final class GeneratorRecord {
+
+    private final String name;
+    private final String worldName;
+    private final double x;
+    private final double y;
+    private final double z;
+    private final Particle particle;
+    private final int count;
+    private final int interval;
+    private final double speed;
+    private final double offsetX;
+    private final double offsetY;
+    private final double offsetZ;
+    // Optional properties stored as key=value pairs after the positional fields
+    private final Map<String, String> properties;
+    // Content hash, computed on first use
+    private int hash;
+
+    GeneratorRecord(String name, String worldName, double x, double y, double z, Particle particle, int count, int interval, double speed, double offsetX, double offsetY, double offsetZ, Map<String, String> properties) {
+        this.name = name;
+        this.worldName = worldName;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.particle = particle;
+        this.count = count;
+        this.interval = interval;
+        this.speed = speed;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.offsetZ = offsetZ;
+        this.properties = properties;
+    }
+
+    static GeneratorRecord of(String name, ParticleGenerator generator) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("viewRadius", String.valueOf(generator.getViewRadius()));
+        if (generator.getPriority() != 0) {
+            properties.put("priority", String.valueOf(generator.getPriority()));
+        }
+        if (!generator.isEnabled()) {
+            properties.put("enabled", "false");
+        }
+        if (generator.getShape() != null) {
+            properties.put("shape", generator.getShape().getSpec());
+        }
+        if (generator.getLod() != null) {
+            properties.put("lod", generator.getLod().getSpec());
+        }
+        if (generator.getData() != ParticleData.NONE) {
+            properties.put("data", generator.getData().getSpec());
+        }
+        if (generator.getAnimation() != null) {
+            properties.put("animation", generator.getAnimation().getSpec());
+        }
+        if (generator.getTrigger() != null) {
+            properties.put("trigger", generator.getTrigger().getSpec());
+        }
+        // The positional fields stay filled in, but only the overridden ones are read back
+        // while the template exists
+        if (generator.getTemplate() != null) {
+            properties.put("template", generator.getTemplate().getName());
+            if (generator.getOverrides() != 0) {
+                properties.put("overrides", ParticleParams.formatFields(generator.getOverrides()));
+            }
+        }
+        if (generator.getGroup() != null) {
+            properties.put("group", generator.getGroup());
+        }
+        Vector offset = generator.getOffset();
+        return new GeneratorRecord(name, generator.getWorldName(), generator.getX(), generator.getY(), generator.getZ(), generator.getParticle(), generator.getCount(), generator.getInterval(), generator.getSpeed(), offset.getX(), offset.getY(), offset.getZ(), Collections.unmodifiableMap(properties));
+    }
+
+    /**
+     * Parses the legacy semicolon-delimited format used in config.yml.
+     */
+    static GeneratorRecord parseLegacy(String name, String generatorString) {
+        String[] parts = generatorString.split(";");
+        if (parts.length < 11) {
+            throw new IllegalArgumentException("Generator " + name + " has " + parts.length + " fields, expected at least 11");
+        }
+        String worldName = parts[0];
+        double x = Double.parseDouble(parts[1]);
+        double y = Double.parseDouble(parts[2]);
+        double z = Double.parseDouble(parts[3]);
+        Particle particle = Particle.valueOf(parts[4]);
+        int count = Integer.parseInt(parts[5]);
+        int interval = Integer.parseInt(parts[6]);
+        double speed = Double.parseDouble(parts[7]);
+        double offsetX = Double.parseDouble(parts[8]);
+        double offsetY = Double.parseDouble(parts[9]);
+        double offsetZ = Double.parseDouble(parts[10]);
+
+        // Optional key=value properties follow the positional fields
+        Map<String, String> properties = new LinkedHashMap<>();
+        for (int i = 11; i < parts.length; i++) {
+            int separator = parts[i].indexOf('=');
+            if (separator > 0) {
+                properties.put(parts[i].substring(0, separator), parts[i].substring(separator + 1));
+            }
+        }
+        return new GeneratorRecord(name, worldName, x, y, z, particle, count, interval, speed, offsetX, offsetY, offsetZ, Collections.unmodifiableMap(properties));
+    }
+
+    String toLegacy() {
+        StringBuilder builder = new StringBuilder(96);
+        builder.append(worldName).append(';')
+                .append(x).append(';')
+                .append(y).append(';')
+                .append(z).append(';')
+                .append(particle).append(';')
+                .append(count).append(';')
+                .append(interval).append(';')
+                .append(speed).append(';')
+                .append(offsetX).append(';')
+                .append(offsetY).append(';')
+                .append(offsetZ);
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            builder.append(';').append(property.getKey()).append('=').append(property.getValue());
+        }
+        return builder.toString();
+    }
+
+    ParticleGenerator toGenerator(ParticleGeneratorPlugin plugin) {
+        return toGenerator(plugin, toParams(plugin));
+    }
+
+    /**
+     * Builds the generator from params parsed earlier by {@link #toParams}.
+     */
+    ParticleGenerator toGenerator(ParticleGeneratorPlugin plugin, ParticleParams params) {
+        ParticleGenerator generator = new ParticleGenerator(plugin, worldName, x, y, z, params.particle, params.count, params.interval, params.speed, new Vector(offsetX, offsetY, offsetZ), params.viewRadius);
+        generator.setParams(params);
+        Template template = getTemplate(plugin);
+        if (template != null) {
+            generator.setTemplate(template, getOverrides());
+        }
+        generator.setGroup(properties.get("group"));
+        return generator;
+    }
+
+    /**
+     * Parses the stored values into the params the generator runs with, without touching
+     * any live state. Values that cannot be used are logged and replaced by their defaults,
+     * so a hand-edited property never stops a load.
+     */
+    ParticleParams toParams(ParticleGeneratorPlugin plugin) {
+        int viewRadius = plugin.getDefaultViewRadius();
+        String value = properties.get("viewRadius");
+        if (value != null) {
+            Integer stored = Arguments.parseInt(value);
+            if (stored == null || stored < 1) {
+                plugin.getLogger().warning("Generator " + name + " has view radius " + value + ", using " + viewRadius);
+            } else {
+                viewRadius = stored;
+            }
+        }
+        // Stored counts and intervals were never checked against the limits, and the budgets
+        // and the timing wheel trust them
+        int count = plugin.getBudgetManager().clampCount(this.count);
+        if (count != this.count) {
+            plugin.getLogger().warning("Generator " + name + " has count " + this.count + ", using " + count);
+        }
+        int interval = plugin.getBudgetManager().clampInterval(this.interval);
+        if (interval != this.interval) {
+            plugin.getLogger().warning("Generator " + name + " has interval " + this.interval + ", using " + interval + " ticks");
+        }
+        int priority = 0;
+        value = properties.get("priority");
+        if (value != null) {
+            Integer stored = Arguments.parseInt(value);
+            if (stored == null) {
+                plugin.getLogger().warning("Generator " + name + " has priority " + value + ", using 0");
+            } else {
+                priority = BudgetManager.clampPriority(stored);
+                if (priority != stored) {
+                    plugin.getLogger().warning("Generator " + name + " has priority " + stored + ", using " + priority);
+                }
+            }
+        }
+        Shape shape = null;
+        value = properties.get("shape");
+        if (value != null) {
+            try {
+                shape = plugin.getShapeCache().get(value);
+            } catch (IllegalArgumentException e) {
+                // Keep the generator running as a single point rather than failing the whole load
+                plugin.getLogger().warning("Ignoring shape of generator " + name + ": " + e.getMessage());
+            }
+        }
+        LodTiers lod = null;
+        value = properties.get("lod");
+        if (value != null) {
+            try {
+                lod = LodTiers.parse(value);
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("Ignoring LOD tiers of generator " + name + ": " + e.getMessage());
+            }
+        }
+        ParticleData data = ParticleData.NONE;
+        value = properties.get("data");
+        if (value != null || particle.getDataType() != Void.class) {
+            try {
+                data = ParticleData.parse(particle, value);
+            } catch (IllegalArgumentException e) {
+                // The generator stays loaded but skips its firings until the data is fixed
+                plugin.getLogger().warning("Generator " + name + " has no usable particle data: " + e.getMessage());
+            }
+        }
+        Animation animation = null;
+        value = properties.get("animation");
+        if (value != null) {
+            try {
+                animation = Animation.parse(value);
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("Ignoring animation of generator " + name + ": " + e.getMessage());
+            }
+        }
+        Trigger trigger = null;
+        value = properties.get("trigger");
+        if (value != null) {
+            try {
+                trigger = Trigger.parse(value);
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("Ignoring trigger of generator " + name + ": " + e.getMessage());
+            }
+        }
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    /**
+     * Returns the template the generator joins, or null if it has none or the template no
+     * longer exists.
+     */
+    Template getTemplate(ParticleGeneratorPlugin plugin) {
+        String templateName = properties.get("template");
+        if (templateName == null) {
+            return null;
+        }
+        Template template = plugin.getTemplateManager().get(templateName);
+        if (template == null) {
+            plugin.getLogger().warning("Generator " + name + " uses unknown template " + templateName + ", keeping its own values");
+        }
+        return template;
+    }
+
+    /**
+     * Returns the ParticleParams field bits the generator keeps from its own values.
+     */
+    int getOverrides() {
+        String overrides = properties.get("overrides");
+        return overrides == null ? 0 : ParticleParams.parseFields(overrides);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GeneratorRecord)) {
+            return false;
+        }
+        GeneratorRecord other = (GeneratorRecord) o;
+        return Double.compare(x, other.x) == 0 && Double.compare(y, other.y) == 0 && Double.compare(z, other.z) == 0
+                && count == other.count && interval == other.interval && Double.compare(speed, other.speed) == 0
+                && Double.compare(offsetX, other.offsetX) == 0 && Double.compare(offsetY, other.offsetY) == 0 && Double.compare(offsetZ, other.offsetZ) == 0
+                && particle == other.particle && name.equals(other.name) && Objects.equals(worldName, other.worldName) && properties.equals(other.properties);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = hash;
+        if (result == 0) {
+            result = Objects.hash(name, worldName, x, y, z, particle, count, interval, speed, offsetX, offsetY, offsetZ, properties);
+            hash = result;
+        }
+        return result;
+    }
+
+    public boolean isEnabled() {
+        return !"false".equals(properties.get("enabled"));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getWorldName() {
+        return worldName;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    public Particle getParticle() {
+        return particle;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public double getOffsetX() {
+        return offsetX;
+    }
+
+    public double getOffsetY() {
+        return offsetY;
+    }
+
+    public double getOffsetZ() {
+        return offsetZ;
+    }
+
+    public Map<String, String> getProperties() {
+        return properties;
+    }
+}
@@ -0,0 +1,108 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One /particlegen reload. Config.yml and the stored generators are read back and diffed
+ * against the generators as last saved away from the main thread, so the main thread only
+ * has to apply the generators that were added, removed or changed.
+ */
+final class GeneratorReload {
+
+    private final long startNanos = System.nanoTime();
+    // Generators as last saved, copied on the main thread when the reload started
+    private final Map<String, GeneratorRecord> baseline;
+
+    private YamlConfiguration config;
+    private final List<GeneratorRecord> added = new ArrayList<>();
+    private final List<GeneratorRecord> changed = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+    private int unchanged;
+
+    private long readNanos;
+    private long diffNanos;
+
+    GeneratorReload(Map<String, GeneratorRecord> baseline) {
+        this.baseline = baseline;
+    }
+
+    /**
+     * Reads the config and the generators and diffs them by name and content. Runs on the
+     * store's writer thread, after every write queued before the reload.
+     */
+    GeneratorReload run(File configFile, Configuration defaults, GeneratorStorage storage) throws IOException, InvalidConfigurationException {
+        long start = System.nanoTime();
+        // Parse into a fresh config so a broken file fails the reload instead of emptying it
+        config = new YamlConfiguration();
+        config.load(configFile);
+        config.setDefaults(defaults);
+        Map<String, GeneratorRecord> records = storage instanceof YamlGeneratorStorage ? YamlGeneratorStorage.read(config) : storage.load();
+        readNanos = System.nanoTime() - start;
+        return diff(records);
+    }
+
+    /**
+     * Sorts the records into added, changed and unchanged against the baseline, and the
+     * baseline generators missing from them into removed.
+     */
+    GeneratorReload diff(Map<String, GeneratorRecord> records) {
+        long start = System.nanoTime();
+        for (GeneratorRecord record : records.values()) {
+            GeneratorRecord current = baseline.get(record.getName());
+            if (current == null) {
+                added.add(record);
+            } else if (current.hashCode() != record.hashCode() || !current.equals(record)) {
+                changed.add(record);
+            } else {
+                unchanged++;
+            }
+        }
+        for (String name : baseline.keySet()) {
+            if (!records.containsKey(name)) {
+                removed.add(name);
+            }
+        }
+        diffNanos = System.nanoTime() - start;
+        return this;
+    }
+
+    YamlConfiguration getConfig() {
+        return config;
+    }
+
+    List<GeneratorRecord> getAdded() {
+        return added;
+    }
+
+    List<GeneratorRecord> getChanged() {
+        return changed;
+    }
+
+    List<String> getRemoved() {
+        return removed;
+    }
+
+    int getUnchanged() {
+        return unchanged;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    long getReadNanos() {
+        return readNanos;
+    }
+
+    long getDiffNanos() {
+        return diffNanos;
+    }
+}
@@ -0,0 +1,197 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * Drives every running generator from a single repeating task.
+ *
+ * Each {@link WorldShard} keeps its running generators in its own {@link TimingWheel}, and
+ * only the shards of loaded worlds are attached here. Every tick fires the due slots of
+ * each attached shard in turn, all into the one shared pipeline so budgets still span
+ * every world.
+ *
+ * With an {@link EmissionPlanner} the due generators of the next tick are fired on worker
+ * threads between ticks, and the main thread only replays the finished plan. If a plan
+ * fails or takes longer than the planner's timeout, planning falls back to the main
+ * thread for good.
+ */
+class GeneratorScheduler implements Runnable {
+
+    private final Plugin plugin;
+    private final EmissionPipeline pipeline;
+    private final PlayerTracker tracker;
+    private final BudgetManager budget;
+    private final PluginMetrics metrics;
+    // Null when every tick is planned on the main thread
+    private EmissionPlanner planner;
+    private final List<WorldShard> attached = new ArrayList<>();
+    private WorldShard[] shardArray = new WorldShard[0];
+    private BukkitTask task;
+    private long tick;
+
+    GeneratorScheduler(Plugin plugin, EmissionPipeline pipeline, PlayerTracker tracker, BudgetManager budget, PluginMetrics metrics, EmissionPlanner planner) {
+        this.plugin = plugin;
+        this.pipeline = pipeline;
+        this.tracker = tracker;
+        this.budget = budget;
+        this.metrics = metrics;
+        this.planner = planner;
+    }
+
+    public void start() {
+        if (task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1, 1);
+        }
+    }
+
+    public void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        if (planner != null) {
+            planner.shutdown();
+            planner = null;
+        }
+    }
+
+    public EmissionPlanner getPlanner() {
+        return planner;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long now = ++tick;
+        budget.onTick();
+        WorldShard[] current = shardArray;
+        if (planner == null || !replayPlan()) {
+            PlayerTracker tracker = this.tracker;
+            int throttleLevel = budget.getLevel();
+            PluginMetrics metrics = this.metrics;
+            for (WorldShard shard : current) {
+                long emissions = metrics.emissions;
+                long particles = metrics.particles;
+                shard.wheel.fire(now, pipeline, tracker, throttleLevel, metrics);
+                shard.emissions += metrics.emissions - emissions;
+                shard.particles += metrics.particles - particles;
+            }
+        }
+        // Send everything the due generators queued, grouped per viewer
+        long dispatchStart = System.nanoTime();
+        pipeline.flush(now);
+        long end = System.nanoTime();
+        metrics.packets += pipeline.getLastPackets();
+        metrics.dispatchNanos.record(end - dispatchStart);
+
+        // Let the workers plan the next tick while the server does everything else
+        if (planner != null) {
+            for (WorldShard shard : current) {
+                shard.wheel.collect(now + 1, planner);
+            }
+            planner.submit(now + 1, tracker.snapshot(), budget.getLevel(), metrics.isGeneratorTiming());
+        }
+        metrics.tickNanos.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Replays the plan built for this tick. Returns false if the tick still has to be
+     * planned on the main thread.
+     */
+    private boolean replayPlan() {
+        EmissionPlan plan = planner.poll();
+        if (plan == null) {
+            if (!planner.isPending()) {
+                // Nothing was submitted yet, as on the first tick
+                return false;
+            }
+            metrics.latePlans++;
+            plan = planner.await();
+            if (plan == null) {
+                plugin.getLogger().warning("Emission planning took longer than " + planner.getTimeoutMillis() + "ms, planning on the main thread from now on");
+                fallBack();
+                return false;
+            }
+        }
+        if (plan.failure != null) {
+            plugin.getLogger().log(Level.WARNING, "Emission planning failed, planning on the main thread from now on", plan.failure);
+            fallBack();
+            return false;
+        }
+        metrics.planNanos.record(plan.buildNanos);
+        plan.replay(pipeline, metrics);
+        return true;
+    }
+
+    private void fallBack() {
+        // The timed out plan may still be firing generators, which the main thread is about to fire too
+        if (!planner.shutdown()) {
+            plugin.getLogger().warning("Emission planning threads did not stop within " + planner.getTimeoutMillis() + "ms");
+        }
+        planner = null;
+    }
+
+    /**
+     * Starts ticking the shard, once its world is loaded.
+     */
+    public void attach(WorldShard shard) {
+        if (shard.attachedIndex >= 0) {
+            return;
+        }
+        shard.attachedIndex = attached.size();
+        attached.add(shard);
+        shardArray = attached.toArray(new WorldShard[0]);
+    }
+
+    /**
+     * Stops ticking the shard without touching its generators.
+     */
+    public void detach(WorldShard shard) {
+        int index = shard.attachedIndex;
+        if (index < 0) {
+            return;
+        }
+        WorldShard last = attached.remove(attached.size() - 1);
+        if (last != shard) {
+            attached.set(index, last);
+            last.attachedIndex = index;
+        }
+        shard.attachedIndex = -1;
+        shardArray = attached.toArray(new WorldShard[0]);
+    }
+
+    public void register(ParticleGenerator generator) {
+        WorldShard shard = generator.getShard();
+        if (shard != null) {
+            shard.wheel.register(generator);
+        }
+    }
+
+    public void unregister(ParticleGenerator generator) {
+        WorldShard shard = generator.getShard();
+        if (shard != null) {
+            shard.wheel.unregister(generator);
+        }
+    }
+
+    public void reschedule(ParticleGenerator generator) {
+        WorldShard shard = generator.getShard();
+        if (shard != null) {
+            shard.wheel.reschedule(generator);
+        }
+    }
+
+    public int getRegisteredCount() {
+        int total = 0;
+        for (WorldShard shard : shardArray) {
+            total += shard.wheel.getRegisteredCount();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,298 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Particle;
+import org.bukkit.util.Vector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * {@link ParticleGeneratorService} over the plugin's own generators. Every spec of a call
+ * is parsed into its params first, without touching any live state, so a batch that fails
+ * validation leaves everything as it was. Applying a batch then goes through the same
+ * add, detach and save paths as the commands, and the batch is flushed to storage once.
+ */
+final class GeneratorService implements ParticleGeneratorService {
+
+    private final ParticleGeneratorPlugin plugin;
+
+    GeneratorService(ParticleGeneratorPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public GeneratorHandle create(GeneratorSpec spec) {
+        return createAll(Collections.singletonList(spec)).get(0);
+    }
+
+    @Override
+    public List<GeneratorHandle> createAll(Collection<GeneratorSpec> specs) {
+        checkThread();
+        List<Prepared> batch = new ArrayList<>(specs.size());
+        Set<String> names = new HashSet<>();
+        for (GeneratorSpec spec : specs) {
+            if (plugin.getGenerators().containsKey(spec.name) || !names.add(spec.name)) {
+                throw invalid(spec.name, "name is already taken");
+            }
+            batch.add(prepare(spec));
+        }
+
+        List<GeneratorHandle> handles = new ArrayList<>(batch.size());
+        for (Prepared prepared : batch) {
+            GeneratorSpec spec = prepared.spec;
+            ParticleGenerator generator = new ParticleGenerator(plugin, spec.worldName, spec.x, spec.y, spec.z, prepared.params.particle, prepared.params.count,
+                    prepared.params.interval, prepared.params.speed, new Vector(), prepared.params.viewRadius);
+            generator.setParams(prepared.params);
+            if (prepared.template != null) {
+                generator.setTemplate(prepared.template, spec.fields);
+            }
+            generator.setGroup(spec.group);
+            plugin.addGenerator(spec.name, generator);
+            if (spec.enabled) {
+                generator.start();
+            }
+            plugin.saveGenerator(spec.name, generator);
+            handles.add(new GeneratorHandle(this, generator));
+        }
+        flush(batch.size());
+        return handles;
+    }
+
+    @Override
+    public GeneratorHandle update(GeneratorSpec spec) {
+        return updateAll(Collections.singletonList(spec)).get(0);
+    }
+
+    @Override
+    public List<GeneratorHandle> updateAll(Collection<GeneratorSpec> specs) {
+        checkThread();
+        List<Prepared> batch = new ArrayList<>(specs.size());
+        Set<String> names = new HashSet<>();
+        for (GeneratorSpec spec : specs) {
+            if (!plugin.getGenerators().containsKey(spec.name)) {
+                throw invalid(spec.name, "no such generator");
+            }
+            if (!names.add(spec.name)) {
+                throw invalid(spec.name, "updated twice in one batch");
+            }
+            batch.add(prepare(spec));
+        }
+
+        List<GeneratorHandle> handles = new ArrayList<>(batch.size());
+        for (Prepared prepared : batch) {
+            GeneratorSpec spec = prepared.spec;
+            ParticleGenerator generator = plugin.getGenerators().get(spec.name);
+            // Replace the params as a whole, then join the template with the set values kept
+            plugin.updateGenerator(generator, spec.worldName, spec.x, spec.y, spec.z, prepared.params, prepared.template, spec.fields, spec.group, spec.enabled);
+            plugin.saveGenerator(spec.name, generator);
+            handles.add(new GeneratorHandle(this, generator));
+        }
+        flush(batch.size());
+        return handles;
+    }
+
+    @Override
+    public boolean remove(String name) {
+        if (!exists(name)) {
+            return false;
+        }
+        return removeAll(Collections.singletonList(name)) == 1;
+    }
+
+    @Override
+    public int removeAll(Collection<String> names) {
+        checkThread();
+        Set<String> unique = new HashSet<>(names);
+        for (String name : unique) {
+            if (!plugin.getGenerators().containsKey(name)) {
+                throw invalid(name, "no such generator");
+            }
+        }
+        for (String name : unique) {
+            plugin.removeGenerator(name);
+        }
+        flush(unique.size());
+        return unique.size();
+    }
+
+    @Override
+    public GeneratorHandle get(String name) {
+        ParticleGenerator generator = plugin.getGenerators().get(name);
+        return generator == null ? null : new GeneratorHandle(this, generator);
+    }
+
+    @Override
+    public boolean exists(String name) {
+        return plugin.getGenerators().containsKey(name);
+    }
+
+    @Override
+    public Collection<String> getNames() {
+        return Collections.unmodifiableSet(plugin.getGenerators().keySet());
+    }
+
+    /**
+     * Parses and checks every value of a spec into the params the generator will have,
+     * before any live state is changed.
+     */
+    private Prepared prepare(GeneratorSpec spec) {
+        String name = spec.name;
+        if (name == null || !Arguments.isName(name)) {
+            throw invalid(name, "names may only contain letters, digits, _ and -");
+        }
+        if (spec.worldName == null) {
+            throw invalid(name, "no world given");
+        }
+        checkFinite(name, "location", spec.x, spec.y, spec.z);
+        if (spec.group != null && !Arguments.isName(spec.group)) {
+            throw invalid(name, "group names may only contain letters, digits, _ and -");
+        }
+        Template template = null;
+        if (spec.template != null) {
+            template = plugin.getTemplateManager().get(spec.template);
+            if (template == null) {
+                throw invalid(name, "unknown template " + spec.template);
+            }
+        }
+        Particle particle = spec.particle;
+        ParticleData data;
+        if (particle == null) {
+            if (template == null) {
+                throw invalid(name, "no particle given");
+            }
+            particle = template.getParams().particle;
+            data = template.getParams().data;
+        } else {
+            data = parseData(name, particle, spec.data);
+        }
+        checkCount(name, spec.count);
+        checkInterval(name, spec.interval);
+        checkPriority(name, spec.priority);
+        checkFinite(name, "speed", spec.speed);
+        checkFinite(name, "offset", spec.offsetX, spec.offsetY, spec.offsetZ);
+        int viewRadius = spec.viewRadius == 0 ? plugin.getDefaultViewRadius() : spec.viewRadius;
+        if (viewRadius < 1) {
+            throw invalid(name, "view radius must be at least 1");
+        }
+        Shape shape = null;
+        LodTiers lod = null;
+        Animation animation = null;
+        Trigger trigger = null;
+        try {
+            if (spec.shape != null && !spec.shape.equalsIgnoreCase("none")) {
+                shape = plugin.getShapeCache().get(spec.shape);
+            }
+            if (spec.lod != null && !spec.lod.equalsIgnoreCase("none")) {
+                // Either a preset from the config or the tiers themselves
+                lod = LodTiers.parse(plugin.getConfig().getString("lod-presets." + spec.lod, spec.lod));
+            }
+            if (spec.animation != null && !spec.animation.equalsIgnoreCase("none")) {
+                animation = Animation.parse(spec.animation);
+            }
+            if (spec.trigger != null && !spec.trigger.equalsIgnoreCase("none")) {
+                trigger = Trigger.parse(spec.trigger);
+            }
+        } catch (IllegalArgumentException e) {
+            throw invalid(name, e.getMessage());
+        }
+        ParticleParams params = new ParticleParams(particle, data, spec.count, spec.interval, spec.speed, spec.offsetX, spec.offsetY, spec.offsetZ,
+                viewRadius, spec.priority, shape, lod, animation, trigger);
+        return new Prepared(spec, params, template);
+    }
+
+    ParticleData parseData(String name, Particle particle, String spec) {
+        if (particle == null) {
+            throw invalid(name, "no particle given");
+        }
+        try {
+            return ParticleData.parse(particle, spec);
+        } catch (IllegalArgumentException e) {
+            throw invalid(name, e.getMessage());
+        }
+    }
+
+    void checkCount(String name, int count) {
+        BudgetManager budget = plugin.getBudgetManager();
+        if (count < 0 || count > budget.getMaxCount()) {
+            throw invalid(name, "count must be between 0 and " + budget.getMaxCount());
+        }
+    }
+
+    void checkInterval(String name, int interval) {
+        BudgetManager budget = plugin.getBudgetManager();
+        if (interval < budget.getMinInterval() || interval > budget.getMaxInterval()) {
+            throw invalid(name, "interval must be between " + budget.getMinInterval() + " and " + budget.getMaxInterval() + " ticks");
+        }
+    }
+
+    void checkPriority(String name, int priority) {
+        if (priority < BudgetManager.MIN_PRIORITY || priority > BudgetManager.MAX_PRIORITY) {
+            throw invalid(name, "priority must be between " + BudgetManager.MIN_PRIORITY + " and " + BudgetManager.MAX_PRIORITY);
+        }
+    }
+
+    /**
+     * Throws unless every value is a finite number, as the commands only accept those.
+     */
+    void checkFinite(String name, String what, double... values) {
+        for (double value : values) {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                throw invalid(name, what + " must be a finite number");
+            }
+        }
+    }
+
+    /**
+     * Throws unless the handle's generator is still one of the plugin's generators.
+     */
+    void checkHandle(ParticleGenerator generator) {
+        checkThread();
+        if (!isCurrent(generator)) {
+            throw new IllegalStateException("Generator " + generator.getName() + " was removed");
+        }
+    }
+
+    boolean isCurrent(ParticleGenerator generator) {
+        return generator.getName() != null && plugin.getGenerators().get(generator.getName()) == generator;
+    }
+
+    void save(ParticleGenerator generator) {
+        plugin.saveGenerator(generator.getName(), generator);
+    }
+
+    private void flush(int changed) {
+        // One write for the whole batch instead of waiting for the save delay
+        if (changed > 1) {
+            plugin.getStore().flush();
+        }
+    }
+
+    private static void checkThread() {
+        if (!Bukkit.isPrimaryThread()) {
+            throw new IllegalStateException("ParticleGeneratorService has to be used on the main thread");
+        }
+    }
+
+    private static IllegalArgumentException invalid(String name, String message) {
+        return new IllegalArgumentException(String.format(Locale.ROOT, "Generator %s: %s", name, message));
+    }
+
+    private static final class Prepared {
+        final GeneratorSpec spec;
+        final ParticleParams params;
+        // Null unless the generator joins a template
+        final Template template;
+
+        Prepared(GeneratorSpec spec, ParticleParams params, Template template) {
+            this.spec = spec;
+            this.params = params;
+            this.template = template;
+        }
+    }
+}
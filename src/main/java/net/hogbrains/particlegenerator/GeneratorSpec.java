@@ -0,0 +1,267 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Location;
+import org.bukkit.Particle;
+
+/**
+ * Immutable description of a generator for {@link ParticleGeneratorService}. Built with
+ * {@link #builder(String, Location)}; values that are not set keep their defaults, or the
+ * template's values when the spec names a template.
+ *
+ * Shapes, LOD tiers, animations, triggers and particle data are given as the same specs the
+ * {@code /particlegen set} command takes, e.g. {@code shape("ring,radius=2")}.
+ */
+public final class GeneratorSpec {
+
+    final String name;
+    final String worldName;
+    final double x;
+    final double y;
+    final double z;
+    final Particle particle;
+    final String data;
+    final int count;
+    final int interval;
+    final double speed;
+    final double offsetX;
+    final double offsetY;
+    final double offsetZ;
+    // 0 for the configured default
+    final int viewRadius;
+    final int priority;
+    final String shape;
+    final String lod;
+    final String animation;
+    final String trigger;
+    final String template;
+    final String group;
+    final boolean enabled;
+    // ParticleParams field bits that were set, which become overrides on a template member
+    final int fields;
+
+    private GeneratorSpec(Builder builder) {
+        this.name = builder.name;
+        this.worldName = builder.worldName;
+        this.x = builder.x;
+        this.y = builder.y;
+        this.z = builder.z;
+        this.particle = builder.particle;
+        this.data = builder.data;
+        this.count = builder.count;
+        this.interval = builder.interval;
+        this.speed = builder.speed;
+        this.offsetX = builder.offsetX;
+        this.offsetY = builder.offsetY;
+        this.offsetZ = builder.offsetZ;
+        this.viewRadius = builder.viewRadius;
+        this.priority = builder.priority;
+        this.shape = builder.shape;
+        this.lod = builder.lod;
+        this.animation = builder.animation;
+        this.trigger = builder.trigger;
+        this.template = builder.template;
+        this.group = builder.group;
+        this.enabled = builder.enabled;
+        this.fields = builder.fields;
+    }
+
+    public static Builder builder(String name, Location location) {
+        if (location.getWorld() == null) {
+            throw new IllegalArgumentException("Location of generator " + name + " has no world");
+        }
+        return new Builder(name, location.getWorld().getName(), location.getX(), location.getY(), location.getZ());
+    }
+
+    /**
+     * Starts a spec in a world that does not have to be loaded.
+     */
+    public static Builder builder(String name, String worldName, double x, double y, double z) {
+        return new Builder(name, worldName, x, y, z);
+    }
+
+    /**
+     * Starts a spec with every value of this one, e.g. to change a few values for
+     * {@link ParticleGeneratorService#update(GeneratorSpec)}.
+     */
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getWorldName() {
+        return worldName;
+    }
+
+    public static final class Builder {
+        private final String name;
+        private String worldName;
+        private double x;
+        private double y;
+        private double z;
+        private Particle particle;
+        private String data;
+        private int count = 1;
+        private int interval = 20;
+        private double speed;
+        private double offsetX;
+        private double offsetY;
+        private double offsetZ;
+        private int viewRadius;
+        private int priority;
+        private String shape;
+        private String lod;
+        private String animation;
+        private String trigger;
+        private String template;
+        private String group;
+        private boolean enabled = true;
+        private int fields;
+
+        private Builder(String name, String worldName, double x, double y, double z) {
+            this.name = name;
+            this.worldName = worldName;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        private Builder(GeneratorSpec spec) {
+            this(spec.name, spec.worldName, spec.x, spec.y, spec.z);
+            particle = spec.particle;
+            data = spec.data;
+            count = spec.count;
+            interval = spec.interval;
+            speed = spec.speed;
+            offsetX = spec.offsetX;
+            offsetY = spec.offsetY;
+            offsetZ = spec.offsetZ;
+            viewRadius = spec.viewRadius;
+            priority = spec.priority;
+            shape = spec.shape;
+            lod = spec.lod;
+            animation = spec.animation;
+            trigger = spec.trigger;
+            template = spec.template;
+            group = spec.group;
+            enabled = spec.enabled;
+            fields = spec.fields;
+        }
+
+        public Builder location(Location location) {
+            if (location.getWorld() == null) {
+                throw new IllegalArgumentException("Location of generator " + name + " has no world");
+            }
+            return location(location.getWorld().getName(), location.getX(), location.getY(), location.getZ());
+        }
+
+        public Builder location(String worldName, double x, double y, double z) {
+            this.worldName = worldName;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            return this;
+        }
+
+        public Builder particle(Particle particle) {
+            return particle(particle, null);
+        }
+
+        /**
+         * Sets the particle with its data, e.g. {@code "#ff8800:1.5"} for dust.
+         */
+        public Builder particle(Particle particle, String data) {
+            this.particle = particle;
+            this.data = data;
+            fields |= ParticleParams.PARTICLE;
+            return this;
+        }
+
+        public Builder count(int count) {
+            this.count = count;
+            fields |= ParticleParams.COUNT;
+            return this;
+        }
+
+        public Builder interval(int interval) {
+            this.interval = interval;
+            fields |= ParticleParams.INTERVAL;
+            return this;
+        }
+
+        public Builder speed(double speed) {
+            this.speed = speed;
+            fields |= ParticleParams.SPEED;
+            return this;
+        }
+
+        public Builder offset(double offsetX, double offsetY, double offsetZ) {
+            this.offsetX = offsetX;
+            this.offsetY = offsetY;
+            this.offsetZ = offsetZ;
+            fields |= ParticleParams.OFFSET;
+            return this;
+        }
+
+        public Builder viewRadius(int viewRadius) {
+            this.viewRadius = viewRadius;
+            fields |= ParticleParams.VIEW_RADIUS;
+            return this;
+        }
+
+        public Builder priority(int priority) {
+            this.priority = priority;
+            fields |= ParticleParams.PRIORITY;
+            return this;
+        }
+
+        public Builder shape(String shape) {
+            this.shape = shape;
+            fields |= ParticleParams.SHAPE;
+            return this;
+        }
+
+        public Builder lod(String lod) {
+            this.lod = lod;
+            fields |= ParticleParams.LOD;
+            return this;
+        }
+
+        public Builder animation(String animation) {
+            this.animation = animation;
+            fields |= ParticleParams.ANIMATION;
+            return this;
+        }
+
+        public Builder trigger(String trigger) {
+            this.trigger = trigger;
+            fields |= ParticleParams.TRIGGER;
+            return this;
+        }
+
+        /**
+         * Makes the generator a member of the template. Values set on this builder are kept
+         * as the generator's own; everything else follows the template.
+         */
+        public Builder template(String template) {
+            this.template = template;
+            return this;
+        }
+
+        public Builder group(String group) {
+            this.group = group;
+            return this;
+        }
+
+        public Builder enabled(boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public GeneratorSpec build() {
+            return new GeneratorSpec(this);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package net.hogbrains.particlegenerator;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A place generators are persisted to. {@link #load()} runs on the main thread, or on the
+ * store's writer thread for a reload, while {@link #save(Collection)} is called from the
+ * writer thread with an immutable snapshot.
+ */
+interface GeneratorStorage {
+
+    String getName();
+
+    Map<String, GeneratorRecord> load() throws IOException;
+
+    void save(Collection<GeneratorRecord> records) throws IOException;
+}
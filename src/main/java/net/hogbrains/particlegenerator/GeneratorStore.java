@@ -0,0 +1,276 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Write-behind persistence for generators. Changes are marked dirty on the main thread,
+ * coalesced for a configurable number of ticks and then handed to the storage backend on
+ * a background thread as an immutable snapshot.
+ *
+ * The records and dirty changes themselves live in each generator's {@link WorldShard}, so
+ * a flush only folds the shards that changed; the file is still written as one snapshot.
+ */
+class GeneratorStore {
+
+    private final ParticleGeneratorPlugin plugin;
+    private final GeneratorStorage storage;
+    private final long saveDelay;
+    private final ExecutorService writer;
+
+    private final AtomicInteger queuedWrites = new AtomicInteger();
+    private BukkitTask flushTask;
+
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private volatile long lastSaveNanos;
+    private volatile long totalSaveNanos;
+    private volatile long saveCount;
+
+    GeneratorStore(ParticleGeneratorPlugin plugin, GeneratorStorage storage, long saveDelay) {
+        this.plugin = plugin;
+        this.storage = storage;
+        this.saveDelay = Math.max(1, saveDelay);
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ParticleGenerator-Store");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads every stored generator and seeds the record cache with them.
+     */
+    public Map<String, GeneratorRecord> load() throws IOException {
+        Map<String, GeneratorRecord> loaded = storage.load();
+        GeneratorIndex index = plugin.getGeneratorIndex();
+        for (WorldShard shard : index.getShards()) {
+            shard.records.clear();
+        }
+        for (GeneratorRecord record : loaded.values()) {
+            index.getShard(record.getWorldName()).records.put(record.getName(), record);
+        }
+        return loaded;
+    }
+
+    public GeneratorStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Copy of the generators as they will be written, taken after a flush.
+     */
+    public Map<String, GeneratorRecord> snapshotRecords() {
+        Map<String, GeneratorRecord> snapshot = new LinkedHashMap<>();
+        for (WorldShard shard : plugin.getGeneratorIndex().getShards()) {
+            snapshot.putAll(shard.records);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Updates the record cache for a generator that was read back from storage, so it is
+     * not written again. A null record drops the generator.
+     */
+    public void setRecord(String name, GeneratorRecord record) {
+        WorldShard target = record == null ? null : plugin.getGeneratorIndex().getShard(record.getWorldName());
+        for (WorldShard shard : plugin.getGeneratorIndex().getShards()) {
+            if (shard != target) {
+                shard.records.remove(name);
+            }
+        }
+        if (target != null) {
+            target.records.put(name, record);
+        }
+    }
+
+    public boolean isDirty(String name) {
+        for (WorldShard shard : plugin.getGeneratorIndex().getShards()) {
+            if (shard.dirty.containsKey(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void markDirty(String name, ParticleGenerator generator) {
+        generator.getShard().dirty.put(name, generator);
+        scheduleFlush();
+    }
+
+    /**
+     * Marks a generator as gone from a shard, because it was deleted or moved to another world.
+     */
+    public void markDeleted(WorldShard shard, String name) {
+        shard.dirty.put(name, null);
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushTask == null) {
+            flushTask = Bukkit.getScheduler().runTaskLater(plugin, this::flush, saveDelay);
+        }
+    }
+
+    /**
+     * Folds the dirty set into the record cache and hands a snapshot to the writer thread.
+     */
+    public void flush() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        boolean changed = false;
+        for (WorldShard shard : plugin.getGeneratorIndex().getShards()) {
+            if (shard.dirty.isEmpty()) {
+                continue;
+            }
+            for (Map.Entry<String, ParticleGenerator> entry : shard.dirty.entrySet()) {
+                if (entry.getValue() == null) {
+                    shard.records.remove(entry.getKey());
+                } else {
+                    shard.records.put(entry.getKey(), GeneratorRecord.of(entry.getKey(), entry.getValue()));
+                }
+            }
+            shard.dirty.clear();
+            changed = true;
+        }
+        if (changed) {
+            submit(storage, snapshot());
+        }
+    }
+
+    /**
+     * Writes the current generators to another backend, used to export between formats.
+     */
+    public int exportTo(GeneratorStorage target) {
+        flush();
+        List<GeneratorRecord> snapshot = snapshot();
+        submit(target, snapshot);
+        return snapshot.size();
+    }
+
+    private List<GeneratorRecord> snapshot() {
+        List<GeneratorRecord> snapshot = new ArrayList<>();
+        for (WorldShard shard : plugin.getGeneratorIndex().getShards()) {
+            snapshot.addAll(shard.records.values());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes a small side file, such as the templates, on the writer thread so it is ordered
+     * with the generator saves.
+     */
+    public void writeFile(final File file, final byte[] contents) {
+        queuedWrites.incrementAndGet();
+        writer.execute(() -> {
+            try {
+                StorageFiles.writeAtomically(file, contents);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not save " + file.getName(), e);
+            } finally {
+                queuedWrites.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Runs a read on the writer thread once every write queued before it has finished, so
+     * it sees the files as they are on disk.
+     */
+    public <T> CompletableFuture<T> read(final Callable<T> reader) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        writer.execute(() -> {
+            try {
+                future.complete(reader.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private void submit(final GeneratorStorage target, final List<GeneratorRecord> snapshot) {
+        queuedWrites.incrementAndGet();
+        writer.execute(() -> {
+            try {
+                write(target, snapshot);
+            } finally {
+                queuedWrites.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Flushes pending changes and blocks until every queued write has reached the disk.
+     */
+    public void close() {
+        flush();
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for generators to be saved");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(GeneratorStorage target, List<GeneratorRecord> snapshot) {
+        long start = System.nanoTime();
+        try {
+            target.save(snapshot);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not save generators to " + target.getName() + " storage", e);
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        writeLatency.record(elapsed);
+        lastSaveNanos = elapsed;
+        totalSaveNanos += elapsed;
+        saveCount++;
+    }
+
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    public int getDirtyCount() {
+        int total = 0;
+        for (WorldShard shard : plugin.getGeneratorIndex().getShards()) {
+            total += shard.dirty.size();
+        }
+        return total;
+    }
+
+    public int getQueuedWrites() {
+        return queuedWrites.get();
+    }
+
+    public long getLastSaveNanos() {
+        return lastSaveNanos;
+    }
+
+    public long getAverageSaveNanos() {
+        long count = saveCount;
+        return count == 0 ? 0 : totalSaveNanos / count;
+    }
+
+    public long getSaveCount() {
+        return saveCount;
+    }
+}
@@ -0,0 +1,48 @@
+package net.hogbrains.particlegenerator;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Tracks which generators belong to which named group. Membership is stored with each
+ * generator, so groups exist as long as they have members.
+ */
+class GroupManager {
+
+    private final Map<String, Set<ParticleGenerator>> groups = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    public void add(String group, ParticleGenerator generator) {
+        Set<ParticleGenerator> members = groups.get(group);
+        if (members == null) {
+            members = new LinkedHashSet<>();
+            groups.put(group, members);
+        }
+        members.add(generator);
+    }
+
+    public void remove(String group, ParticleGenerator generator) {
+        Set<ParticleGenerator> members = groups.get(group);
+        if (members != null) {
+            members.remove(generator);
+            if (members.isEmpty()) {
+                groups.remove(group);
+            }
+        }
+    }
+
+    public Set<ParticleGenerator> get(String group) {
+        Set<ParticleGenerator> members = groups.get(group);
+        return members == null ? Collections.<ParticleGenerator>emptySet() : Collections.unmodifiableSet(members);
+    }
+
+    public Set<String> getNames() {
+        return groups.keySet();
+    }
+
+    public void clear() {
+        groups.clear();
+    }
+}
@@ -0,0 +1,156 @@
+package net.hogbrains.particlegenerator;
+
+/**
+ * Distance bands that thin out an emission for far away viewers. Each band covers viewers
+ * up to its distance and scales the particle count, sends only every n-th firing and sets
+ * whether the packet is forced past the client's own particle distance. Viewers beyond
+ * the last band are treated like the last band.
+ *
+ * Written as comma separated bands of {@code distance:count[:interval[:noforce]]}, for
+ * example {@code 16:1,48:0.5:2,128:0.25:4:noforce}.
+ */
+final class LodTiers {
+
+    private static final int MAX_INTERVAL_SCALE = 64;
+
+    private final String spec;
+    private final double[] distancesSquared;
+    private final double[] countScales;
+    private final int[] intervalScales;
+    private final boolean[] force;
+
+    private LodTiers(String spec, double[] distancesSquared, double[] countScales, int[] intervalScales, boolean[] force) {
+        this.spec = spec;
+        this.distancesSquared = distancesSquared;
+        this.countScales = countScales;
+        this.intervalScales = intervalScales;
+        this.force = force;
+    }
+
+    /**
+     * Parses a band spec, normalizing how its numbers are written.
+     *
+     * @throws IllegalArgumentException if the spec is invalid
+     */
+    static LodTiers parse(String spec) {
+        String[] bands = spec.split(",");
+        double[] distancesSquared = new double[bands.length];
+        double[] countScales = new double[bands.length];
+        int[] intervalScales = new int[bands.length];
+        boolean[] force = new boolean[bands.length];
+        StringBuilder canonical = new StringBuilder();
+        double previous = 0;
+        for (int i = 0; i < bands.length; i++) {
+            String[] parts = bands[i].trim().split(":");
+            if (parts.length < 2 || parts.length > 4) {
+                throw new IllegalArgumentException("Expected distance:count[:interval[:noforce]] but got " + bands[i].trim());
+            }
+            double distance = parseNumber("distance", parts[0]);
+            if (distance <= previous) {
+                throw new IllegalArgumentException("Distances must be positive and increasing");
+            }
+            previous = distance;
+            double countScale = parseNumber("count", parts[1]);
+            if (countScale < 0 || countScale > 1) {
+                throw new IllegalArgumentException("Count must be between 0 and 1");
+            }
+            int intervalScale = 1;
+            if (parts.length > 2) {
+                try {
+                    intervalScale = Integer.parseInt(parts[2].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid interval " + parts[2].trim());
+                }
+                if (intervalScale < 1 || intervalScale > MAX_INTERVAL_SCALE) {
+                    throw new IllegalArgumentException("Interval must be between 1 and " + MAX_INTERVAL_SCALE);
+                }
+            }
+            force[i] = true;
+            if (parts.length > 3) {
+                if (parts[3].trim().equalsIgnoreCase("noforce")) {
+                    force[i] = false;
+                } else if (!parts[3].trim().equalsIgnoreCase("force")) {
+                    throw new IllegalArgumentException("Expected force or noforce but got " + parts[3].trim());
+                }
+            }
+            distancesSquared[i] = distance * distance;
+            countScales[i] = countScale;
+            intervalScales[i] = intervalScale;
+
+            if (i > 0) {
+                canonical.append(',');
+            }
+            canonical.append(formatNumber(distance)).append(':').append(formatNumber(countScale));
+            if (intervalScale != 1 || !force[i]) {
+                canonical.append(':').append(intervalScale);
+            }
+            if (!force[i]) {
+                canonical.append(":noforce");
+            }
+        }
+        return new LodTiers(canonical.toString(), distancesSquared, countScales, intervalScales, force);
+    }
+
+    public String getSpec() {
+        return spec;
+    }
+
+    /**
+     * Returns the band for a viewer at the given squared distance.
+     */
+    int tierFor(double distanceSquared) {
+        int last = distancesSquared.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (distanceSquared <= distancesSquared[i]) {
+                return i;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Returns the particle count a viewer in the band gets, or 0 if they get nothing.
+     */
+    int scaleCount(int tier, int count) {
+        double scale = countScales[tier];
+        if (scale == 0) {
+            return 0;
+        }
+        return Math.max(1, (int) Math.round(count * scale));
+    }
+
+    int getIntervalScale(int tier) {
+        return intervalScales[tier];
+    }
+
+    boolean isForce(int tier) {
+        return force[tier];
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LodTiers && ((LodTiers) other).spec.equals(spec);
+    }
+
+    @Override
+    public int hashCode() {
+        return spec.hashCode();
+    }
+
+    private static double parseNumber(String name, String value) {
+        double number;
+        try {
+            number = Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " " + value.trim());
+        }
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            throw new IllegalArgumentException("Invalid " + name + " " + value.trim());
+        }
+        return number;
+    }
+
+    private static String formatNumber(double number) {
+        return number == Math.rint(number) && Math.abs(number) < 1e15 ? String.valueOf((long) number) : String.valueOf(number);
+    }
+}
@@ -0,0 +1,124 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A message from the config, split once into literal text and placeholders so it can be
+ * rendered in a single pass. Colour codes in the literal text are translated up front.
+ *
+ * Placeholders are either positional, {@code %0} to {@code %9} and then {@code %a} onwards
+ * for the eleventh value and up, or named like {@code %{count}}. A placeholder without a
+ * value is rendered as written, the same as an unused placeholder always was.
+ */
+final class MessageTemplate {
+
+    // Literal text before each placeholder, and the text after the last one
+    private final String[] literals;
+    // Position of each placeholder in the values, or -1 for named placeholders
+    private final int[] indices;
+    private final String[] names;
+    // Placeholders as written, used when there is no value for them
+    private final String[] tokens;
+    private final int literalLength;
+
+    private MessageTemplate(String[] literals, int[] indices, String[] names, String[] tokens) {
+        this.literals = literals;
+        this.indices = indices;
+        this.names = names;
+        this.tokens = tokens;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    static MessageTemplate compile(String raw) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<String> tokens = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < raw.length()) {
+            char c = raw.charAt(i);
+            int index = -1;
+            String name = null;
+            int end = i;
+            if (c == '%' && i + 1 < raw.length()) {
+                char next = raw.charAt(i + 1);
+                if (next >= '0' && next <= '9') {
+                    index = next - '0';
+                    end = i + 2;
+                } else if (next >= 'a' && next <= 'z') {
+                    index = 10 + next - 'a';
+                    end = i + 2;
+                } else if (next == '{') {
+                    int close = raw.indexOf('}', i + 2);
+                    if (close > i + 2) {
+                        name = raw.substring(i + 2, close);
+                        end = close + 1;
+                    }
+                }
+            }
+            if (end == i) {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            literals.add(ChatColor.translateAlternateColorCodes('&', literal.toString()));
+            literal.setLength(0);
+            indices.add(index);
+            names.add(name);
+            tokens.add(raw.substring(i, end));
+            i = end;
+        }
+        literals.add(ChatColor.translateAlternateColorCodes('&', literal.toString()));
+
+        int[] indexArray = new int[indices.size()];
+        for (int p = 0; p < indexArray.length; p++) {
+            indexArray[p] = indices.get(p);
+        }
+        return new MessageTemplate(literals.toArray(new String[0]), indexArray, names.toArray(new String[0]), tokens.toArray(new String[0]));
+    }
+
+    /**
+     * Renders the message with positional values. Named placeholders are left as written.
+     */
+    String render(String prefix, String[] values) {
+        StringBuilder builder = new StringBuilder(prefix.length() + literalLength + indices.length * 8);
+        builder.append(prefix);
+        for (int p = 0; p < indices.length; p++) {
+            builder.append(literals[p]);
+            int index = indices[p];
+            if (values != null && index >= 0 && index < values.length) {
+                builder.append(values[index]);
+            } else {
+                builder.append(tokens[p]);
+            }
+        }
+        return builder.append(literals[indices.length]).toString();
+    }
+
+    /**
+     * Renders the message with named values. Positional placeholders are left as written.
+     */
+    String render(String prefix, Map<String, ?> values) {
+        StringBuilder builder = new StringBuilder(prefix.length() + literalLength + indices.length * 8);
+        builder.append(prefix);
+        for (int p = 0; p < indices.length; p++) {
+            builder.append(literals[p]);
+            Object value = names[p] == null ? null : values.get(names[p]);
+            if (value != null) {
+                builder.append(value);
+            } else {
+                builder.append(tokens[p]);
+            }
+        }
+        return builder.append(literals[indices.length]).toString();
+    }
+}
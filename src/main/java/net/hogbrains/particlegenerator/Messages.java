@@ -0,0 +1,77 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The compiled {@code messages} section of the config. Loading compiles a complete new set
+ * and swaps it in at once, so a message is never rendered from a half-loaded config.
+ */
+final class Messages {
+
+    private volatile Compiled compiled = new Compiled(Collections.emptyMap(), "");
+
+    /**
+     * Compiles every message in the section and replaces the current set. Returns the
+     * number of messages compiled.
+     */
+    int load(ConfigurationSection section) {
+        Map<String, MessageTemplate> templates = new HashMap<>();
+        String prefix = "";
+        if (section != null) {
+            for (String key : section.getKeys(false)) {
+                String raw = section.getString(key);
+                if (raw == null) {
+                    continue;
+                }
+                if (key.equals("prefix")) {
+                    prefix = ChatColor.translateAlternateColorCodes('&', raw);
+                } else {
+                    templates.put(key, MessageTemplate.compile(raw));
+                }
+            }
+        }
+        compiled = new Compiled(templates, prefix);
+        return templates.size();
+    }
+
+    /**
+     * Renders a message with positional values, or returns an empty string if there is no
+     * such message.
+     */
+    String format(String name, String[] values, boolean prefix) {
+        Compiled current = compiled;
+        MessageTemplate template = current.templates.get(name);
+        if (template == null) {
+            return "";
+        }
+        return template.render(prefix ? current.prefix : "", values);
+    }
+
+    /**
+     * Renders a message with named values, or returns an empty string if there is no such
+     * message.
+     */
+    String format(String name, Map<String, ?> values, boolean prefix) {
+        Compiled current = compiled;
+        MessageTemplate template = current.templates.get(name);
+        if (template == null) {
+            return "";
+        }
+        return template.render(prefix ? current.prefix : "", values);
+    }
+
+    private static final class Compiled {
+        final Map<String, MessageTemplate> templates;
+        final String prefix;
+
+        Compiled(Map<String, MessageTemplate> templates, String prefix) {
+            this.templates = templates;
+            this.prefix = prefix;
+        }
+    }
+}
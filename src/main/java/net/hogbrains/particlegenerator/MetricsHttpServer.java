@@ -0,0 +1,72 @@
+package net.hogbrains.particlegenerator;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.Bukkit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Serves the plugin metrics in Prometheus text format on the loopback interface only.
+ * Rendering is handed to the main thread so it never races the tick loop.
+ */
+class MetricsHttpServer {
+
+    private final ParticleGeneratorPlugin plugin;
+    private final int port;
+    private final int topGenerators;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    MetricsHttpServer(ParticleGeneratorPlugin plugin, int port, int topGenerators) {
+        this.plugin = plugin;
+        this.port = port;
+        this.topGenerators = topGenerators;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ParticleGenerator-Metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body;
+        int status = 200;
+        try {
+            String text = Bukkit.getScheduler().callSyncMethod(plugin, () -> plugin.getMetrics().renderPrometheus(plugin, topGenerators)).get(5, TimeUnit.SECONDS);
+            body = text.getBytes(StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.FINE, "Could not render metrics", e);
+            status = 503;
+            body = new byte[0];
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package net.hogbrains.particlegenerator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Case-insensitive prefix trie of names for tab completion. Names are added and removed
+ * one at a time as generators come and go, and a lookup only walks the prefix and the
+ * matches it returns, instead of filtering every name on every keystroke.
+ */
+final class NameTrie {
+
+    // More suggestions than this are of no use in the chat box
+    static final int MAX_COMPLETIONS = 100;
+
+    private final Node root = new Node();
+
+    NameTrie() {
+    }
+
+    NameTrie(Collection<String> names) {
+        for (String name : names) {
+            add(name);
+        }
+    }
+
+    public void add(String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.child(key.charAt(i), true);
+        }
+        if (node.names == null) {
+            node.names = new ArrayList<>(1);
+        }
+        if (!node.names.contains(name)) {
+            node.names.add(name);
+        }
+    }
+
+    public void remove(String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.child(key.charAt(i), false);
+        }
+        if (node != null && node.names != null) {
+            node.names.remove(name);
+        }
+    }
+
+    public void clear() {
+        root.keys = new char[0];
+        root.children = new Node[0];
+        root.names = null;
+    }
+
+    /**
+     * Returns the names starting with the prefix, ignoring case, in alphabetical order.
+     */
+    public List<String> complete(String prefix) {
+        List<String> matches = new ArrayList<>();
+        String key = prefix.toLowerCase(Locale.ROOT);
+        Node node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.child(key.charAt(i), false);
+        }
+        if (node != null) {
+            collect(node, matches);
+        }
+        return matches;
+    }
+
+    private static void collect(Node node, List<String> matches) {
+        if (node.names != null) {
+            for (String name : node.names) {
+                if (matches.size() == MAX_COMPLETIONS) {
+                    return;
+                }
+                matches.add(name);
+            }
+        }
+        for (Node child : node.children) {
+            if (matches.size() == MAX_COMPLETIONS) {
+                return;
+            }
+            collect(child, matches);
+        }
+    }
+
+    private static final class Node {
+        // Sorted child keys and the matching children
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        // Original spellings of the names ending here
+        List<String> names;
+
+        Node child(char key, boolean create) {
+            int index = Arrays.binarySearch(keys, key);
+            if (index >= 0) {
+                return children[index];
+            }
+            if (!create) {
+                return null;
+            }
+            index = -index - 1;
+            char[] grownKeys = new char[keys.length + 1];
+            Node[] grownChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, grownKeys, 0, index);
+            System.arraycopy(children, 0, grownChildren, 0, index);
+            System.arraycopy(keys, index, grownKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, grownChildren, index + 1, children.length - index);
+            Node child = new Node();
+            grownKeys[index] = key;
+            grownChildren[index] = child;
+            keys = grownKeys;
+            children = grownChildren;
+            return child;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+
+/**
+ * Read-only view of the emissions queued for one player during a tick. Views are reused
+ * between players and ticks, so sinks must not keep a reference after {@code send} returns.
+ */
+interface ParticleBatch {
+
+    int size();
+
+    Particle getParticle(int index);
+
+    double getX(int index);
+
+    double getY(int index);
+
+    double getZ(int index);
+
+    int getCount(int index);
+
+    double getOffsetX(int index);
+
+    double getOffsetY(int index);
+
+    double getOffsetZ(int index);
+
+    double getSpeed(int index);
+
+    Object getData(int index);
+
+    /**
+     * Whether the emission should be shown beyond the client's normal particle distance.
+     */
+    boolean isForce(int index);
+}
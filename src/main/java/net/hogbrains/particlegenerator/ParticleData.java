@@ -0,0 +1,172 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Color;
+import org.bukkit.Material;
+import org.bukkit.Particle;
+import org.bukkit.block.data.BlockData;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The extra data a particle is spawned with, such as the colour of dust or the block of
+ * block cracks. Parsed once from its spec and interned, so every generator with the same
+ * data shares one Bukkit data object and their emissions can be merged.
+ *
+ * Specs by data type: dust {@code #rrggbb[:size]}, dust transitions
+ * {@code #rrggbb>#rrggbb[:size]}, blocks a block data string like
+ * {@code oak_stairs[facing=north]}, items a material name, sculk charge the roll angle and
+ * shriek the delay in ticks.
+ */
+final class ParticleData {
+
+    // Data of particles that take none
+    static final ParticleData NONE = new ParticleData("", null);
+
+    private static final ConcurrentMap<String, ParticleData> INTERNED = new ConcurrentHashMap<>();
+
+    private final String spec;
+    private final Object value;
+
+    private ParticleData(String spec, Object value) {
+        this.spec = spec;
+        this.value = value;
+    }
+
+    /**
+     * Parses the data for a particle. A null or empty spec is only valid for particles that
+     * take no data, and gives {@link #NONE}.
+     *
+     * @throws IllegalArgumentException if the data is missing, invalid or not configurable
+     */
+    static ParticleData parse(Particle particle, String spec) {
+        Class<?> type = particle.getDataType();
+        if (spec == null || spec.trim().isEmpty()) {
+            if (type != Void.class) {
+                throw new IllegalArgumentException(particle + " needs data: " + describe(particle));
+            }
+            return NONE;
+        }
+        spec = spec.trim();
+        ParticleData data;
+        if (type == Void.class) {
+            throw new IllegalArgumentException(particle + " takes no data");
+        } else if (type == Particle.DustTransition.class) {
+            int arrow = spec.indexOf('>');
+            if (arrow < 0) {
+                throw new IllegalArgumentException("Expected " + describe(particle) + " but got " + spec);
+            }
+            int sizeSeparator = spec.indexOf(':', arrow);
+            Color from = parseColor(spec.substring(0, arrow));
+            Color to = parseColor(sizeSeparator < 0 ? spec.substring(arrow + 1) : spec.substring(arrow + 1, sizeSeparator));
+            float size = parseSize(spec, sizeSeparator);
+            data = new ParticleData(formatColor(from) + ">" + formatColor(to) + ":" + size, new Particle.DustTransition(from, to, size));
+        } else if (type == Particle.DustOptions.class) {
+            int sizeSeparator = spec.indexOf(':');
+            Color color = parseColor(sizeSeparator < 0 ? spec : spec.substring(0, sizeSeparator));
+            float size = parseSize(spec, sizeSeparator);
+            data = new ParticleData(formatColor(color) + ":" + size, new Particle.DustOptions(color, size));
+        } else if (type == BlockData.class) {
+            BlockData block;
+            try {
+                block = Bukkit.createBlockData(spec.toLowerCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown block " + spec);
+            }
+            data = new ParticleData(block.getAsString(), block);
+        } else if (type == ItemStack.class) {
+            Material material = Material.matchMaterial(spec);
+            if (material == null || !material.isItem()) {
+                throw new IllegalArgumentException("Unknown item " + spec);
+            }
+            data = new ParticleData(material.name().toLowerCase(Locale.ROOT), new ItemStack(material));
+        } else if (type == Float.class) {
+            Double roll = Arguments.parseDouble(spec);
+            if (roll == null) {
+                throw new IllegalArgumentException("Expected " + describe(particle) + " but got " + spec);
+            }
+            data = new ParticleData("" + roll.floatValue(), roll.floatValue());
+        } else if (type == Integer.class) {
+            Integer delay = Arguments.parseInt(spec);
+            if (delay == null || delay < 0) {
+                throw new IllegalArgumentException("Expected " + describe(particle) + " but got " + spec);
+            }
+            data = new ParticleData("" + delay, delay);
+        } else {
+            throw new IllegalArgumentException(particle + " cannot be used by generators");
+        }
+        ParticleData interned = INTERNED.putIfAbsent(type.getName() + "|" + data.spec, data);
+        return interned == null ? data : interned;
+    }
+
+    /**
+     * Returns how the data of a particle is written, for usage messages.
+     */
+    static String describe(Particle particle) {
+        Class<?> type = particle.getDataType();
+        if (type == Void.class) {
+            return "no data";
+        } else if (type == Particle.DustTransition.class) {
+            return "#rrggbb>#rrggbb[:size]";
+        } else if (type == Particle.DustOptions.class) {
+            return "#rrggbb[:size]";
+        } else if (type == BlockData.class) {
+            return "<block>";
+        } else if (type == ItemStack.class) {
+            return "<item>";
+        } else if (type == Float.class) {
+            return "<roll>";
+        } else if (type == Integer.class) {
+            return "<delay>";
+        }
+        return "unsupported";
+    }
+
+    private static Color parseColor(String hex) {
+        String digits = hex.startsWith("#") ? hex.substring(1) : hex;
+        if (digits.length() != 6) {
+            throw new IllegalArgumentException("Expected a colour like #ff8800 but got " + hex);
+        }
+        int rgb = 0;
+        for (int i = 0; i < 6; i++) {
+            int digit = Character.digit(digits.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Expected a colour like #ff8800 but got " + hex);
+            }
+            rgb = rgb << 4 | digit;
+        }
+        return Color.fromRGB(rgb);
+    }
+
+    private static String formatColor(Color color) {
+        return String.format(Locale.ROOT, "#%06x", color.asRGB());
+    }
+
+    private static float parseSize(String spec, int separator) {
+        if (separator < 0) {
+            return 1;
+        }
+        Double size = Arguments.parseDouble(spec.substring(separator + 1));
+        if (size == null || size <= 0 || size > 4) {
+            throw new IllegalArgumentException("Size must be above 0 and at most 4");
+        }
+        return size.floatValue();
+    }
+
+    /**
+     * Returns the canonical spec, as stored with the generator. Empty for {@link #NONE}.
+     */
+    public String getSpec() {
+        return spec;
+    }
+
+    /**
+     * Returns the shared Bukkit data object, or null for {@link #NONE}. Must not be modified.
+     */
+    public Object getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,484 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Color;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.World;
+import org.bukkit.util.Vector;
+
+class ParticleGenerator {
+    private final ParticleGeneratorPlugin plugin;
+    private String name;
+    private String worldName;
+    // Shard of the world the generator is in, set once it is indexed
+    private WorldShard shard;
+    private double x;
+    private double y;
+    private double z;
+    private long chunkKey;
+    // Shard and position as one value for the planner threads, replaced whenever either changes
+    private volatile Placement placement;
+    // Swapped as a whole on every edit; the tick reads it once per firing
+    private volatile ParticleParams params;
+    // Firing state, only touched by whichever thread plans the tick
+    private int frame;
+    private Animation.Frame animationFrame;
+    // Last dust colour sent, reused while the animated colour stays the same
+    private Particle.DustOptions dust;
+    private int dustKey = -1;
+    // Template the params come from, and the ParticleParams field bits kept from this generator
+    private Template template;
+    private int overrides;
+    private String group;
+    private boolean enabled;
+    private int firings;
+
+    // Cost counters, updated on the main thread after every firing, also when it was planned
+    // by a worker
+    private long emissions;
+    private long particles;
+    private long skipped;
+    private long costNanos;
+    private long maxCostNanos;
+
+    // Trigger as indexed by the TriggerManager, null without a trigger
+    TriggerManager.Entry triggerEntry;
+
+    // Position in the shard's generator list
+    int listIndex;
+
+    // Timing wheel bookkeeping, owned by the shard's TimingWheel
+    TimingWheel.IntervalBucket bucket;
+    TimingWheel.PhaseSlot slot;
+    int slotIndex;
+
+    public ParticleGenerator(ParticleGeneratorPlugin plugin, String worldName, double x, double y, double z, Particle particle, int count, int interval, double speed, Vector offset, int viewRadius) {
+        this.plugin = plugin;
+        setPosition(worldName, x, y, z);
+        this.params = new ParticleParams(particle, ParticleData.NONE, count, interval, speed, offset.getX(), offset.getY(), offset.getZ(), viewRadius, 0, null, null, null, null);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    public void start() {
+        enabled = true;
+        // The index only hands the generator to the scheduler once its chunk is loaded
+        plugin.getGeneratorIndex().refresh(this);
+    }
+
+    public void stop() {
+        enabled = false;
+        plugin.getScheduler().unregister(this);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns whether the generator may run, which is always unless it waits for a trigger.
+     */
+    public boolean isArmed() {
+        TriggerManager.Entry entry = triggerEntry;
+        return params.trigger == null || (entry != null && entry.armedIndex >= 0);
+    }
+
+    public boolean isActive() {
+        // A bucket of a wheel dropped with its world no longer counts
+        TimingWheel.IntervalBucket bucket = this.bucket;
+        WorldShard shard = this.shard;
+        return bucket != null && shard != null && bucket.wheel == shard.wheel;
+    }
+
+    /**
+     * Queues this generator's particles for the current tick. Returns the number of
+     * particles queued, or -1 if the firing was skipped.
+     *
+     * Runs on a planner thread when planning is asynchronous, so it only reads the params
+     * and placement snapshots, the given viewers and its own firing state.
+     */
+    int emit(EmissionTarget target, ViewerQuery viewers, int throttleLevel, long tick) {
+        ParticleParams params = this.params;
+        Placement placement = this.placement;
+        World world = placement.shard == null ? null : placement.shard.getWorld();
+        if (world == null) {
+            return -1;
+        }
+        double x = placement.x;
+        double y = placement.y;
+        double z = placement.z;
+        long chunkKey = placement.chunkKey;
+        // Under load, lower priority generators skip firings and send fewer particles
+        int throttleSteps = BudgetManager.throttleSteps(throttleLevel, params.priority);
+        if (throttleSteps > 0 && (firings++ & ((1 << throttleSteps) - 1)) != 0) {
+            return -1;
+        }
+
+        int count = params.count;
+        double speed = params.speed;
+        double offsetX = params.offsetX;
+        double offsetY = params.offsetY;
+        double offsetZ = params.offsetZ;
+        Object data = params.data.getValue();
+        Animation animation = params.animation;
+        if (animation != null) {
+            Animation.Frame values = animationFrame;
+            if (values == null) {
+                values = animationFrame = new Animation.Frame();
+            }
+            animation.evaluate(tick, params, values);
+            count = Math.min(values.count, plugin.getBudgetManager().getMaxCount());
+            speed = values.speed;
+            offsetX = values.offsetX;
+            offsetY = values.offsetY;
+            offsetZ = values.offsetZ;
+            if (animation.isMoving()) {
+                x += values.x;
+                y += values.y;
+                z += values.z;
+                chunkKey = LongHashMap.key(Location.locToBlock(x) >> 4, Location.locToBlock(z) >> 4);
+            }
+            if (animation.isColoured() && params.particle.getDataType() == Particle.DustOptions.class) {
+                data = dust(values);
+            }
+            // An animated count of zero means no particles, unlike a configured count of zero
+            if (count == 0 && animation.getSource(Animation.COUNT) != null) {
+                return 0;
+            }
+        }
+        // A particle loaded without the data it needs would throw on every spawn
+        if (data == null && params.particle.getDataType() != Void.class) {
+            return -1;
+        }
+
+        // Skip the emission entirely when nobody is close enough to see it
+        if (!viewers.hasViewerWithin(world, x, y, z, params.getCullRadius())) {
+            return -1;
+        }
+        // Count zero is a single directional particle, which throttling must not turn into a spread
+        int emitted = throttleSteps > 0 && count > 0 ? Math.max(1, count >> throttleSteps) : count;
+        Shape shape = params.shape;
+        if (shape == null) {
+            target.add(world, chunkKey, params.particle, x, y, z, emitted, offsetX, offsetY, offsetZ, speed, data, params.viewRadius, params.priority, params.lod, params.interval);
+            return emitted;
+        }
+
+        // Emit every point of the current frame, thinning the points out while throttled
+        if (frame >= shape.getFrameCount()) {
+            frame = 0;
+        }
+        double[] points = shape.getFrame(frame++);
+        int step = 3 << throttleSteps;
+        int total = 0;
+        for (int i = 0; i < points.length; i += step) {
+            target.add(world, chunkKey, params.particle, x + points[i], y + points[i + 1], z + points[i + 2], emitted, offsetX, offsetY, offsetZ, speed, data, params.viewRadius, params.priority, params.lod, params.interval);
+            total += emitted;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the dust options for the frame's colour, building new ones only when the
+     * colour or size changed since the last firing.
+     */
+    private Particle.DustOptions dust(Animation.Frame values) {
+        // Size in steps of 0.02 fits in the top byte next to the 24 bit colour
+        int size = Math.round(values.size * 50);
+        int key = size << 24 | values.red << 16 | values.green << 8 | values.blue;
+        if (key != dustKey) {
+            dust = new Particle.DustOptions(Color.fromRGB(values.red, values.green, values.blue), size / 50f);
+            dustKey = key;
+        }
+        return dust;
+    }
+
+    void recordFiring(int emitted, long nanos) {
+        if (emitted < 0) {
+            skipped++;
+        } else {
+            emissions++;
+            particles += emitted;
+        }
+        costNanos += nanos;
+        if (nanos > maxCostNanos) {
+            maxCostNanos = nanos;
+        }
+    }
+
+    public long getEmissions() {
+        return emissions;
+    }
+
+    public long getParticlesEmitted() {
+        return particles;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getCostNanos() {
+        return costNanos;
+    }
+
+    public long getMaxCostNanos() {
+        return maxCostNanos;
+    }
+
+    public Location getLocation() {
+        return new Location(getWorld(), x, y, z);
+    }
+
+    public void setLocation(Location location) {
+        moveTo(location.getWorld().getName(), location.getX(), location.getY(), location.getZ());
+    }
+
+    /**
+     * Moves the generator, also into a world that is not loaded.
+     */
+    void moveTo(String worldName, double x, double y, double z) {
+        GeneratorIndex index = plugin.getGeneratorIndex();
+        WorldShard previous = shard;
+        index.remove(this);
+        setPosition(worldName, x, y, z);
+        index.add(this);
+        index.refresh(this);
+        if (previous != null && previous != shard && isAdded()) {
+            // The old world's part of the file no longer has the generator
+            plugin.getStore().markDeleted(previous, name);
+        }
+        if (params.trigger != null && isAdded()) {
+            // The trigger area moves along with the generator
+            plugin.getTriggerManager().update(this);
+        }
+    }
+
+    public String getWorldName() {
+        return worldName;
+    }
+
+    public World getWorld() {
+        WorldShard shard = this.shard;
+        return shard == null ? null : shard.getWorld();
+    }
+
+    WorldShard getShard() {
+        return shard;
+    }
+
+    void setShard(WorldShard shard) {
+        this.shard = shard;
+        this.placement = new Placement(shard, x, y, z, chunkKey);
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    long getChunkKey() {
+        return chunkKey;
+    }
+
+    private void setPosition(String worldName, double x, double y, double z) {
+        this.worldName = worldName;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.chunkKey = LongHashMap.key(Location.locToBlock(x) >> 4, Location.locToBlock(z) >> 4);
+        this.placement = new Placement(shard, x, y, z, chunkKey);
+    }
+
+    ParticleParams getParams() {
+        return params;
+    }
+
+    void setParams(ParticleParams params) {
+        ParticleParams previous = this.params;
+        this.params = params;
+        if (params.interval != previous.interval) {
+            // Move to the matching wheel bucket without restarting anything
+            plugin.getScheduler().reschedule(this);
+        }
+        if (params.trigger != previous.trigger && isAdded()) {
+            plugin.getTriggerManager().update(this);
+        }
+    }
+
+    /**
+     * Returns whether the generator is one of the plugin's generators, rather than one still
+     * being loaded or already removed.
+     */
+    private boolean isAdded() {
+        return name != null && plugin.getGenerators().get(name) == this;
+    }
+
+    /**
+     * Changes one field. On a template member the field becomes an override, so later
+     * template edits leave it alone.
+     */
+    void edit(int field, ParticleParams changed) {
+        if (template != null) {
+            overrides |= field;
+        }
+        setParams(changed);
+    }
+
+    public Template getTemplate() {
+        return template;
+    }
+
+    int getOverrides() {
+        return overrides;
+    }
+
+    /**
+     * Attaches the generator to a template, or detaches it when null. Fields in overrides
+     * keep this generator's current values; a detached generator keeps the values it has.
+     */
+    void setTemplate(Template template, int overrides) {
+        if (this.template != null) {
+            this.template.removeMember(this);
+        }
+        this.template = template;
+        this.overrides = template == null ? 0 : overrides;
+        if (template != null) {
+            template.addMember(this);
+            setParams(ParticleParams.merge(template.getParams(), params, this.overrides));
+        }
+    }
+
+    void onTemplateChanged() {
+        setParams(ParticleParams.merge(template.getParams(), params, overrides));
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    void setGroup(String group) {
+        this.group = group;
+    }
+
+    public Particle getParticle() {
+        return params.particle;
+    }
+
+    public ParticleData getData() {
+        return params.data;
+    }
+
+    public void setParticle(Particle particle, ParticleData data) {
+        edit(ParticleParams.PARTICLE, params.withParticle(particle, data));
+    }
+
+    public int getCount() {
+        return params.count;
+    }
+
+    public void setCount(int count) {
+        edit(ParticleParams.COUNT, params.withCount(count));
+    }
+
+    public int getInterval() {
+        return params.interval;
+    }
+
+    public void setInterval(int interval) {
+        edit(ParticleParams.INTERVAL, params.withInterval(interval));
+    }
+
+    public double getSpeed() {
+        return params.speed;
+    }
+
+    public void setSpeed(double speed) {
+        edit(ParticleParams.SPEED, params.withSpeed(speed));
+    }
+
+    public Vector getOffset() {
+        return new Vector(params.offsetX, params.offsetY, params.offsetZ);
+    }
+
+    public void setOffset(Vector offset) {
+        edit(ParticleParams.OFFSET, params.withOffset(offset.getX(), offset.getY(), offset.getZ()));
+    }
+
+    public int getViewRadius() {
+        return params.viewRadius;
+    }
+
+    public void setViewRadius(int viewRadius) {
+        edit(ParticleParams.VIEW_RADIUS, params.withViewRadius(viewRadius));
+    }
+
+    public Shape getShape() {
+        return params.shape;
+    }
+
+    public void setShape(Shape shape) {
+        edit(ParticleParams.SHAPE, params.withShape(shape));
+    }
+
+    public LodTiers getLod() {
+        return params.lod;
+    }
+
+    public void setLod(LodTiers lod) {
+        edit(ParticleParams.LOD, params.withLod(lod));
+    }
+
+    public Animation getAnimation() {
+        return params.animation;
+    }
+
+    public void setAnimation(Animation animation) {
+        edit(ParticleParams.ANIMATION, params.withAnimation(animation));
+    }
+
+    public Trigger getTrigger() {
+        return params.trigger;
+    }
+
+    public void setTrigger(Trigger trigger) {
+        edit(ParticleParams.TRIGGER, params.withTrigger(trigger));
+    }
+
+    public int getPriority() {
+        return params.priority;
+    }
+
+    public void setPriority(int priority) {
+        edit(ParticleParams.PRIORITY, params.withPriority(priority));
+    }
+
+    private static final class Placement {
+        // The world is read through the shard, so unloading it reaches every generator at once
+        final WorldShard shard;
+        final double x;
+        final double y;
+        final double z;
+        final long chunkKey;
+
+        Placement(WorldShard shard, double x, double y, double z, long chunkKey) {
+            this.shard = shard;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.chunkKey = chunkKey;
+        }
+    }
+}
@@ -3,602 +3,1671 @@ package net.hogbrains.particlegenerator;
 import org.bukkit.*;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitTask;
+import org.bukkit.plugin.java.JavaPluginLoader;
 import org.bukkit.util.StringUtil;
 import org.bukkit.util.Vector;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 public class ParticleGeneratorPlugin extends JavaPlugin {
 
+    // Most lines a region query prints before summarizing the rest
+    private static final int MAX_RESULT_LINES = 10;
+    // Most generators stats top lists
+    private static final int MAX_TOP = 100;
+
+    // Fixed completions, built once
+    private static final List<String> PROPERTIES = Arrays.asList("particle", "count", "interval", "speed", "offset", "viewradius", "priority", "shape", "lod", "animation", "trigger");
+    private static final List<String> REGION_ACTIONS = Arrays.asList("set", "delete", "disable", "enable");
+    private static final List<String> TEMPLATE_ACTIONS = Arrays.asList("create", "delete", "set", "apply", "detach", "list");
+    private static final List<String> GROUP_ACTIONS = Arrays.asList("add", "remove", "start", "stop", "set", "list");
+    private static final List<String> STORAGE_ACTIONS = Arrays.asList("export", "import");
+    private static final List<String> STORAGE_TYPES = Arrays.asList("yaml", "binary");
+    private static final List<String> SHAPE_TYPES = Arrays.asList("ring", "sphere", "helix", "line", "image", "none");
+    private static final List<String> TRIGGER_TYPES = Arrays.asList("proximity", "region", "redstone", "signal", "none");
+    private static final NameTrie PARTICLE_NAMES = new NameTrie(Arrays.stream(Particle.values()).map(Enum::name).collect(Collectors.toList()));
+
     private Map<String, ParticleGenerator> generators = new HashMap<>();
+    // Generator names for tab completion, kept in step with the map above
+    private final NameTrie generatorNames = new NameTrie();
+    // /particlegen subcommands by lower case name
+    private final Map<String, SubCommand> subCommands = new HashMap<>();
+    private final NameTrie subCommandNames = new NameTrie();
+    private final Messages messages = new Messages();
+    private GeneratorScheduler scheduler;
+    private PlayerTracker playerTracker;
+    private GeneratorIndex generatorIndex;
+    private TriggerManager triggerManager;
+    private GeneratorStore store;
+    private EmissionPipeline emissionPipeline;
+    private BudgetManager budgetManager;
+    private ShapeCache shapeCache;
+    private TemplateManager templateManager;
+    private GroupManager groupManager;
+    private PluginMetrics metrics;
+    private MetricsHttpServer metricsServer;
+    private GeneratorService service;
+    // Config read by the last /particlegen reload, used in place of the one JavaPlugin loaded
+    private FileConfiguration reloadedConfig;
+    // Reload waiting for its read to finish, if any
+    private GeneratorReload reload;
+
+    public ParticleGeneratorPlugin() {
+        super();
+    }
+
+    // Used by the benchmarks to run the plugin against a stub server outside of Bukkit
+    protected ParticleGeneratorPlugin(JavaPluginLoader loader, PluginDescriptionFile description, File dataFolder, File file) {
+        super(loader, description, dataFolder, file);
+    }
 
     @Override
     public void onEnable() {
 
         // Save the default config file to the plugin data folder
         saveDefaultConfig();
+        messages.load(getConfig().getConfigurationSection("messages"));
 
-        // Load the generators from the config
-        loadGenerators();
+        // Track player positions so generators without viewers can be skipped
+        playerTracker = new PlayerTracker();
+        playerTracker.trackOnlinePlayers();
+        getServer().getPluginManager().registerEvents(playerTracker, this);
 
-        // Start the generator tasks
-        for (ParticleGenerator generator : generators.values()) {
-            generator.start();
+        // Particle budgets and the throttle that reacts to server load
+        budgetManager = new BudgetManager(getConfig());
+
+        // Collect each tick's emissions and send them per viewer
+        emissionPipeline = new EmissionPipeline(playerTracker, budgetManager, new BukkitParticleSink());
+
+        // Create the shared tick driver that all generators register with
+        metrics = new PluginMetrics(getConfig().getBoolean("metrics.per-generator-timing", true));
+        scheduler = new GeneratorScheduler(this, emissionPipeline, playerTracker, budgetManager, metrics, createPlanner());
+
+        // Park generators in unloaded chunks and wake them when their chunk loads
+        generatorIndex = new GeneratorIndex(scheduler);
+        getServer().getPluginManager().registerEvents(generatorIndex, this);
+
+        // Keep triggered generators parked until a player, redstone or a signal arms them
+        triggerManager = new TriggerManager(this, playerTracker, generatorIndex);
+        getServer().getPluginManager().registerEvents(triggerManager, this);
+
+        // Shapes are computed once per spec and shared between generators
+        shapeCache = new ShapeCache(new File(getDataFolder(), "images"));
+
+        // Write generator changes back in batches from a background thread
+        store = new GeneratorStore(this, openStorage(), getConfig().getLong("storage.save-delay", 40));
+
+        // Templates have to be known before the generators that use them are loaded
+        templateManager = new TemplateManager(this);
+        templateManager.load();
+        groupManager = new GroupManager();
+
+        // Load the generators from storage
+        try {
+            loadGenerators();
+        } catch (IOException | IllegalArgumentException e) {
+            getLogger().log(Level.SEVERE, "Could not load generators from " + store.getStorage().getName() + " storage", e);
+            getServer().getPluginManager().disablePlugin(this);
+            return;
+        }
+
+        // Start ticking the generators
+        scheduler.start();
+
+        // Serve metrics to a local Prometheus scraper if enabled
+        if (getConfig().getBoolean("metrics.http.enabled", false)) {
+            int port = getConfig().getInt("metrics.http.port", 9464);
+            metricsServer = new MetricsHttpServer(this, port, getConfig().getInt("metrics.http.top-generators", 10));
+            try {
+                metricsServer.start();
+                getLogger().info("Serving metrics on http://127.0.0.1:" + port + "/metrics");
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "Could not start the metrics endpoint on port " + port, e);
+                metricsServer = null;
+            }
         }
 
         // Register the /particlegen command
+        registerCommands();
         getCommand("particlegen").setExecutor(this);
         getCommand("particlegen").setTabCompleter(this);
+
+        // Let other plugins manage generators without going through commands
+        service = new GeneratorService(this);
+        getServer().getServicesManager().register(ParticleGeneratorService.class, service, this, ServicePriority.Normal);
     }
 
     @Override
     public void onDisable() {
+        if (service != null) {
+            getServer().getServicesManager().unregisterAll(this);
+            service = null;
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
+            metricsServer = null;
+        }
+
+        // Write out any pending changes before the plugin goes away, while generators still
+        // report whether they are enabled
+        store.close();
+
         // Stop the generator tasks
         for (ParticleGenerator generator : generators.values()) {
             generator.stop();
         }
+        scheduler.stop();
+        triggerManager.clear();
+        playerTracker.clear();
+        generatorIndex.clear();
     }
 
-    private void loadGenerators() {
-        // Load the generators from the config
-        FileConfiguration config = getConfig();
-        Map<String, Object> generatorStrings = config.getConfigurationSection("generators").getValues(false);
-        for (Map.Entry<String, Object> entry : generatorStrings.entrySet()) {
-            String name = entry.getKey();
-            String generatorString = (String) entry.getValue();
+    @Override
+    public FileConfiguration getConfig() {
+        return reloadedConfig != null ? reloadedConfig : super.getConfig();
+    }
 
-            String[] parts = generatorString.split(";");
-            String worldName = parts[0];
-            double x = Double.parseDouble(parts[1]);
-            double y = Double.parseDouble(parts[2]);
-            double z = Double.parseDouble(parts[3]);
-            Particle particle = Particle.valueOf(parts[4]);
-            int count = Integer.parseInt(parts[5]);
-            int interval = Integer.parseInt(parts[6]);
-            double speed = Double.parseDouble(parts[7]);
-            double offsetX = Double.parseDouble(parts[8]);
-            double offsetY = Double.parseDouble(parts[9]);
-            double offsetZ = Double.parseDouble(parts[10]);
+    @Override
+    public void reloadConfig() {
+        reloadedConfig = null;
+        super.reloadConfig();
+    }
 
-            Location location = new Location(Bukkit.getWorld(worldName), x, y, z);
-            Vector offset = new Vector(offsetX, offsetY, offsetZ);
-            ParticleGenerator generator = new ParticleGenerator(location, particle, count, interval, speed, offset);
-            generators.put(name, generator);
+    private EmissionPlanner createPlanner() {
+        if (!getConfig().getBoolean("planning.async", true)) {
+            return null;
         }
+        int threads = getConfig().getInt("planning.threads", 0);
+        if (threads <= 0) {
+            threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        }
+        return new EmissionPlanner(threads, Math.max(1, getConfig().getLong("planning.timeout-ms", 100)));
     }
 
-    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (sender instanceof Player) {
-            Player player = (Player) sender;
+    Map<String, ParticleGenerator> getGenerators() {
+        return generators;
+    }
 
-            if (args.length < 1) {
-                // Send a message to the player if they didn't specify any arguments
-                player.sendMessage(ChatColor.GRAY + "Running ParticleGenerator v1.0 by Hemazoid :D");
-                return true;
-            }
+    /**
+     * Returns the API for other plugins, also registered with the services manager.
+     */
+    public ParticleGeneratorService getService() {
+        return service;
+    }
 
-            String subCommand = args[0];
-            if (subCommand.equalsIgnoreCase("create")) {
-                if (args.length < 8) {
-                    player.sendMessage(parseMessage("createUsage"));
-                    return true;
-                }
+    GeneratorStore getStore() {
+        return store;
+    }
 
-                String name = args[1];
-                if (generators.containsKey(name)) {
-                    // Send a message to the player if the generator name is already taken
-                    player.sendMessage(parseMessage("generatorExists"));
-                    return true;
-                }
+    PluginMetrics getMetrics() {
+        return metrics;
+    }
 
-                Particle particle = null;
-                try {
-                    particle = Particle.valueOf(args[2]);
-                } catch (IllegalArgumentException e) {
-                    // Send a message to the player if they specified an invalid particle
-                    player.sendMessage(parseMessage("invalidParticle"));
-                    return true;
-                }
+    GeneratorScheduler getScheduler() {
+        return scheduler;
+    }
 
-                int count = 0;
-                try {
-                    count = Integer.parseInt(args[3]);
-                } catch (NumberFormatException e) {
-                    // Send a message to the player if they specified an invalid count
-                    player.sendMessage(parseMessage("invalidCount"));
-                    return true;
-                }
+    PlayerTracker getPlayerTracker() {
+        return playerTracker;
+    }
 
-                int interval = 0;
-                try {
-                    interval = Integer.parseInt(args[4]);
-                } catch (NumberFormatException e) {
-                    // Send a message to the player if they specified an invalid interval
-                    player.sendMessage(ChatColor.RED + "Invalid interval specified!");
-                    return true;
-                }
+    GeneratorIndex getGeneratorIndex() {
+        return generatorIndex;
+    }
 
-                double speed = 0;
-                try {
-                    speed = Double.parseDouble(args[5]);
-                } catch (NumberFormatException e) {
-                    // Send a message to the player if they specified an invalid speed
-                    player.sendMessage(parseMessage("invalidSpeed"));
-                    return true;
-                }
+    TriggerManager getTriggerManager() {
+        return triggerManager;
+    }
 
-                double offsetX = 0;
-                double offsetY = 0;
-                double offsetZ = 0;
-                try {
-                    offsetX = Double.parseDouble(args[6]);
-                    offsetY = Double.parseDouble(args[7]);
-                    offsetZ = Double.parseDouble(args[8]);
-                } catch (NumberFormatException e) {
-                    // Send a message to the player if they specified an invalid offset
-                    player.sendMessage(parseMessage("invalidOffset"));
-                    return true;
-                }
+    EmissionPipeline getEmissionPipeline() {
+        return emissionPipeline;
+    }
 
-                Vector offset = new Vector(offsetX, offsetY, offsetZ);
+    BudgetManager getBudgetManager() {
+        return budgetManager;
+    }
+
+    ShapeCache getShapeCache() {
+        return shapeCache;
+    }
 
-                // Create a new particle generator at the player's location
-                Location location = player.getLocation();
-                ParticleGenerator generator = new ParticleGenerator(location, particle, count, interval, speed, offset);
-                generators.put(name, generator);
+    TemplateManager getTemplateManager() {
+        return templateManager;
+    }
+
+    GroupManager getGroupManager() {
+        return groupManager;
+    }
+
+    private boolean checkCount(CommandSender sender, int count) {
+        if (count < 0) {
+            sender.sendMessage(parseMessage("invalidCount"));
+            return false;
+        }
+        if (count > budgetManager.getMaxCount()) {
+            sender.sendMessage(parseMessage("countTooHigh", new String[]{"" + budgetManager.getMaxCount()}));
+            return false;
+        }
+        return true;
+    }
+
+    private boolean checkInterval(CommandSender sender, int interval) {
+        if (interval < budgetManager.getMinInterval()) {
+            sender.sendMessage(parseMessage("intervalTooLow", new String[]{"" + budgetManager.getMinInterval()}));
+            return false;
+        }
+        if (interval > budgetManager.getMaxInterval()) {
+            sender.sendMessage(parseMessage("intervalTooHigh", new String[]{"" + budgetManager.getMaxInterval()}));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses one argument. Sends the error message and returns null if it is invalid.
+     */
+    private <T> T parse(CommandSender sender, Arguments.Parser<T> parser, String input, String errorMessage) {
+        T value = parser.parse(input);
+        if (value == null) {
+            sender.sendMessage(parseMessage(errorMessage));
+        }
+        return value;
+    }
+
+    /**
+     * Parses the three numbers starting at the given argument. Sends the error message and
+     * returns null if any is invalid.
+     */
+    private Vector parseVector(CommandSender sender, String[] args, int start, String errorMessage) {
+        Double x = Arguments.parseDouble(args[start]);
+        Double y = Arguments.parseDouble(args[start + 1]);
+        Double z = Arguments.parseDouble(args[start + 2]);
+        if (x == null || y == null || z == null) {
+            sender.sendMessage(parseMessage(errorMessage));
+            return null;
+        }
+        return new Vector(x, y, z);
+    }
+
+    /**
+     * Parses the data for a particle from the arguments starting at the given one. Sends the
+     * error and returns null if the data is missing or invalid.
+     */
+    private ParticleData parseData(CommandSender sender, Particle particle, String[] args, int start) {
+        String spec = args.length > start ? String.join("", Arrays.copyOfRange(args, start, args.length)) : null;
+        try {
+            return ParticleData.parse(particle, spec);
+        } catch (IllegalArgumentException e) {
+            sender.sendMessage(parseMessage("invalidData", new String[]{e.getMessage()}));
+            return null;
+        }
+    }
+
+    private ParticleGenerator findGenerator(CommandSender sender, String name) {
+        ParticleGenerator generator = generators.get(name);
+        if (generator == null) {
+            sender.sendMessage(parseMessage("generatorDoesNotExist"));
+        }
+        return generator;
+    }
+
+    int getDefaultViewRadius() {
+        return getConfig().getInt("settings.view-radius", 48);
+    }
+
+    private GeneratorStorage openStorage() {
+        if (!getConfig().getString("storage.type", "yaml").equalsIgnoreCase("binary")) {
+            return new YamlGeneratorStorage(this);
+        }
+        BinaryGeneratorStorage binary = new BinaryGeneratorStorage(new File(getDataFolder(), "generators.dat"));
+        if (!binary.exists()) {
+            // One-shot migration of the generators kept in config.yml
+            try {
+                Map<String, GeneratorRecord> records = new YamlGeneratorStorage(this).load();
+                binary.save(records.values());
+                getLogger().info("Migrated " + records.size() + " generators from config.yml to generators.dat");
+            } catch (IOException | IllegalArgumentException e) {
+                // Saving through the binary store now would write an empty file over the
+                // generators still in config.yml, so keep using config.yml until this is fixed
+                getLogger().log(Level.SEVERE, "Could not migrate generators to generators.dat, staying on config.yml storage", e);
+                return new YamlGeneratorStorage(this);
+            }
+        }
+        return binary;
+    }
+
+    private GeneratorStorage getStorage(String type) {
+        if (type.equalsIgnoreCase("yaml")) {
+            return new YamlGeneratorStorage(this);
+        } else if (type.equalsIgnoreCase("binary")) {
+            return new BinaryGeneratorStorage(new File(getDataFolder(), "generators.dat"));
+        }
+        return null;
+    }
+
+    private void loadGenerators() throws IOException {
+        // Load the generators from the configured storage backend
+        for (GeneratorRecord record : store.load().values()) {
+            loadGenerator(record, record.toParams(this));
+        }
+    }
+
+    private void loadGenerator(GeneratorRecord record, ParticleParams params) {
+        ParticleGenerator generator = record.toGenerator(this, params);
+        addGenerator(record.getName(), generator);
+        if (record.isEnabled()) {
+            generator.start();
+        }
+        store.setRecord(record.getName(), record);
+    }
+
+    void addGenerator(String name, ParticleGenerator generator) {
+        generator.setName(name);
+        generators.put(name, generator);
+        generatorNames.add(name);
+        generatorIndex.add(generator);
+        if (generator.getTrigger() != null) {
+            triggerManager.update(generator);
+        }
+        if (generator.getGroup() != null) {
+            groupManager.add(generator.getGroup(), generator);
+        }
+    }
+
+    /**
+     * Applies new values to a live generator in place, so handles to it stay valid. The
+     * params replace the generator's as a whole before it joins the template again.
+     */
+    void updateGenerator(ParticleGenerator generator, String worldName, double x, double y, double z, ParticleParams params, Template template, int overrides, String group, boolean enabled) {
+        if (!worldName.equals(generator.getWorldName()) || x != generator.getX() || y != generator.getY() || z != generator.getZ()) {
+            generator.moveTo(worldName, x, y, z);
+        }
+        generator.setTemplate(null, 0);
+        generator.setParams(params);
+        if (template != null) {
+            generator.setTemplate(template, overrides);
+        }
+        if (generator.getGroup() == null ? group != null : !generator.getGroup().equals(group)) {
+            if (generator.getGroup() != null) {
+                groupManager.remove(generator.getGroup(), generator);
+            }
+            generator.setGroup(group);
+            if (group != null) {
+                groupManager.add(group, generator);
+            }
+        }
+        if (enabled) {
+            generator.start();
+        } else {
+            generator.stop();
+        }
+    }
+
+    ParticleGenerator removeGenerator(String name) {
+        ParticleGenerator generator = detachGenerator(name);
+        if (generator != null) {
+            // Remove the generator from the config
+            store.markDeleted(generator.getShard(), name);
+        }
+        return generator;
+    }
+
+    /**
+     * Takes a generator out of the running set without touching storage.
+     */
+    private ParticleGenerator detachGenerator(String name) {
+        ParticleGenerator generator = generators.remove(name);
+        if (generator == null) {
+            return null;
+        }
+        generatorNames.remove(name);
+
+        // Stop the generator and drop it from the chunk index, its template and its group
+        generator.stop();
+        generatorIndex.remove(generator);
+        triggerManager.remove(generator);
+        if (generator.getTemplate() != null) {
+            generator.getTemplate().removeMember(generator);
+        }
+        if (generator.getGroup() != null) {
+            groupManager.remove(generator.getGroup(), generator);
+        }
+        return generator;
+    }
+
+    /**
+     * Replaces every live generator with the records, using params parsed from them up
+     * front by {@link GeneratorRecord#toParams}.
+     */
+    private void replaceGenerators(Map<String, GeneratorRecord> records, List<ParticleParams> params) {
+        // Drop every live generator, then load and persist the replacement set
+        for (String name : new ArrayList<>(generators.keySet())) {
+            removeGenerator(name);
+        }
+        int i = 0;
+        for (GeneratorRecord record : records.values()) {
+            ParticleGenerator generator = record.toGenerator(this, params.get(i++));
+            addGenerator(record.getName(), generator);
+            if (record.isEnabled()) {
                 generator.start();
+            }
+            saveGenerator(record.getName(), generator);
+        }
+    }
 
-                // Save the generator to the config
-                saveGenerator(name, generator);
+    /**
+     * Builds the dispatch table of /particlegen subcommands. Called once on enable.
+     */
+    private void registerCommands() {
+        registerCommand(new SubCommand("create", true, this::onCreateCommand, this::completeCreate));
+        registerCommand(new SubCommand("edit", false, this::onEditCommand, this::completeEdit));
+        registerCommand(new SubCommand("delete", false, this::onDeleteCommand, this::completeGeneratorName));
+        registerCommand(new SubCommand("list", false, this::onListCommand, this::completeList));
+        registerCommand(new SubCommand("set", false, this::onSetCommand, this::completeSet));
+        registerCommand(new SubCommand("move", false, this::onMoveCommand, this::completeMove));
+        registerCommand(new SubCommand("near", true, this::onNearCommand, null));
+        registerCommand(new SubCommand("within", false, this::onWithinCommand, this::completeWithin));
+        registerCommand(new SubCommand("region", true, this::onRegionCommand, this::completeRegion));
+        registerCommand(new SubCommand("template", false, this::onTemplateCommand, this::completeTemplate));
+        registerCommand(new SubCommand("group", false, this::onGroupCommand, this::completeGroup));
+        registerCommand(new SubCommand("stats", false, this::onStatsCommand, this::completeStats));
+        registerCommand(new SubCommand("storage", false, this::onStorageCommand, this::completeStorage));
+        registerCommand(new SubCommand("signal", false, this::onSignalCommand, this::completeSignal));
+        registerCommand(new SubCommand("reload", false, this::onReloadCommand, null));
+    }
 
-                // Send a message to the player
-                player.sendMessage(parseMessage("generatorCreated"));
-            } else if (subCommand.equalsIgnoreCase("edit")) {
-                if (args.length < 2) {
-                    player.sendMessage(parseMessage("editUsage"));
-                    return true;
-                }
+    private void registerCommand(SubCommand subCommand) {
+        subCommands.put(subCommand.name, subCommand);
+        subCommandNames.add(subCommand.name);
+    }
 
-                String name = args[1];
-                ParticleGenerator generator = generators.get(name);
-                if (generator == null) {
-                    // Send a message to the player if the generator doesn't exist
-                    player.sendMessage(parseMessage("generatorDoesNotExist"));
-                    return true;
-                }
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (args.length < 1) {
+            // Send a message to the sender if they didn't specify any arguments
+            sender.sendMessage(ChatColor.GRAY + "Running ParticleGenerator v1.0 by Hemazoid :D");
+            return true;
+        }
 
-                boolean changed = false;
-                if (args.length >= 3) {
-                    Particle particle = null;
-                    try {
-                        particle = Particle.valueOf(args[2]);
-                    } catch (IllegalArgumentException e) {
-                        // Send a message to the player if they specified an invalid particle
-                        player.sendMessage(parseMessage("invalidParticle"));
-                        return true;
-                    }
-                    generator.setParticle(particle);
-                    changed = true;
-                }
-                if (args.length >= 4) {
-                    int count = 0;
-
-                    try {
-                        count = Integer.parseInt(args[3]);
-                    } catch (NumberFormatException e) {
-                        // Send a message to the player if they specified an invalid count
-                        player.sendMessage(parseMessage("invalidCount"));
-                        return true;
-                    }
-                    generator.setCount(count);
-                    changed = true;
-                }
-                if (args.length >= 5) {
-                    int interval = 0;
-                    try {
-                        interval = Integer.parseInt(args[4]);
-                    } catch (NumberFormatException e) {
-                        // Send a message to the player if they specified an invalid interval
-                        player.sendMessage(parseMessage("invalidInterval"));
-                        return true;
-                    }
-                    generator.setInterval(interval);
-                    changed = true;
-                }
-                if (args.length >= 6) {
-                    double speed = 0;
-                    try {
-                        speed = Double.parseDouble(args[5]);
-                    } catch (NumberFormatException e) {
-                        // Send a message to the player if they specified an invalid speed
-                        player.sendMessage(parseMessage("invalidSpeed"));
-                        return true;
-                    }
-                    generator.setSpeed(speed);
-                    changed = true;
-                }
+        SubCommand subCommand = subCommands.get(args[0].toLowerCase(Locale.ROOT));
+        if (subCommand == null) {
+            // Send a message to the sender if they specified an invalid subcommand
+            sender.sendMessage(parseMessage("invalidCommand"));
+        } else if (subCommand.playerOnly && !(sender instanceof Player)) {
+            // Commands that work from the sender's location need a player
+            sender.sendMessage(parseMessage("noConsole"));
+        } else {
+            subCommand.handler.run(sender, args);
+        }
+        return true;
+    }
 
-                if (args.length >= 7) {
-                    double offsetX = 0;
-                    double offsetY = 0;
-                    double offsetZ = 0;
-                    try {
-                        offsetX = Double.parseDouble(args[6]);
-                        offsetY = Double.parseDouble(args[7]);
-                        offsetZ = Double.parseDouble(args[8]);
-                    } catch (NumberFormatException e) {
-                        // Send a message to the player if they specified an invalid offset
-                        player.sendMessage(parseMessage("invalidOffset"));
-                        return true;
-                    }
-                    Vector offset = new Vector(offsetX, offsetY, offsetZ);
-                    generator.setOffset(offset);
-                    changed = true;
-                }
+    private void onCreateCommand(CommandSender sender, String[] args) {
+        if (args.length < 9) {
+            sender.sendMessage(parseMessage("createUsage"));
+            return;
+        }
 
+        String name = args[1];
+        if (generators.containsKey(name)) {
+            // Send a message to the player if the generator name is already taken
+            sender.sendMessage(parseMessage("generatorExists"));
+            return;
+        }
+        if (!Arguments.isName(name)) {
+            sender.sendMessage(parseMessage("invalidName"));
+            return;
+        }
 
-                if (changed) {
-                    generator.stop();
-                    // Save the generator to the config
-                    saveGenerator(name, generator);
+        Particle particle = parse(sender, Arguments.PARTICLE, args[2], "invalidParticle");
+        if (particle == null) {
+            return;
+        }
+        Integer count = parse(sender, Arguments.INTEGER, args[3], "invalidCount");
+        if (count == null || !checkCount(sender, count)) {
+            return;
+        }
+        Integer interval = parse(sender, Arguments.INTEGER, args[4], "invalidInterval");
+        if (interval == null || !checkInterval(sender, interval)) {
+            return;
+        }
+        Double speed = parse(sender, Arguments.NUMBER, args[5], "invalidSpeed");
+        if (speed == null) {
+            return;
+        }
+        Vector offset = parseVector(sender, args, 6, "invalidOffset");
+        if (offset == null) {
+            return;
+        }
+        ParticleData data = parseData(sender, particle, args, 9);
+        if (data == null) {
+            return;
+        }
 
-                    generator.start();
+        // Create a new particle generator at the player's location
+        Location location = ((Player) sender).getLocation();
+        ParticleGenerator generator = new ParticleGenerator(this, location.getWorld().getName(), location.getX(), location.getY(), location.getZ(), particle, count, interval, speed, offset, getDefaultViewRadius());
+        generator.setParticle(particle, data);
+        addGenerator(name, generator);
+        generator.start();
 
-                    // Send a message to the player
-                    player.sendMessage(parseMessage("generatorEdited"));
-                } else {
-                    // Send a message to the player if they didn't specify any changes
-                    player.sendMessage(parseMessage("noChanges"));
-                }
-            } else if (subCommand.equalsIgnoreCase("delete")) {
-                if (args.length < 2) {
-                    // Send a message to the player if they didn't specify enough arguments
-                    player.sendMessage(parseMessage("deleteUsage"));
-                    return true;
-                }
+        // Save the generator to the config
+        saveGenerator(name, generator);
 
-                String name = args[1];
-                ParticleGenerator generator = generators.remove(name);
-                if (generator == null) {
-                    // Send a message to the player if the generator doesn't exist
-                    player.sendMessage(parseMessage("generatorDoesNotExist"));
-                    return true;
-                }
+        // Send a message to the player
+        sender.sendMessage(parseMessage("generatorCreated"));
+    }
+
+    private void onEditCommand(CommandSender sender, String[] args) {
+        if (args.length < 2 || (args.length > 6 && args.length < 9)) {
+            sender.sendMessage(parseMessage("editUsage"));
+            return;
+        }
 
-                // Stop the generator task
+        String name = args[1];
+        ParticleGenerator generator = findGenerator(sender, name);
+        if (generator == null) {
+            return;
+        }
+
+        // Validate every given value before changing anything
+        Particle particle = null;
+        ParticleData data = null;
+        Integer count = null;
+        Integer interval = null;
+        Double speed = null;
+        Vector offset = null;
+        if (args.length >= 3 && (particle = parse(sender, Arguments.PARTICLE, args[2], "invalidParticle")) == null) {
+            return;
+        }
+        if (particle != null) {
+            // Without new data the current data is kept if it fits the particle
+            if (args.length < 10 && particle.getDataType() == generator.getParticle().getDataType()) {
+                data = generator.getData();
+            } else if ((data = parseData(sender, particle, args, 9)) == null) {
+                return;
+            }
+        }
+        if (args.length >= 4 && ((count = parse(sender, Arguments.INTEGER, args[3], "invalidCount")) == null || !checkCount(sender, count))) {
+            return;
+        }
+        if (args.length >= 5 && ((interval = parse(sender, Arguments.INTEGER, args[4], "invalidInterval")) == null || !checkInterval(sender, interval))) {
+            return;
+        }
+        if (args.length >= 6 && (speed = parse(sender, Arguments.NUMBER, args[5], "invalidSpeed")) == null) {
+            return;
+        }
+        if (args.length >= 9 && (offset = parseVector(sender, args, 6, "invalidOffset")) == null) {
+            return;
+        }
+
+        if (particle != null) {
+            generator.setParticle(particle, data);
+        }
+        if (count != null) {
+            generator.setCount(count);
+        }
+        if (interval != null) {
+            generator.setInterval(interval);
+        }
+        if (speed != null) {
+            generator.setSpeed(speed);
+        }
+        if (offset != null) {
+            generator.setOffset(offset);
+        }
+
+        if (args.length >= 3) {
+            // Save the generator to the config
+            saveGenerator(name, generator);
+
+            // Send a message to the player
+            sender.sendMessage(parseMessage("generatorEdited"));
+        } else {
+            // Send a message to the player if they didn't specify any changes
+            sender.sendMessage(parseMessage("noChanges"));
+        }
+    }
+
+    private void onDeleteCommand(CommandSender sender, String[] args) {
+        if (args.length < 2) {
+            // Send a message to the player if they didn't specify enough arguments
+            sender.sendMessage(parseMessage("deleteUsage"));
+            return;
+        }
+
+        String name = args[1];
+        if (removeGenerator(name) == null) {
+            // Send a message to the player if the generator doesn't exist
+            sender.sendMessage(parseMessage("generatorDoesNotExist"));
+            return;
+        }
+
+        // Send a message to the player
+        sender.sendMessage(parseMessage("generatorDeleted"));
+    }
+
+    private void onListCommand(CommandSender sender, String[] args) {
+        int page = 1;
+        if (args.length > 1) {
+            Integer parsed = parse(sender, Arguments.INTEGER, args[1], "invalidPage");
+            if (parsed == null) {
+                return;
+            }
+            page = parsed;
+        }
+        Collection<WorldShard> shards = generatorIndex.getShards();
+        if (args.length > 2) {
+            // Only list the generators of one world
+            WorldShard shard = findShard(args[2]);
+            if (shard == null) {
+                sender.sendMessage(parseMessage("worldNotFound", new String[]{args[2]}));
+                return;
+            }
+            shards = Collections.singletonList(shard);
+        }
+        int total = 0;
+        for (WorldShard shard : shards) {
+            total += shard.size();
+        }
+        int pageSize = 5;
+        int totalPages = (int) Math.ceil((double) total / pageSize);
+        if (page < 1 || page > totalPages) {
+            sender.sendMessage(parseMessage("invalidPage"));
+            return;
+        }
+        sender.sendMessage(parseMessage("paginTitle", new String[]{"" + page, "" + totalPages}));
+        // Skip whole shards until the one the page starts in
+        int skip = (page - 1) * pageSize;
+        int remaining = pageSize;
+        for (WorldShard shard : shards) {
+            if (skip >= shard.size()) {
+                skip -= shard.size();
+                continue;
+            }
+            int endIndex = Math.min(skip + remaining, shard.size());
+            for (int i = skip; i < endIndex; i++) {
+                ParticleGenerator generator = shard.get(i);
+                String name = generator.getName();
+                sender.sendMessage(parseMessage("paginItem", new String[]{name, String.valueOf(generator.getParticle()), generator.getWorldName(), "" + generator.getX(), "" + generator.getY(), "" + generator.getZ(), "" + generator.getCount(), "" + generator.getInterval(), "" + generator.getSpeed(), "" + generator.getOffset().getX(), "" + generator.getOffset().getY(), "" + generator.getOffset().getZ()}, false));
+            }
+            remaining -= endIndex - skip;
+            skip = 0;
+            if (remaining == 0) {
+                break;
+            }
+        }
+    }
+
+    private WorldShard findShard(String worldName) {
+        for (WorldShard shard : generatorIndex.getShards()) {
+            if (shard.worldName.equalsIgnoreCase(worldName)) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    private void onMoveCommand(CommandSender sender, String[] args) {
+        if (args.length < 2) {
+            sender.sendMessage(parseMessage("moveUsage"));
+            return;
+        }
+        String name = args[1];
+        ParticleGenerator generator = findGenerator(sender, name);
+        if (generator == null) {
+            return;
+        }
+        Location location;
+        if (args.length < 6) {
+            if (!(sender instanceof Player)) {
+                sender.sendMessage(parseMessage("moveFromConsole"));
+                return;
+            }
+            location = ((Player) sender).getLocation();
+        } else {
+            String worldName = args[2];
+            World world = Bukkit.getWorld(worldName);
+            if (world == null) {
+                sender.sendMessage(parseMessage("worldNotFound", new String[]{worldName}));
+                return;
+            }
+            Vector position = parseVector(sender, args, 3, "invalidCoords");
+            if (position == null) {
+                return;
+            }
+            location = new Location(world, position.getX(), position.getY(), position.getZ());
+        }
+        generator.setLocation(location);
+        sender.sendMessage(parseMessage("generatorMoved", new String[]{"" + location.getX(), "" + location.getY(), "" + location.getZ(), location.getWorld().getName()}));
+        saveGenerator(name, generator);
+    }
+
+    private void onSetCommand(CommandSender sender, String[] args) {
+        if (args.length < 3) {
+            sender.sendMessage(parseMessage("setUsage"));
+            return;
+        }
+        String name = args[1];
+        ParticleGenerator generator = findGenerator(sender, name);
+        if (generator == null) {
+            return;
+        }
+        PropertyEdit edit = parseEdit(sender, name, args[2], Arrays.copyOfRange(args, 3, args.length));
+        if (edit == null) {
+            return;
+        }
+        edit.applyTo(generator);
+        if (edit.property.equals("offset")) {
+            sender.sendMessage(parseMessage("setOffsetFeedback", new String[]{name, edit.values[0], edit.values[1], edit.values[2]}));
+        } else {
+            sender.sendMessage(parseMessage("setPropertyFeedback", new String[]{name, edit.property, edit.values[0]}));
+        }
+        saveGenerator(name, generator);
+    }
+
+    private void onNearCommand(CommandSender sender, String[] args) {
+        double radius = 16;
+        if (args.length > 1) {
+            Double parsed = parse(sender, Arguments.NUMBER, args[1], "invalidRadius");
+            if (parsed == null) {
+                return;
+            }
+            radius = parsed;
+            if (!(radius > 0)) {
+                sender.sendMessage(parseMessage("invalidRadius"));
+                return;
+            }
+        }
+        Location location = ((Player) sender).getLocation();
+        List<ParticleGenerator> found = generatorIndex.near(location.getWorld().getName(), location.getX(), location.getY(), location.getZ(), radius);
+        sender.sendMessage(parseMessage("nearTitle", new String[]{"" + found.size(), formatBlocks(radius)}));
+        int shown = Math.min(found.size(), MAX_RESULT_LINES);
+        for (int i = 0; i < shown; i++) {
+            ParticleGenerator generator = found.get(i);
+            double distance = Math.sqrt(GeneratorIndex.distanceSquared(generator, location.getX(), location.getY(), location.getZ()));
+            sender.sendMessage(parseMessage("nearItem", new String[]{generator.getName(), "" + generator.getParticle(), formatBlocks(distance)}, false));
+        }
+        if (found.size() > shown) {
+            sender.sendMessage(parseMessage("moreResults", new String[]{"" + (found.size() - shown)}, false));
+        }
+    }
+
+    private void onWithinCommand(CommandSender sender, String[] args) {
+        if (args.length < 7) {
+            sender.sendMessage(parseMessage("withinUsage"));
+            return;
+        }
+        double[] box = parseBox(sender, args);
+        if (box == null) {
+            return;
+        }
+        String worldName;
+        if (args.length > 7) {
+            worldName = args[7];
+            if (Bukkit.getWorld(worldName) == null) {
+                sender.sendMessage(parseMessage("worldNotFound", new String[]{worldName}));
+                return;
+            }
+        } else if (sender instanceof Player) {
+            worldName = ((Player) sender).getWorld().getName();
+        } else {
+            sender.sendMessage(parseMessage("withinFromConsole"));
+            return;
+        }
+        List<ParticleGenerator> found = generatorIndex.within(worldName, box[0], box[1], box[2], box[3], box[4], box[5]);
+        sender.sendMessage(parseMessage("withinTitle", new String[]{"" + found.size(), worldName}));
+        int shown = Math.min(found.size(), MAX_RESULT_LINES);
+        for (int i = 0; i < shown; i++) {
+            ParticleGenerator generator = found.get(i);
+            sender.sendMessage(parseMessage("withinItem", new String[]{generator.getName(), "" + generator.getParticle(), "" + generator.getX(), "" + generator.getY(), "" + generator.getZ()}, false));
+        }
+        if (found.size() > shown) {
+            sender.sendMessage(parseMessage("moreResults", new String[]{"" + (found.size() - shown)}, false));
+        }
+    }
+
+    private void onRegionCommand(CommandSender sender, String[] args) {
+        if (args.length < 8) {
+            sender.sendMessage(parseMessage("regionUsage"));
+            return;
+        }
+        double[] box = parseBox(sender, args);
+        if (box == null) {
+            return;
+        }
+        String action = args[7];
+        PropertyEdit edit = null;
+        if (action.equalsIgnoreCase("set")) {
+            if (args.length < 9) {
+                sender.sendMessage(parseMessage("regionUsage"));
+                return;
+            }
+            edit = parseEdit(sender, "<generator>", args[8], Arrays.copyOfRange(args, 9, args.length));
+            if (edit == null) {
+                return;
+            }
+        } else if (!action.equalsIgnoreCase("delete") && !action.equalsIgnoreCase("disable") && !action.equalsIgnoreCase("enable")) {
+            sender.sendMessage(parseMessage("regionUsage"));
+            return;
+        }
+
+        List<ParticleGenerator> found = generatorIndex.within(((Player) sender).getWorld().getName(), box[0], box[1], box[2], box[3], box[4], box[5]);
+        for (ParticleGenerator generator : found) {
+            if (action.equalsIgnoreCase("delete")) {
+                removeGenerator(generator.getName());
+                continue;
+            } else if (action.equalsIgnoreCase("disable")) {
                 generator.stop();
+            } else if (action.equalsIgnoreCase("enable")) {
+                generator.start();
+            } else {
+                edit.applyTo(generator);
+            }
+            saveGenerator(generator.getName(), generator);
+        }
+        if (edit != null) {
+            sender.sendMessage(parseMessage("regionSet", new String[]{edit.property, String.join(",", edit.values), "" + found.size()}));
+        } else {
+            sender.sendMessage(parseMessage("region" + Character.toUpperCase(action.charAt(0)) + action.substring(1).toLowerCase(Locale.ROOT), new String[]{"" + found.size()}));
+        }
+    }
 
-                // Remove the generator from the config
-                FileConfiguration config = getConfig();
-                config.set("generators." + name, null);
-                saveConfig();
-
-                // Send a message to the player
-                player.sendMessage(parseMessage("generatorDeleted"));
-            } else if (args[0].equalsIgnoreCase("list")) {
-                int page = 1;
-                if (args.length > 1) {
-                    try {
-                        page = Integer.parseInt(args[1]);
-                    } catch (NumberFormatException e) {
-                        sender.sendMessage(parseMessage("invalidPage"));
-                        return true;
-                    }
+    private void onStatsCommand(CommandSender sender, String[] args) {
+        if (args.length > 1 && args[1].equalsIgnoreCase("top")) {
+            int limit = 10;
+            if (args.length > 2) {
+                Integer parsed = parse(sender, Arguments.INTEGER, args[2], "invalidNumber");
+                if (parsed == null) {
+                    return;
                 }
-                int pageSize = 5;
-                int totalPages = (int) Math.ceil((double) generators.size() / pageSize);
-                if (page < 1 || page > totalPages) {
-                    sender.sendMessage(parseMessage("invalidPage"));
-                    return true;
+                if (parsed < 1) {
+                    sender.sendMessage(parseMessage("invalidNumber"));
+                    return;
                 }
-                sender.sendMessage(parseMessage("paginTitle", new String[]{"" + page, "" + totalPages}));
-                int startIndex = (page - 1) * pageSize;
-                int endIndex = Math.min(startIndex + pageSize, generators.size());
-                List<Map.Entry<String, ParticleGenerator>> generatorList = new ArrayList<>(generators.entrySet());
-                for (int i = startIndex; i < endIndex; i++) {
-                    Map.Entry<String, ParticleGenerator> entry = generatorList.get(i);
-                    String name = entry.getKey();
-                    ParticleGenerator generator = entry.getValue();
-                    Location location = generator.getLocation();
-                    sender.sendMessage(parseMessage("paginItem", new String[]{name, String.valueOf(generator.getParticle()), location.getWorld().getName(), "" + location.getX(), "" + location.getY(), "" + location.getZ(), "" + generator.getCount(), "" + generator.getInterval(), "" + generator.getSpeed(), "" + generator.getOffset().getX(), "" + generator.getOffset().getY(), "" + generator.getOffset().getZ()}, false));
-                }
-                return true;
-            } else if (args[0].equalsIgnoreCase("move")) {
-                if (args.length < 2) {
-                    sender.sendMessage(parseMessage("moveUsage"));
-                    return true;
+                limit = Math.min(parsed, MAX_TOP);
+            }
+            sender.sendMessage(parseMessage("statsTopTitle", new String[]{"" + limit}));
+            int rank = 1;
+            for (Map.Entry<String, ParticleGenerator> entry : PluginMetrics.top(generators, limit)) {
+                ParticleGenerator generator = entry.getValue();
+                sender.sendMessage(parseMessage("statsTopItem", new String[]{"" + rank++, entry.getKey(), formatMillis(generator.getCostNanos()), "" + generator.getEmissions(), "" + generator.getParticlesEmitted()}, false));
+            }
+            return;
+        } else if (args.length > 1 && args[1].equalsIgnoreCase("worlds")) {
+            for (WorldShard shard : generatorIndex.getShards()) {
+                String state = shard.isLoaded() ? "loaded" : "unloaded";
+                sender.sendMessage(parseMessage("statsWorld", new String[]{shard.worldName, state, "" + shard.size(), "" + shard.wheel.getRegisteredCount(), "" + shard.emissions, "" + shard.particles, "" + shard.dirty.size()}, false));
+            }
+            return;
+        } else if (args.length > 1) {
+            String name = args[1];
+            ParticleGenerator generator = findGenerator(sender, name);
+            if (generator == null) {
+                return;
+            }
+            long firings = generator.getEmissions() + generator.getSkipped();
+            long average = firings == 0 ? 0 : generator.getCostNanos() / firings;
+            sender.sendMessage(parseMessage("statsGenerator", new String[]{name, "" + generator.getEmissions(), "" + generator.getParticlesEmitted(), "" + generator.getSkipped(), formatMillis(generator.getCostNanos()), formatMicros(average), formatMicros(generator.getMaxCostNanos())}));
+            return;
+        }
+        LatencyHistogram tick = metrics.tickNanos;
+        sender.sendMessage(parseMessage("statsTick", new String[]{formatMillis(tick.getPercentile(50)), formatMillis(tick.getPercentile(99)), formatMillis(tick.getMax()), formatMillis(metrics.dispatchNanos.getPercentile(99)), "" + metrics.packets, "" + metrics.skipped}));
+        sender.sendMessage(parseMessage("statsEmissions", new String[]{"" + scheduler.getRegisteredCount(), "" + generators.size(), "" + emissionPipeline.getLastEmissions(), "" + emissionPipeline.getLastPackets()}));
+        EmissionPlanner planner = scheduler.getPlanner();
+        String planning = planner == null ? "main thread" : planner.getThreads() + " workers";
+        sender.sendMessage(parseMessage("statsPlanning", new String[]{planning, formatMillis(metrics.planNanos.getPercentile(99)), "" + metrics.latePlans}));
+        sender.sendMessage(parseMessage("statsBudget", new String[]{"" + budgetManager.getLevel(), formatMillis((long) (budgetManager.getMspt() * 1_000_000)), "" + emissionPipeline.getLastThrottled()}));
+        sender.sendMessage(parseMessage("statsTriggers", new String[]{"" + triggerManager.getTriggeredCount(), "" + triggerManager.getArmedCount(), "" + triggerManager.getSignals().size()}));
+        sender.sendMessage(parseMessage("statsStorage", new String[]{"" + store.getDirtyCount(), "" + store.getQueuedWrites(), formatMillis(store.getLastSaveNanos()), formatMillis(store.getAverageSaveNanos()), "" + store.getSaveCount(), store.getStorage().getName()}));
+    }
+
+    private void onStorageCommand(CommandSender sender, String[] args) {
+        if (args.length < 3) {
+            sender.sendMessage(parseMessage("storageUsage"));
+            return;
+        }
+        GeneratorStorage target = getStorage(args[2]);
+        if (target == null) {
+            sender.sendMessage(parseMessage("invalidStorage", new String[]{args[2]}));
+            return;
+        }
+        if (args[1].equalsIgnoreCase("export")) {
+            int exported = store.exportTo(target);
+            sender.sendMessage(parseMessage("storageExported", new String[]{"" + exported, target.getName()}));
+        } else if (args[1].equalsIgnoreCase("import")) {
+            Map<String, GeneratorRecord> records;
+            List<ParticleParams> params = new ArrayList<>();
+            try {
+                if (target instanceof YamlGeneratorStorage) {
+                    // Pick up the file as it is on disk now
+                    store.flush();
+                    reloadConfig();
                 }
-                String name = args[1];
-                ParticleGenerator generator = generators.get(name);
-                if (generator == null) {
-                    sender.sendMessage(parseMessage("generatorDoesNotExist"));
-                    return true;
+                records = target.load();
+                // Parse the whole set before dropping anything, so a failure leaves the live
+                // generators and their storage alone
+                for (GeneratorRecord record : records.values()) {
+                    params.add(record.toParams(this));
                 }
-                Location location;
-                if (args.length < 6) {
-                    if (!(sender instanceof Player)) {
-                        sender.sendMessage(parseMessage("moveFromConsole"));
-                        return true;
-                    }
-                    location = ((Player) sender).getLocation();
+            } catch (IOException | RuntimeException e) {
+                getLogger().log(Level.WARNING, "Could not import generators from " + target.getName() + " storage", e);
+                sender.sendMessage(parseMessage("storageLoadFailed", new String[]{target.getName()}));
+                return;
+            }
+            replaceGenerators(records, params);
+            sender.sendMessage(parseMessage("storageImported", new String[]{"" + records.size(), target.getName()}));
+        } else {
+            sender.sendMessage(parseMessage("storageUsage"));
+        }
+    }
+
+    private void onSignalCommand(CommandSender sender, String[] args) {
+        if (args.length < 2) {
+            sender.sendMessage(parseMessage("signalUsage"));
+            return;
+        }
+        int armed = triggerManager.fire(args[1]);
+        sender.sendMessage(parseMessage("signalFired", new String[]{args[1].toLowerCase(Locale.ROOT), "" + armed}));
+    }
+
+    private void onReloadCommand(CommandSender sender, String[] args) {
+        if (reload != null) {
+            sender.sendMessage(parseMessage("reloadInProgress"));
+            return;
+        }
+
+        // Write out pending changes first, so only edits made on disk show up in the diff
+        store.flush();
+        GeneratorReload started = new GeneratorReload(store.snapshotRecords());
+        reload = started;
+        File configFile = new File(getDataFolder(), "config.yml");
+        Configuration defaults = getConfig().getDefaults();
+        GeneratorStorage storage = store.getStorage();
+        store.read(() -> started.run(configFile, defaults, storage)).whenComplete((done, error) -> {
+            if (isEnabled()) {
+                getServer().getScheduler().runTask(this, () -> finishReload(sender, started, error));
+            }
+        });
+    }
+
+    /**
+     * Applies a reload that has been read and diffed. Unchanged generators are not touched.
+     */
+    private void finishReload(CommandSender sender, GeneratorReload reload, Throwable error) {
+        this.reload = null;
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            getLogger().log(Level.WARNING, "Could not reload config.yml", cause);
+            sender.sendMessage(parseMessage("reloadFailed", new String[]{String.valueOf(cause.getMessage())}));
+            return;
+        }
+
+        long start = System.nanoTime();
+        // Generators are parsed with the new defaults, so the config is swapped first and
+        // swapped back if anything fails
+        FileConfiguration previousConfig = reloadedConfig;
+        reloadedConfig = reload.getConfig();
+
+        // Generators edited in game while the files were being read keep the in-game version
+        int kept = 0;
+        List<String> removed = new ArrayList<>();
+        for (String name : reload.getRemoved()) {
+            if (store.isDirty(name)) {
+                kept++;
+            } else {
+                removed.add(name);
+            }
+        }
+        // Parse every generator that is going to change before touching any of them, so a
+        // failure leaves all generators as they were
+        List<GeneratorRecord> records = new ArrayList<>();
+        List<ParticleParams> params = new ArrayList<>();
+        try {
+            for (GeneratorRecord record : reload.getChanged()) {
+                if (store.isDirty(record.getName())) {
+                    kept++;
                 } else {
-                    String worldName = args[2];
-                    World world = Bukkit.getWorld(worldName);
-                    if (world == null) {
-                        sender.sendMessage(parseMessage("worldNotFound", new String[]{worldName}));
-                        return true;
-                    }
-                    try {
-                        double x = Double.parseDouble(args[3]);
-                        double y = Double.parseDouble(args[4]);
-                        double z = Double.parseDouble(args[5]);
-                        location = new Location(world, x, y, z);
-                    } catch (NumberFormatException e) {
-                        sender.sendMessage(parseMessage("invalidCoords"));
-                        return true;
-                    }
+                    records.add(record);
+                    params.add(record.toParams(this));
                 }
-                generator.setLocation(location);
-                sender.sendMessage(parseMessage("generatorMoved", new String[]{"" + location.getX(), "" + location.getY(), "" + location.getZ(), location.getWorld().getName()}));
-                saveGenerator(name, generator);
-                return true;
-            } else if (args[0].equalsIgnoreCase("set")) {
-                if (args.length < 3) {
-                    sender.sendMessage(parseMessage("setUsage"));
-                    return true;
-                }
-                String name = args[1];
-                ParticleGenerator generator = generators.get(name);
-                if (generator == null) {
-                    sender.sendMessage(parseMessage("generatorDoesNotExist"));
-                    return true;
-                }
-                String property = args[2];
-                if (property.equalsIgnoreCase("particle")) {
-                    if (args.length < 4) {
-                        sender.sendMessage(parseMessage("setPropertyUsage", new String[]{name, "particle"}));
-                        return true;
-                    }
-                    try {
-                        Particle particle = Particle.valueOf(args[3].toUpperCase());
-                        generator.setParticle(particle);
-                        sender.sendMessage(parseMessage("setPropertyFeedback", new String[]{name, "particle", "" + particle}));
-                    } catch (IllegalArgumentException e) {
-                        sender.sendMessage(parseMessage("invalidParticle"));
-                        return true;
-                    }
-                } else if (property.equalsIgnoreCase("count")) {
-                    if (args.length < 4) {
-                        sender.sendMessage(parseMessage("setPropertyUsage", new String[]{name, "count"}));
-                        return true;
-                    }
-                    try {
-                        int count = Integer.parseInt(args[3]);
-                        generator.setCount(count);
-                        sender.sendMessage(parseMessage("setPropertyFeedback", new String[]{name, "count", "" + count}));
-                    } catch (NumberFormatException e) {
-                        sender.sendMessage(parseMessage("invalidCount"));
-                        return true;
-                    }
-                } else if (property.equalsIgnoreCase("interval")) {
-                    if (args.length < 4) {
-                        sender.sendMessage(parseMessage("setPropertyUsage", new String[]{name, "interval"}));;
-                        return true;
-                    }
-                    try {
-                        int interval = Integer.parseInt(args[3]);
-                        generator.setInterval(interval);
-                        sender.sendMessage(parseMessage("setPropertyFeedback", new String[]{name, "interval", "" + interval}));
-                    } catch (NumberFormatException e) {
-                        sender.sendMessage(parseMessage("invalidInterval"));
-                        return true;
-                    }
-                } else if (property.equalsIgnoreCase("speed")) {
-                    if (args.length < 4) {
-                        sender.sendMessage(parseMessage("setPropertyUsage", new String[]{name, "speed"}));
-                        return true;
-                    }
-                    try {
-                        double speed = Double.parseDouble(args[3]);
-                        generator.setSpeed(speed);
-                        sender.sendMessage(parseMessage("setPropertyFeedback", new String[]{name, "speed", "" + speed}));
-                    } catch (NumberFormatException e) {
-                        sender.sendMessage(parseMessage("invalidSpeed"));
-                        return true;
-                    }
-                } else if (property.equalsIgnoreCase("offset")) {
-                    if (args.length < 4) {
-                        sender.sendMessage(parseMessage("setOffsetUsage", new String[]{name}));
-                        return true;
-                    }
-                    try {
-                        double x = Double.parseDouble(args[3]);
-                        double y = Double.parseDouble(args[4]);
-                        double z = Double.parseDouble(args[5]);
-                        Vector offset = new Vector(x, y, z);
-                        generator.setOffset(offset);
-                        sender.sendMessage(parseMessage("setOffsetFeedback", new String[]{name, "" + x, "" + y, "" + z}));
-                    } catch (NumberFormatException e) {
-                        sender.sendMessage(parseMessage("invalidOffset"));
-                        return true;
-                    }
+            }
+            for (GeneratorRecord record : reload.getAdded()) {
+                if (generators.containsKey(record.getName())) {
+                    kept++;
                 } else {
-                    sender.sendMessage(parseMessage("invalidProperty"));
-                    return true;
+                    records.add(record);
+                    params.add(record.toParams(this));
                 }
-                generator.stop();
-                saveGenerator(name, generator);
-                generator.start();
-                return true;
-            } else {
-                // Send a message to the player if they specified an invalid subcommand
-                player.sendMessage(parseMessage("invalidCommand"));
             }
-        } else {
-            // Send a message to the console if the command was executed from the console
-            getLogger().info(parseMessage("noConsole", false));
+        } catch (RuntimeException e) {
+            reloadedConfig = previousConfig;
+            getLogger().log(Level.WARNING, "Could not reload the generators", e);
+            sender.sendMessage(parseMessage("reloadFailed", new String[]{String.valueOf(e.getMessage())}));
+            return;
         }
 
-        return true;
+        int compiled = messages.load(getConfig().getConfigurationSection("messages"));
+        for (String name : removed) {
+            detachGenerator(name);
+            store.setRecord(name, null);
+        }
+        for (int i = 0; i < records.size(); i++) {
+            GeneratorRecord record = records.get(i);
+            ParticleGenerator generator = generators.get(record.getName());
+            if (generator == null) {
+                loadGenerator(record, params.get(i));
+                continue;
+            }
+            // Changed generators keep their instance, so API handles to them stay valid
+            updateGenerator(generator, record.getWorldName(), record.getX(), record.getY(), record.getZ(), params.get(i),
+                    record.getTemplate(this), record.getOverrides(), record.getProperties().get("group"), record.isEnabled());
+            store.setRecord(record.getName(), record);
+        }
+        long applyNanos = System.nanoTime() - start;
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("added", reload.getAdded().size());
+        values.put("changed", reload.getChanged().size());
+        values.put("removed", reload.getRemoved().size());
+        values.put("unchanged", reload.getUnchanged());
+        values.put("kept", kept);
+        values.put("messages", compiled);
+        values.put("read", formatMillis(reload.getReadNanos()));
+        values.put("diff", formatMillis(reload.getDiffNanos()));
+        values.put("apply", formatMillis(applyNanos));
+        values.put("total", formatMillis(System.nanoTime() - reload.getStartNanos()));
+        sender.sendMessage(parseMessage("reloaded", values));
+        sender.sendMessage(parseMessage("reloadTiming", values));
+        if (kept > 0) {
+            sender.sendMessage(parseMessage("reloadKept", values));
+        }
     }
 
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         if (args.length == 1) {
             // Tab complete subcommands
-            return StringUtil.copyPartialMatches(args[0], Arrays.asList("create", "edit", "delete", "list", "set", "move"), new ArrayList<>());
-        } else if (args.length == 2) {
-            // Tab complete generator names
-            if (args[0].equalsIgnoreCase("edit") || args[0].equalsIgnoreCase("delete") || args[0].equalsIgnoreCase("set") || args[0].equalsIgnoreCase("move")) {
-                return StringUtil.copyPartialMatches(args[1], generators.keySet(), new ArrayList<>());
-            }
-        } else if (args.length == 3) {
-            // Tab complete particle names
-            if (args[0].equalsIgnoreCase("create") || args[0].equalsIgnoreCase("edit")) {
-                return StringUtil.copyPartialMatches(args[2], Arrays.stream(Particle.values()).map(Enum::name).collect(Collectors.toList()), new ArrayList<>());
-            } else if (args[0].equalsIgnoreCase("set")) {
-                // Tab complete properties
-                return StringUtil.copyPartialMatches(args[2], Arrays.asList("particle", "count", "interval", "speed", "offset"), new ArrayList<>());
-            }
-        } else if (args.length == 4 && args[0].equalsIgnoreCase("set") && args[2].equalsIgnoreCase("particle")) {
-            // Tab complete particle names
-            return StringUtil.copyPartialMatches(args[3], Arrays.stream(Particle.values()).map(Enum::name).collect(Collectors.toList()), new ArrayList<>());
+            return subCommandNames.complete(args[0]);
+        }
+        SubCommand subCommand = subCommands.get(args[0].toLowerCase(Locale.ROOT));
+        if (subCommand == null || subCommand.completer == null || (subCommand.playerOnly && !(sender instanceof Player))) {
+            return Collections.emptyList();
         }
-        return Collections.emptyList();
+        List<String> options = subCommand.completer.complete(sender, args);
+        return options == null ? Collections.emptyList() : options;
     }
 
-
-
-
-            private void saveGenerator(String name, ParticleGenerator generator) {
-        // Save the generator to the config
-        FileConfiguration config = getConfig();
-        String generatorString = generator.getLocation().getWorld().getName() + ";" +
-                generator.getLocation().getX() + ";" +
-                generator.getLocation().getY() + ";" +
-                generator.getLocation().getZ() + ";" +
-                generator.getParticle() + ";" +
-                generator.getCount() + ";" +
-                generator.getInterval() + ";" +
-                generator.getSpeed() + ";" +
-                generator.getOffset().getX() + ";" +
-                generator.getOffset().getY() + ";" +
-                generator.getOffset().getZ();
-        config.set("generators." + name, generatorString);
-        saveConfig();
+    private List<String> completeGeneratorName(CommandSender sender, String[] args) {
+        return args.length == 2 ? generatorNames.complete(args[1]) : null;
     }
 
+    private List<String> completeCreate(CommandSender sender, String[] args) {
+        return args.length == 3 ? PARTICLE_NAMES.complete(args[2]) : null;
+    }
 
+    private List<String> completeEdit(CommandSender sender, String[] args) {
+        if (args.length == 3) {
+            return PARTICLE_NAMES.complete(args[2]);
+        }
+        return completeGeneratorName(sender, args);
+    }
 
-    private class ParticleGenerator {
-        private Location location;
-        private Particle particle;
-        private int count;
-        private int interval;
-        private BukkitTask task;
-        private double speed;
-        private Vector offset;
-
+    private List<String> completeSet(CommandSender sender, String[] args) {
+        if (args.length == 3) {
+            return matches(args[2], PROPERTIES);
+        } else if (args.length == 4) {
+            return completePropertyValue(args[2], args[3]);
+        }
+        return completeGeneratorName(sender, args);
+    }
 
+    private List<String> completeMove(CommandSender sender, String[] args) {
+        if (args.length == 3) {
+            return matches(args[2], getWorldNames());
+        }
+        return completeGeneratorName(sender, args);
+    }
 
+    private List<String> completeWithin(CommandSender sender, String[] args) {
+        return args.length == 8 ? matches(args[7], getWorldNames()) : null;
+    }
 
-        public ParticleGenerator(Location location, Particle particle, int count, int interval, double speed, Vector offset) {
-            this.location = location;
-            this.particle = particle;
-            this.count = count;
-            this.interval = interval;
-            this.speed = speed;
-            this.offset = offset;
+    private List<String> completeRegion(CommandSender sender, String[] args) {
+        if (args.length == 8) {
+            // Tab complete region actions
+            return matches(args[7], REGION_ACTIONS);
+        } else if (args.length == 9 && args[7].equalsIgnoreCase("set")) {
+            return matches(args[8], PROPERTIES);
+        } else if (args.length == 10 && args[7].equalsIgnoreCase("set")) {
+            return completePropertyValue(args[8], args[9]);
         }
+        return null;
+    }
 
-        public void start() {
-            if (task == null) {
-                task = Bukkit.getScheduler().runTaskTimer(ParticleGeneratorPlugin.this, new Runnable() {
-                    @Override
-                    public void run() {
-                        location.getWorld().spawnParticle(particle, location, count, offset.getX(), offset.getY(), offset.getZ(), speed, null, true);
-                    }
-                }, 0, interval);
+    private List<String> completeTemplate(CommandSender sender, String[] args) {
+        if (args.length == 2) {
+            return matches(args[1], TEMPLATE_ACTIONS);
+        } else if (args.length == 3) {
+            // Tab complete template or generator names
+            if (args[1].equalsIgnoreCase("detach")) {
+                return generatorNames.complete(args[2]);
             }
+            return matches(args[2], templateManager.getTemplates().stream().map(Template::getName).collect(Collectors.toList()));
+        } else if (args.length == 4 && args[1].equalsIgnoreCase("set")) {
+            return matches(args[3], PROPERTIES);
+        } else if (args.length == 4 && (args[1].equalsIgnoreCase("create") || args[1].equalsIgnoreCase("apply"))) {
+            return generatorNames.complete(args[3]);
+        } else if (args.length == 5 && args[1].equalsIgnoreCase("set")) {
+            return completePropertyValue(args[3], args[4]);
         }
+        return null;
+    }
 
-        public void stop() {
-            if (task != null) {
-                task.cancel();
-                task = null;
+    private List<String> completeGroup(CommandSender sender, String[] args) {
+        if (args.length == 2) {
+            return matches(args[1], GROUP_ACTIONS);
+        } else if (args.length == 3) {
+            // Tab complete group or generator names
+            if (args[1].equalsIgnoreCase("remove")) {
+                return generatorNames.complete(args[2]);
             }
+            return matches(args[2], groupManager.getNames());
+        } else if (args.length == 4 && args[1].equalsIgnoreCase("set")) {
+            return matches(args[3], PROPERTIES);
+        } else if (args.length == 4 && args[1].equalsIgnoreCase("add")) {
+            return generatorNames.complete(args[3]);
+        } else if (args.length == 5 && args[1].equalsIgnoreCase("set")) {
+            return completePropertyValue(args[3], args[4]);
         }
+        return null;
+    }
 
-        public Location getLocation() {
-            return location;
-        }
+    private List<String> completeSignal(CommandSender sender, String[] args) {
+        return args.length == 2 ? matches(args[1], triggerManager.getSignals()) : null;
+    }
 
-        public void setLocation(Location location) {
-            this.location = location;
+    private List<String> completeStats(CommandSender sender, String[] args) {
+        if (args.length != 2) {
+            return null;
         }
-
-        public Particle getParticle() {
-            return particle;
+        // Tab complete "top", "worlds" and generator names
+        List<String> options = generatorNames.complete(args[1]);
+        if (StringUtil.startsWithIgnoreCase("worlds", args[1])) {
+            options.add(0, "worlds");
         }
-
-        public void setParticle(Particle particle) {
-            this.particle = particle;
+        if (StringUtil.startsWithIgnoreCase("top", args[1])) {
+            options.add(0, "top");
         }
+        return options;
+    }
 
-        public int getCount() {
-            return count;
+    private List<String> completeList(CommandSender sender, String[] args) {
+        if (args.length != 3) {
+            return null;
         }
-
-        public void setCount(int count) {
-            this.count = count;
+        List<String> names = new ArrayList<>();
+        for (WorldShard shard : generatorIndex.getShards()) {
+            if (shard.size() > 0) {
+                names.add(shard.worldName);
+            }
         }
+        return matches(args[2], names);
+    }
 
-        public int getInterval() {
-            return interval;
+    private List<String> completeStorage(CommandSender sender, String[] args) {
+        if (args.length == 2) {
+            return matches(args[1], STORAGE_ACTIONS);
+        } else if (args.length == 3) {
+            // Tab complete storage types
+            return matches(args[2], STORAGE_TYPES);
         }
+        return null;
+    }
 
-        public void setInterval(int interval) {
-            this.interval = interval;
+    /**
+     * Suggestions for the value of a property in set, region set, template set and group set.
+     */
+    private List<String> completePropertyValue(String property, String prefix) {
+        if (property.equalsIgnoreCase("particle")) {
+            return PARTICLE_NAMES.complete(prefix);
+        } else if (property.equalsIgnoreCase("shape")) {
+            // Tab complete shape types
+            return matches(prefix, SHAPE_TYPES);
+        } else if (property.equalsIgnoreCase("animation")) {
+            // Tab complete animation channels
+            List<String> options = new ArrayList<>(Arrays.asList(Animation.CHANNELS));
+            options.add("none");
+            return matches(prefix, options);
+        } else if (property.equalsIgnoreCase("trigger")) {
+            // Tab complete trigger kinds
+            return matches(prefix, TRIGGER_TYPES);
+        } else if (property.equalsIgnoreCase("lod")) {
+            // Tab complete LOD presets
+            List<String> options = new ArrayList<>();
+            ConfigurationSection presets = getConfig().getConfigurationSection("lod-presets");
+            if (presets != null) {
+                options.addAll(presets.getKeys(false));
+            }
+            options.add("none");
+            return matches(prefix, options);
         }
+        return null;
+    }
 
-        public double getSpeed() {
-            return speed;
+    private List<String> getWorldNames() {
+        List<String> names = new ArrayList<>();
+        for (World world : getServer().getWorlds()) {
+            names.add(world.getName());
         }
+        return names;
+    }
 
-        public void setSpeed(double speed) {
-            this.speed = speed;
-        }
+    private static List<String> matches(String prefix, Collection<String> options) {
+        return StringUtil.copyPartialMatches(prefix, options, new ArrayList<>());
+    }
 
-        public Vector getOffset() {
-            return offset;
+    private void onTemplateCommand(CommandSender sender, String[] args) {
+        String action = args.length > 1 ? args[1] : "";
+        if (action.equalsIgnoreCase("list")) {
+            sender.sendMessage(parseMessage("templateListTitle"));
+            for (Template template : templateManager.getTemplates()) {
+                sender.sendMessage(parseMessage("templateListItem", new String[]{template.getName(), template.format(), "" + template.getMembers().size()}, false));
+            }
+            return;
+        } else if (action.equalsIgnoreCase("detach") && args.length >= 3) {
+            ParticleGenerator generator = generators.get(args[2]);
+            if (generator == null) {
+                sender.sendMessage(parseMessage("generatorDoesNotExist"));
+                return;
+            }
+            generator.setTemplate(null, 0);
+            saveGenerator(args[2], generator);
+            sender.sendMessage(parseMessage("templateDetached", new String[]{args[2]}));
+            return;
+        }
+        if (args.length < 3) {
+            sender.sendMessage(parseMessage("templateUsage"));
+            return;
         }
 
-        public void setOffset(Vector offset) {
-            this.offset = offset;
+        String name = args[2];
+        Template template = templateManager.get(name);
+        if (action.equalsIgnoreCase("create")) {
+            if (args.length < 4) {
+                sender.sendMessage(parseMessage("templateUsage"));
+                return;
+            }
+            if (template != null) {
+                sender.sendMessage(parseMessage("templateExists"));
+                return;
+            }
+            if (!Arguments.isName(name)) {
+                sender.sendMessage(parseMessage("invalidName"));
+                return;
+            }
+            ParticleGenerator generator = generators.get(args[3]);
+            if (generator == null) {
+                sender.sendMessage(parseMessage("generatorDoesNotExist"));
+                return;
+            }
+            // Start from the generator's values and make it the first member
+            template = new Template(name, generator.getParams());
+            templateManager.add(template);
+            generator.setTemplate(template, 0);
+            saveGenerator(args[3], generator);
+            sender.sendMessage(parseMessage("templateCreated", new String[]{name, args[3]}));
+            return;
+        }
+        if (template == null) {
+            sender.sendMessage(parseMessage("templateDoesNotExist"));
+            return;
+        }
+        if (action.equalsIgnoreCase("delete")) {
+            // Members keep the values they have now and are saved with them
+            List<ParticleGenerator> members = new ArrayList<>(template.getMembers());
+            for (ParticleGenerator member : members) {
+                member.setTemplate(null, 0);
+                saveGenerator(member.getName(), member);
+            }
+            templateManager.remove(template);
+            sender.sendMessage(parseMessage("templateDeleted", new String[]{name, "" + members.size()}));
+        } else if (action.equalsIgnoreCase("set")) {
+            if (args.length < 4) {
+                sender.sendMessage(parseMessage("templateUsage"));
+                return;
+            }
+            PropertyEdit edit = parseEdit(sender, name, args[3], Arrays.copyOfRange(args, 4, args.length));
+            if (edit == null) {
+                return;
+            }
+            // Members pick the change up in memory, only templates.yml is written
+            edit.applyTo(template);
+            templateManager.save();
+            sender.sendMessage(parseMessage("templateSet", new String[]{name, edit.property, String.join(",", edit.values), "" + template.getMembers().size()}));
+        } else if (action.equalsIgnoreCase("apply")) {
+            if (args.length < 4) {
+                sender.sendMessage(parseMessage("templateUsage"));
+                return;
+            }
+            ParticleGenerator generator = generators.get(args[3]);
+            if (generator == null) {
+                sender.sendMessage(parseMessage("generatorDoesNotExist"));
+                return;
+            }
+            generator.setTemplate(template, 0);
+            saveGenerator(args[3], generator);
+            sender.sendMessage(parseMessage("templateApplied", new String[]{args[3], name}));
+        } else {
+            sender.sendMessage(parseMessage("templateUsage"));
         }
     }
 
-    private String parseMessage(String messageName, String[] replacements, boolean prefix) {
-        String message = getConfig().getString("messages." + messageName);
-        if(message == null) {
-            return "";
+    private void onGroupCommand(CommandSender sender, String[] args) {
+        String action = args.length > 1 ? args[1] : "";
+        if (action.equalsIgnoreCase("list")) {
+            sender.sendMessage(parseMessage("groupListTitle"));
+            for (String group : groupManager.getNames()) {
+                sender.sendMessage(parseMessage("groupListItem", new String[]{group, "" + groupManager.get(group).size()}, false));
+            }
+            return;
+        } else if (action.equalsIgnoreCase("remove") && args.length >= 3) {
+            ParticleGenerator generator = generators.get(args[2]);
+            if (generator == null) {
+                sender.sendMessage(parseMessage("generatorDoesNotExist"));
+                return;
+            }
+            String group = generator.getGroup();
+            if (group == null) {
+                sender.sendMessage(parseMessage("notInGroup", new String[]{args[2]}));
+                return;
+            }
+            groupManager.remove(group, generator);
+            generator.setGroup(null);
+            saveGenerator(args[2], generator);
+            sender.sendMessage(parseMessage("groupRemoved", new String[]{args[2], group}));
+            return;
+        }
+        if (args.length < 3) {
+            sender.sendMessage(parseMessage("groupUsage"));
+            return;
         }
-        if (replacements != null) {
-            for (int i = 0; i < replacements.length; i++) {
-                String placeholder = "%" + i;
-                if (i >= 10) {
-                    placeholder = "%" + (char)('a' + (i - 10));
+
+        String group = args[2];
+        if (action.equalsIgnoreCase("add")) {
+            if (args.length < 4) {
+                sender.sendMessage(parseMessage("groupUsage"));
+                return;
+            }
+            if (!Arguments.isName(group)) {
+                sender.sendMessage(parseMessage("invalidName"));
+                return;
+            }
+            ParticleGenerator generator = generators.get(args[3]);
+            if (generator == null) {
+                sender.sendMessage(parseMessage("generatorDoesNotExist"));
+                return;
+            }
+            if (generator.getGroup() != null) {
+                groupManager.remove(generator.getGroup(), generator);
+            }
+            generator.setGroup(group);
+            groupManager.add(group, generator);
+            saveGenerator(args[3], generator);
+            sender.sendMessage(parseMessage("groupAdded", new String[]{args[3], group}));
+            return;
+        }
+        List<ParticleGenerator> members = new ArrayList<>(groupManager.get(group));
+        if (members.isEmpty()) {
+            sender.sendMessage(parseMessage("groupDoesNotExist"));
+            return;
+        }
+        if (action.equalsIgnoreCase("start") || action.equalsIgnoreCase("stop")) {
+            boolean start = action.equalsIgnoreCase("start");
+            for (ParticleGenerator member : members) {
+                if (start) {
+                    member.start();
+                } else {
+                    member.stop();
                 }
-                message = message.replace(placeholder, replacements[i]);
+                saveGenerator(member.getName(), member);
+            }
+            sender.sendMessage(parseMessage(start ? "groupStarted" : "groupStopped", new String[]{group, "" + members.size()}));
+        } else if (action.equalsIgnoreCase("set")) {
+            if (args.length < 4) {
+                sender.sendMessage(parseMessage("groupUsage"));
+                return;
+            }
+            PropertyEdit edit = parseEdit(sender, group, args[3], Arrays.copyOfRange(args, 4, args.length));
+            if (edit == null) {
+                return;
+            }
+            for (ParticleGenerator member : members) {
+                edit.applyTo(member);
+                saveGenerator(member.getName(), member);
+            }
+            sender.sendMessage(parseMessage("groupSet", new String[]{group, edit.property, String.join(",", edit.values), "" + members.size()}));
+        } else {
+            sender.sendMessage(parseMessage("groupUsage"));
+        }
+    }
+
+    /**
+     * Parses one property change for set and region set. Sends the error and returns null
+     * if the value is invalid.
+     */
+    private PropertyEdit parseEdit(CommandSender sender, String name, String property, String[] values) {
+        if (property.equalsIgnoreCase("particle")) {
+            if (values.length < 1) {
+                sender.sendMessage(parseMessage("setPropertyUsage", new String[]{name, "particle"}));
+                return null;
             }
+            Particle particle = parse(sender, Arguments.PARTICLE, values[0], "invalidParticle");
+            if (particle == null) {
+                return null;
+            }
+            ParticleData data = parseData(sender, particle, values, 1);
+            if (data == null) {
+                return null;
+            }
+            return new PropertyEdit("particle", ParticleParams.PARTICLE, params -> params.withParticle(particle, data), data == ParticleData.NONE ? "" + particle : particle + " " + data.getSpec());
+        } else if (property.equalsIgnoreCase("count")) {
+            if (values.length < 1) {
+                sender.sendMessage(parseMessage("setPropertyUsage", new String[]{name, "count"}));
+                return null;
+            }
+            Integer count = parse(sender, Arguments.INTEGER, values[0], "invalidCount");
+            if (count == null || !checkCount(sender, count)) {
+                return null;
+            }
+            return new PropertyEdit("count", ParticleParams.COUNT, params -> params.withCount(count), "" + count);
+        } else if (property.equalsIgnoreCase("interval")) {
+            if (values.length < 1) {
+                sender.sendMessage(parseMessage("setPropertyUsage", new String[]{name, "interval"}));
+                return null;
+            }
+            Integer interval = parse(sender, Arguments.INTEGER, values[0], "invalidInterval");
+            if (interval == null || !checkInterval(sender, interval)) {
+                return null;
+            }
+            return new PropertyEdit("interval", ParticleParams.INTERVAL, params -> params.withInterval(interval), "" + interval);
+        } else if (property.equalsIgnoreCase("speed")) {
+            if (values.length < 1) {
+                sender.sendMessage(parseMessage("setPropertyUsage", new String[]{name, "speed"}));
+                return null;
+            }
+            Double speed = parse(sender, Arguments.NUMBER, values[0], "invalidSpeed");
+            if (speed == null) {
+                return null;
+            }
+            return new PropertyEdit("speed", ParticleParams.SPEED, params -> params.withSpeed(speed), "" + speed);
+        } else if (property.equalsIgnoreCase("offset")) {
+            if (values.length < 3) {
+                sender.sendMessage(parseMessage("setOffsetUsage", new String[]{name}));
+                return null;
+            }
+            Vector offset = parseVector(sender, values, 0, "invalidOffset");
+            if (offset == null) {
+                return null;
+            }
+            return new PropertyEdit("offset", ParticleParams.OFFSET, params -> params.withOffset(offset.getX(), offset.getY(), offset.getZ()), "" + offset.getX(), "" + offset.getY(), "" + offset.getZ());
+        } else if (property.equalsIgnoreCase("viewradius")) {
+            if (values.length < 1) {
+                sender.sendMessage(parseMessage("setPropertyUsage", new String[]{name, "viewradius"}));
+                return null;
+            }
+            Integer viewRadius = Arguments.parseInt(values[0]);
+            if (viewRadius == null || viewRadius < 1) {
+                sender.sendMessage(parseMessage("invalidViewRadius"));
+                return null;
+            }
+            return new PropertyEdit("viewradius", ParticleParams.VIEW_RADIUS, params -> params.withViewRadius(viewRadius), "" + viewRadius);
+        } else if (property.equalsIgnoreCase("shape")) {
+            if (values.length < 1) {
+                sender.sendMessage(parseMessage("setShapeUsage", new String[]{name}));
+                return null;
+            }
+            if (values[0].equalsIgnoreCase("none")) {
+                return new PropertyEdit("shape", ParticleParams.SHAPE, params -> params.withShape(null), "none");
+            }
+            // The values are the shape parameters, e.g. ring radius=2 points=32
+            Shape shape;
+            try {
+                shape = shapeCache.get(String.join(",", values));
+            } catch (IllegalArgumentException e) {
+                sender.sendMessage(parseMessage("invalidShape", new String[]{e.getMessage()}));
+                return null;
+            }
+            return new PropertyEdit("shape", ParticleParams.SHAPE, params -> params.withShape(shape), shape.getSpec() + " (" + shape.getPointCount() + " points)");
+        } else if (property.equalsIgnoreCase("lod")) {
+            if (values.length < 1) {
+                sender.sendMessage(parseMessage("setLodUsage", new String[]{name}));
+                return null;
+            }
+            if (values[0].equalsIgnoreCase("none")) {
+                return new PropertyEdit("lod", ParticleParams.LOD, params -> params.withLod(null), "none");
+            }
+            // Either a preset from the config or the tiers themselves
+            String spec = getConfig().getString("lod-presets." + values[0], String.join(",", values));
+            LodTiers lod;
+            try {
+                lod = LodTiers.parse(spec);
+            } catch (IllegalArgumentException e) {
+                sender.sendMessage(parseMessage("invalidLod", new String[]{e.getMessage()}));
+                return null;
+            }
+            return new PropertyEdit("lod", ParticleParams.LOD, params -> params.withLod(lod), lod.getSpec());
+        } else if (property.equalsIgnoreCase("animation")) {
+            if (values.length == 1 && values[0].equalsIgnoreCase("none")) {
+                return new PropertyEdit("animation", ParticleParams.ANIMATION, params -> params.withAnimation(null), "none");
+            }
+            if (values.length < 2) {
+                sender.sendMessage(parseMessage("setAnimationUsage", new String[]{name}));
+                return null;
+            }
+            // One channel at a time, the others stay as they are on each generator
+            String channel = values[0];
+            String formula = values[1].equalsIgnoreCase("none") && values.length == 2 ? null : String.join("", Arrays.copyOfRange(values, 1, values.length));
+            Animation checked;
+            try {
+                checked = Animation.with(null, channel, formula);
+            } catch (IllegalArgumentException e) {
+                sender.sendMessage(parseMessage("invalidAnimation", new String[]{e.getMessage()}));
+                return null;
+            }
+            String shown = formula == null ? channel.toLowerCase(Locale.ROOT) + "=none" : checked.getSpec();
+            return new PropertyEdit("animation", ParticleParams.ANIMATION, params -> params.withAnimation(Animation.with(params.animation, channel, formula)), shown);
+        } else if (property.equalsIgnoreCase("trigger")) {
+            if (values.length < 1) {
+                sender.sendMessage(parseMessage("setTriggerUsage", new String[]{name}));
+                return null;
+            }
+            if (values[0].equalsIgnoreCase("none")) {
+                return new PropertyEdit("trigger", ParticleParams.TRIGGER, params -> params.withTrigger(null), "none");
+            }
+            // The kind followed by its arguments, e.g. proximity 8 or signal door 40
+            String spec = values.length == 1 ? values[0] : values[0] + ":" + String.join(",", Arrays.copyOfRange(values, 1, values.length));
+            Trigger trigger;
+            try {
+                trigger = Trigger.parse(spec);
+            } catch (IllegalArgumentException e) {
+                sender.sendMessage(parseMessage("invalidTrigger", new String[]{e.getMessage()}));
+                return null;
+            }
+            return new PropertyEdit("trigger", ParticleParams.TRIGGER, params -> params.withTrigger(trigger), trigger.getSpec());
+        } else if (property.equalsIgnoreCase("priority")) {
+            if (values.length < 1) {
+                sender.sendMessage(parseMessage("setPropertyUsage", new String[]{name, "priority"}));
+                return null;
+            }
+            Integer priority = parse(sender, Arguments.INTEGER, values[0], "invalidPriority");
+            if (priority == null) {
+                return null;
+            }
+            if (priority < BudgetManager.MIN_PRIORITY || priority > BudgetManager.MAX_PRIORITY) {
+                sender.sendMessage(parseMessage("priorityOutOfRange", new String[]{"" + BudgetManager.MIN_PRIORITY, "" + BudgetManager.MAX_PRIORITY}));
+                return null;
+            }
+            return new PropertyEdit("priority", ParticleParams.PRIORITY, params -> params.withPriority(priority), "" + priority);
+        }
+        sender.sendMessage(parseMessage("invalidProperty"));
+        return null;
+    }
 
+    /**
+     * Parses the two corners in arguments 1 to 6. Sends the error and returns null if any is invalid.
+     */
+    private double[] parseBox(CommandSender sender, String[] args) {
+        double[] box = new double[6];
+        for (int i = 0; i < 6; i++) {
+            Double value = Arguments.parseDouble(args[i + 1]);
+            if (value == null) {
+                sender.sendMessage(parseMessage("invalidCoords"));
+                return null;
+            }
+            box[i] = value;
         }
-        return ChatColor.translateAlternateColorCodes('&', (prefix ? getConfig().getString("messages.prefix") : "") + message);
+        return box;
+    }
+
+    void saveGenerator(String name, ParticleGenerator generator) {
+        // Queue the generator to be written with the next batch
+        long start = System.nanoTime();
+        store.markDirty(name, generator);
+        metrics.saveGeneratorNanos.record(System.nanoTime() - start);
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1_000_000.0);
+    }
+
+    private static String formatBlocks(double blocks) {
+        return String.format(Locale.ROOT, "%.1f", blocks);
+    }
+
+    private static String formatMicros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1_000.0);
+    }
+
+    String parseMessage(String messageName, String[] replacements, boolean prefix) {
+        return messages.format(messageName, replacements, prefix);
+    }
+
+    private String parseMessage(String messageName, Map<String, ?> values) {
+        return messages.format(messageName, values, true);
     }
 
     private String parseMessage(String messageName) {
@@ -613,8 +1682,30 @@ public class ParticleGeneratorPlugin extends JavaPlugin {
         return parseMessage(messageName, replacements, true);
     }
 
+    /**
+     * A validated property change that can be applied to any number of generators.
+     */
+    private static final class PropertyEdit {
+        final String property;
+        // ParticleParams field bit of the property
+        final int field;
+        final UnaryOperator<ParticleParams> change;
+        // Parsed values as shown in feedback messages
+        final String[] values;
+
+        PropertyEdit(String property, int field, UnaryOperator<ParticleParams> change, String... values) {
+            this.property = property;
+            this.field = field;
+            this.change = change;
+            this.values = values;
+        }
 
-}
-
-
+        void applyTo(ParticleGenerator generator) {
+            generator.edit(field, change.apply(generator.getParams()));
+        }
 
+        void applyTo(Template template) {
+            template.setParams(change.apply(template.getParams()));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.hogbrains.particlegenerator;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Lets other plugins create and change generators without going through commands.
+ * Registered with Bukkit's services manager while ParticleGenerator is enabled:
+ *
+ * <pre>
+ * ParticleGeneratorService service = Bukkit.getServicesManager().load(ParticleGeneratorService.class);
+ * GeneratorHandle handle = service.create(GeneratorSpec.builder("arena-1", location).particle(Particle.FLAME).count(5).build());
+ * handle.setCount(10);
+ * </pre>
+ *
+ * Every method has to be called on the main thread. Invalid specs throw an
+ * {@link IllegalArgumentException} naming the generator and the problem. The bulk methods
+ * check every entry before changing anything, so a batch is applied completely or not at
+ * all, and its changes are written to storage as one save.
+ */
+public interface ParticleGeneratorService {
+
+    /**
+     * Creates a generator and starts it unless the spec disables it.
+     *
+     * @throws IllegalArgumentException if the spec is invalid or the name is taken
+     */
+    GeneratorHandle create(GeneratorSpec spec);
+
+    /**
+     * Creates every generator, or none of them if any spec is invalid or any name is taken.
+     * The handles are in the order of the specs.
+     */
+    List<GeneratorHandle> createAll(Collection<GeneratorSpec> specs);
+
+    /**
+     * Replaces everything about an existing generator with the spec. Handles to the
+     * generator stay valid.
+     *
+     * @throws IllegalArgumentException if the spec is invalid or no generator has its name
+     */
+    GeneratorHandle update(GeneratorSpec spec);
+
+    /**
+     * Updates every generator, or none of them if any spec is invalid or names a generator
+     * that does not exist.
+     */
+    List<GeneratorHandle> updateAll(Collection<GeneratorSpec> specs);
+
+    /**
+     * Removes a generator. Returns false if no generator has the name.
+     */
+    boolean remove(String name);
+
+    /**
+     * Removes every named generator, or none of them if any name does not exist. Returns
+     * the number removed.
+     */
+    int removeAll(Collection<String> names);
+
+    /**
+     * Returns a handle to an existing generator, or null if no generator has the name.
+     */
+    GeneratorHandle get(String name);
+
+    /**
+     * Returns whether a generator has the name.
+     */
+    boolean exists(String name);
+
+    /**
+     * Returns the names of every generator.
+     */
+    Collection<String> getNames();
+}
@@ -0,0 +1,167 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+
+/**
+ * Immutable emission parameters of a generator. Edits build a new instance and swap the
+ * generator's reference in one write, so a tick always sees a consistent set of values
+ * and the hot path only reads final primitives.
+ */
+final class ParticleParams {
+
+    // Field bits, used to record which fields a generator overrides from its template
+    static final int PARTICLE = 1;
+    static final int COUNT = 1 << 1;
+    static final int INTERVAL = 1 << 2;
+    static final int SPEED = 1 << 3;
+    static final int OFFSET = 1 << 4;
+    static final int VIEW_RADIUS = 1 << 5;
+    static final int PRIORITY = 1 << 6;
+    static final int SHAPE = 1 << 7;
+    static final int LOD = 1 << 8;
+    static final int ANIMATION = 1 << 9;
+    static final int TRIGGER = 1 << 10;
+    private static final String[] FIELD_NAMES = {"particle", "count", "interval", "speed", "offset", "viewRadius", "priority", "shape", "lod", "animation", "trigger"};
+
+    final Particle particle;
+    // Shared data object the particle is spawned with, NONE for particles without data
+    final ParticleData data;
+    final int count;
+    final int interval;
+    final double speed;
+    final double offsetX;
+    final double offsetY;
+    final double offsetZ;
+    final int viewRadius;
+    final int priority;
+    // Null for a single point
+    final Shape shape;
+    // Null to send the full emission to every viewer
+    final LodTiers lod;
+    // Null when nothing changes over time
+    final Animation animation;
+    // Null to run whenever the generator is enabled
+    final Trigger trigger;
+
+    ParticleParams(Particle particle, ParticleData data, int count, int interval, double speed, double offsetX, double offsetY, double offsetZ, int viewRadius, int priority, Shape shape, LodTiers lod, Animation animation, Trigger trigger) {
+        this.particle = particle;
+        this.data = data;
+        this.count = count;
+        this.interval = interval;
+        this.speed = speed;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.offsetZ = offsetZ;
+        this.viewRadius = viewRadius;
+        this.priority = priority;
+        this.shape = shape;
+        this.lod = lod;
+        this.animation = animation;
+        this.trigger = trigger;
+    }
+
+    /**
+     * Changes the particle together with its data, which has to match the particle.
+     */
+    ParticleParams withParticle(Particle particle, ParticleData data) {
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    ParticleParams withCount(int count) {
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    ParticleParams withInterval(int interval) {
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    ParticleParams withSpeed(double speed) {
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    ParticleParams withOffset(double offsetX, double offsetY, double offsetZ) {
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    ParticleParams withViewRadius(int viewRadius) {
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    ParticleParams withPriority(int priority) {
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    ParticleParams withShape(Shape shape) {
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    ParticleParams withLod(LodTiers lod) {
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    ParticleParams withAnimation(Animation animation) {
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    ParticleParams withTrigger(Trigger trigger) {
+        return new ParticleParams(particle, data, count, interval, speed, offsetX, offsetY, offsetZ, viewRadius, priority, shape, lod, animation, trigger);
+    }
+
+    /**
+     * Combines a template's parameters with a generator's own values for the overridden
+     * fields. Without overrides the template's instance itself is returned, so every plain
+     * member of a template shares one object.
+     */
+    static ParticleParams merge(ParticleParams base, ParticleParams own, int overrides) {
+        if (overrides == 0) {
+            return base;
+        }
+        return new ParticleParams(
+                (overrides & PARTICLE) != 0 ? own.particle : base.particle,
+                (overrides & PARTICLE) != 0 ? own.data : base.data,
+                (overrides & COUNT) != 0 ? own.count : base.count,
+                (overrides & INTERVAL) != 0 ? own.interval : base.interval,
+                (overrides & SPEED) != 0 ? own.speed : base.speed,
+                (overrides & OFFSET) != 0 ? own.offsetX : base.offsetX,
+                (overrides & OFFSET) != 0 ? own.offsetY : base.offsetY,
+                (overrides & OFFSET) != 0 ? own.offsetZ : base.offsetZ,
+                (overrides & VIEW_RADIUS) != 0 ? own.viewRadius : base.viewRadius,
+                (overrides & PRIORITY) != 0 ? own.priority : base.priority,
+                (overrides & SHAPE) != 0 ? own.shape : base.shape,
+                (overrides & LOD) != 0 ? own.lod : base.lod,
+                (overrides & ANIMATION) != 0 ? own.animation : base.animation,
+                (overrides & TRIGGER) != 0 ? own.trigger : base.trigger);
+    }
+
+    static String formatFields(int fields) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            if ((fields & (1 << i)) != 0) {
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(FIELD_NAMES[i]);
+            }
+        }
+        return builder.toString();
+    }
+
+    static int parseFields(String fields) {
+        int bits = 0;
+        for (String field : fields.split(",")) {
+            for (int i = 0; i < FIELD_NAMES.length; i++) {
+                if (FIELD_NAMES[i].equalsIgnoreCase(field.trim())) {
+                    bits |= 1 << i;
+                }
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the radius within which a player has to be for any point to be visible.
+     */
+    double getCullRadius() {
+        return shape == null ? viewRadius : viewRadius + shape.getExtent();
+    }
+}
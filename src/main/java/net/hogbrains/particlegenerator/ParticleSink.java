@@ -0,0 +1,13 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Delivers a tick's worth of particle emissions to one player. The default sink goes
+ * through the Bukkit API; a packet-level sink can write every emission in the batch
+ * and flush the connection once.
+ */
+interface ParticleSink {
+
+    void send(Player player, ParticleBatch batch);
+}
@@ -0,0 +1,403 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps online player positions bucketed by world and chunk so generators can cheaply
+ * check whether anyone is close enough to see them.
+ */
+class PlayerTracker implements Listener, ViewerQuery {
+
+    private static final Comparator<TrackedPlayer> BY_CELL = new Comparator<TrackedPlayer>() {
+        @Override
+        public int compare(TrackedPlayer first, TrackedPlayer second) {
+            return Long.compare(first.cell, second.cell);
+        }
+    };
+
+    private final Map<UUID, WorldViewers> worlds = new HashMap<>();
+    private final Map<UUID, TrackedPlayer> players = new HashMap<>();
+
+    public void trackOnlinePlayers() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            update(player, player.getLocation());
+        }
+    }
+
+    public void clear() {
+        worlds.clear();
+        players.clear();
+    }
+
+    /**
+     * Copies the tracked positions into an immutable snapshot that planner threads can
+     * query while players keep moving on the main thread. Costs O(players).
+     */
+    public Snapshot snapshot() {
+        Map<UUID, SnapshotWorld> copy = new HashMap<>(worlds.size() * 2);
+        for (WorldViewers viewers : worlds.values()) {
+            copy.put(viewers.worldId, new SnapshotWorld(viewers.members));
+        }
+        return new Snapshot(copy);
+    }
+
+    @Override
+    public boolean hasViewerWithin(World world, double x, double y, double z, double radius) {
+        WorldViewers viewers = worlds.get(world.getUID());
+        if (viewers == null || viewers.members.isEmpty()) {
+            return false;
+        }
+        double radiusSquared = radius * radius;
+        int minChunkX = floor(x - radius) >> 4;
+        int maxChunkX = floor(x + radius) >> 4;
+        int minChunkZ = floor(z - radius) >> 4;
+        int maxChunkZ = floor(z + radius) >> 4;
+        long cellCount = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+
+        // With only a few players in the world a straight scan beats probing every cell
+        if (cellCount >= viewers.members.size()) {
+            return anyWithin(viewers.members, x, y, z, radiusSquared);
+        }
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                ArrayList<TrackedPlayer> cell = viewers.cells.get(LongHashMap.key(chunkX, chunkZ));
+                if (cell != null && anyWithin(cell, x, y, z, radiusSquared)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether any tracked player stands inside the box.
+     */
+    public boolean hasViewerInside(World world, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        WorldViewers viewers = worlds.get(world.getUID());
+        if (viewers == null || viewers.members.isEmpty()) {
+            return false;
+        }
+        int minChunkX = floor(minX) >> 4;
+        int maxChunkX = floor(maxX) >> 4;
+        int minChunkZ = floor(minZ) >> 4;
+        int maxChunkZ = floor(maxZ) >> 4;
+        long cellCount = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+
+        if (cellCount >= viewers.members.size()) {
+            return anyInside(viewers.members, minX, minY, minZ, maxX, maxY, maxZ);
+        }
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                ArrayList<TrackedPlayer> cell = viewers.cells.get(LongHashMap.key(chunkX, chunkZ));
+                if (cell != null && anyInside(cell, minX, minY, minZ, maxX, maxY, maxZ)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands every tracked player within the radius to the consumer.
+     */
+    public void forEachViewer(World world, double x, double y, double z, double radius, ViewerConsumer consumer) {
+        WorldViewers viewers = worlds.get(world.getUID());
+        if (viewers == null || viewers.members.isEmpty()) {
+            return;
+        }
+        double radiusSquared = radius * radius;
+        int minChunkX = floor(x - radius) >> 4;
+        int maxChunkX = floor(x + radius) >> 4;
+        int minChunkZ = floor(z - radius) >> 4;
+        int maxChunkZ = floor(z + radius) >> 4;
+        long cellCount = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+
+        if (cellCount >= viewers.members.size()) {
+            acceptWithin(viewers.members, x, y, z, radiusSquared, consumer);
+            return;
+        }
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                ArrayList<TrackedPlayer> cell = viewers.cells.get(LongHashMap.key(chunkX, chunkZ));
+                if (cell != null) {
+                    acceptWithin(cell, x, y, z, radiusSquared, consumer);
+                }
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        Location to = event.getTo();
+        if (to != null) {
+            update(event.getPlayer(), to);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        Location to = event.getTo();
+        if (to != null) {
+            update(event.getPlayer(), to);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        update(player, player.getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        TrackedPlayer tracked = players.remove(event.getPlayer().getUniqueId());
+        if (tracked != null) {
+            detach(tracked);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        Player player = event.getPlayer();
+        update(player, player.getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent event) {
+        update(event.getPlayer(), event.getRespawnLocation());
+    }
+
+    private void update(Player player, Location location) {
+        World world = location.getWorld();
+        if (world == null) {
+            return;
+        }
+        TrackedPlayer tracked = players.get(player.getUniqueId());
+        if (tracked == null) {
+            tracked = new TrackedPlayer(player);
+            players.put(player.getUniqueId(), tracked);
+        }
+        tracked.x = location.getX();
+        tracked.y = location.getY();
+        tracked.z = location.getZ();
+
+        // Only touch the grid when the player crosses into another chunk or world
+        long cell = LongHashMap.key(floor(tracked.x) >> 4, floor(tracked.z) >> 4);
+        UUID worldId = world.getUID();
+        if (tracked.viewers != null && tracked.viewers.worldId.equals(worldId) && tracked.cell == cell) {
+            return;
+        }
+        detach(tracked);
+        WorldViewers viewers = worlds.get(worldId);
+        if (viewers == null) {
+            viewers = new WorldViewers(worldId);
+            worlds.put(worldId, viewers);
+        }
+        ArrayList<TrackedPlayer> members = viewers.cells.get(cell);
+        if (members == null) {
+            members = new ArrayList<>(2);
+            viewers.cells.put(cell, members);
+        }
+        members.add(tracked);
+        viewers.members.add(tracked);
+        tracked.viewers = viewers;
+        tracked.cell = cell;
+    }
+
+    private void detach(TrackedPlayer tracked) {
+        WorldViewers viewers = tracked.viewers;
+        if (viewers == null) {
+            return;
+        }
+        ArrayList<TrackedPlayer> members = viewers.cells.get(tracked.cell);
+        if (members != null) {
+            members.remove(tracked);
+            if (members.isEmpty()) {
+                viewers.cells.remove(tracked.cell);
+            }
+        }
+        viewers.members.remove(tracked);
+        if (viewers.members.isEmpty()) {
+            worlds.remove(viewers.worldId);
+        }
+        tracked.viewers = null;
+    }
+
+    private static boolean anyWithin(ArrayList<TrackedPlayer> candidates, double x, double y, double z, double radiusSquared) {
+        for (int i = 0, size = candidates.size(); i < size; i++) {
+            TrackedPlayer tracked = candidates.get(i);
+            double dx = tracked.x - x;
+            double dy = tracked.y - y;
+            double dz = tracked.z - z;
+            if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyInside(ArrayList<TrackedPlayer> candidates, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        for (int i = 0, size = candidates.size(); i < size; i++) {
+            TrackedPlayer tracked = candidates.get(i);
+            if (tracked.x >= minX && tracked.x <= maxX && tracked.y >= minY && tracked.y <= maxY && tracked.z >= minZ && tracked.z <= maxZ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void acceptWithin(ArrayList<TrackedPlayer> candidates, double x, double y, double z, double radiusSquared, ViewerConsumer consumer) {
+        for (int i = 0, size = candidates.size(); i < size; i++) {
+            TrackedPlayer tracked = candidates.get(i);
+            double dx = tracked.x - x;
+            double dy = tracked.y - y;
+            double dz = tracked.z - z;
+            if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                consumer.accept(tracked);
+            }
+        }
+    }
+
+    private static int floor(double value) {
+        int truncated = (int) value;
+        return value < truncated ? truncated - 1 : truncated;
+    }
+
+    interface ViewerConsumer {
+        void accept(TrackedPlayer viewer);
+    }
+
+    /**
+     * Player positions at one point in time, safe to query from any thread.
+     */
+    static final class Snapshot implements ViewerQuery {
+        private final Map<UUID, SnapshotWorld> worlds;
+
+        Snapshot(Map<UUID, SnapshotWorld> worlds) {
+            this.worlds = worlds;
+        }
+
+        @Override
+        public boolean hasViewerWithin(World world, double x, double y, double z, double radius) {
+            SnapshotWorld viewers = worlds.get(world.getUID());
+            return viewers != null && viewers.hasViewerWithin(x, y, z, radius);
+        }
+    }
+
+    /**
+     * The players of one world, sorted by chunk so each chunk's players are one range of
+     * the position array.
+     */
+    private static final class SnapshotWorld {
+        private final long[] cells;
+        // Start of each cell's range in the positions, plus the end of the last one
+        private final int[] cellStarts;
+        private final double[] positions;
+        private final int size;
+
+        SnapshotWorld(ArrayList<TrackedPlayer> members) {
+            TrackedPlayer[] sorted = members.toArray(new TrackedPlayer[0]);
+            Arrays.sort(sorted, BY_CELL);
+            size = sorted.length;
+            long[] cells = new long[size];
+            cellStarts = new int[size + 1];
+            positions = new double[size * 3];
+            int cellCount = 0;
+            for (int i = 0; i < size; i++) {
+                TrackedPlayer tracked = sorted[i];
+                if (i == 0 || tracked.cell != sorted[i - 1].cell) {
+                    cells[cellCount] = tracked.cell;
+                    cellStarts[cellCount++] = i;
+                }
+                positions[i * 3] = tracked.x;
+                positions[i * 3 + 1] = tracked.y;
+                positions[i * 3 + 2] = tracked.z;
+            }
+            cellStarts[cellCount] = size;
+            this.cells = Arrays.copyOf(cells, cellCount);
+        }
+
+        boolean hasViewerWithin(double x, double y, double z, double radius) {
+            double radiusSquared = radius * radius;
+            int minChunkX = floor(x - radius) >> 4;
+            int maxChunkX = floor(x + radius) >> 4;
+            int minChunkZ = floor(z - radius) >> 4;
+            int maxChunkZ = floor(z + radius) >> 4;
+            long cellCount = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+
+            if (cellCount >= size) {
+                return anyWithin(0, size, x, y, z, radiusSquared);
+            }
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                    int cell = Arrays.binarySearch(cells, LongHashMap.key(chunkX, chunkZ));
+                    if (cell >= 0 && anyWithin(cellStarts[cell], cellStarts[cell + 1], x, y, z, radiusSquared)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean anyWithin(int from, int to, double x, double y, double z, double radiusSquared) {
+            for (int i = from; i < to; i++) {
+                double dx = positions[i * 3] - x;
+                double dy = positions[i * 3 + 1] - y;
+                double dz = positions[i * 3 + 2] - z;
+                if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class WorldViewers {
+        final UUID worldId;
+        final LongHashMap<ArrayList<TrackedPlayer>> cells = new LongHashMap<>();
+        final ArrayList<TrackedPlayer> members = new ArrayList<>();
+
+        WorldViewers(UUID worldId) {
+            this.worldId = worldId;
+        }
+    }
+
+    static final class TrackedPlayer {
+        final Player player;
+        double x;
+        double y;
+        double z;
+        long cell;
+        WorldViewers viewers;
+
+        // Emission indices queued for this player during the current tick, with the count
+        // and force flag this player gets for each
+        int[] pending = new int[8];
+        int[] pendingCounts = new int[8];
+        boolean[] pendingForce = new boolean[8];
+        int pendingCount;
+
+        TrackedPlayer(Player player) {
+            this.player = player;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package net.hogbrains.particlegenerator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Counters and latency histograms for the plugin's own cost. Everything here is recorded
+ * on the main thread, except the save histogram which is owned by the store's writer.
+ * Firings planned by workers reach these counters and the per-generator ones when their
+ * plan is replayed. Single emissions are only timed here while ticks are planned on the
+ * main thread.
+ */
+class PluginMetrics {
+
+    private static final Comparator<Map.Entry<String, ParticleGenerator>> BY_COST = new Comparator<Map.Entry<String, ParticleGenerator>>() {
+        @Override
+        public int compare(Map.Entry<String, ParticleGenerator> first, Map.Entry<String, ParticleGenerator> second) {
+            return Long.compare(first.getValue().getCostNanos(), second.getValue().getCostNanos());
+        }
+    };
+
+    private final boolean generatorTiming;
+
+    // Whole scheduler tick, the per-viewer dispatch part of it, and single emissions
+    final LatencyHistogram tickNanos = new LatencyHistogram();
+    final LatencyHistogram dispatchNanos = new LatencyHistogram();
+    final LatencyHistogram emitNanos = new LatencyHistogram();
+    // Worker time needed to plan a tick ahead
+    final LatencyHistogram planNanos = new LatencyHistogram();
+    // Main-thread cost of queueing a generator for saving
+    final LatencyHistogram saveGeneratorNanos = new LatencyHistogram();
+
+    long emissions;
+    long particles;
+    long packets;
+    long skipped;
+    // Ticks whose plan was not finished when the tick started
+    long latePlans;
+
+    PluginMetrics(boolean generatorTiming) {
+        this.generatorTiming = generatorTiming;
+    }
+
+    public boolean isGeneratorTiming() {
+        return generatorTiming;
+    }
+
+    /**
+     * Returns the generators with the highest total emission cost, most expensive first.
+     */
+    static List<Map.Entry<String, ParticleGenerator>> top(Map<String, ParticleGenerator> generators, int limit) {
+        // The heap is sized up front, so never ask for more than there are generators
+        limit = Math.min(limit, generators.size());
+        if (limit < 1) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<Map.Entry<String, ParticleGenerator>> heap = new PriorityQueue<>(limit + 1, BY_COST);
+        for (Map.Entry<String, ParticleGenerator> entry : generators.entrySet()) {
+            if (heap.size() < limit) {
+                heap.add(entry);
+            } else if (entry.getValue().getCostNanos() > heap.peek().getValue().getCostNanos()) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        List<Map.Entry<String, ParticleGenerator>> top = new ArrayList<>(heap);
+        top.sort(Collections.reverseOrder(BY_COST));
+        return top;
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text exposition format. Must run on the main thread.
+     */
+    String renderPrometheus(ParticleGeneratorPlugin plugin, int topGenerators) {
+        StringBuilder out = new StringBuilder(2048);
+        summary(out, "particlegen_tick_seconds", "Time spent in the scheduler tick", tickNanos);
+        summary(out, "particlegen_dispatch_seconds", "Time spent sending batched emissions to viewers", dispatchNanos);
+        summary(out, "particlegen_emission_seconds", "Time spent per generator emission", emitNanos);
+        summary(out, "particlegen_plan_seconds", "Worker time spent planning a tick ahead", planNanos);
+        summary(out, "particlegen_save_queue_seconds", "Main thread time spent queueing generator saves", saveGeneratorNanos);
+        summary(out, "particlegen_save_write_seconds", "Time spent writing generators to storage", plugin.getStore().getWriteLatency());
+
+        counter(out, "particlegen_emissions_total", "Emissions queued by generators", emissions);
+        counter(out, "particlegen_particles_total", "Particles queued by generators", particles);
+        counter(out, "particlegen_packets_total", "Particle packets handed to the sink", packets);
+        counter(out, "particlegen_skipped_total", "Firings skipped for lack of viewers or throttling", skipped);
+        counter(out, "particlegen_late_plans_total", "Ticks that had to wait for their emission plan", latePlans);
+
+        out.append("# HELP particlegen_generators Generators by state\n");
+        out.append("# TYPE particlegen_generators gauge\n");
+        out.append("particlegen_generators{state=\"total\"} ").append(plugin.getGenerators().size()).append('\n');
+        out.append("particlegen_generators{state=\"active\"} ").append(plugin.getScheduler().getRegisteredCount()).append('\n');
+        gauge(out, "particlegen_throttle_level", "Current adaptive throttle level", plugin.getBudgetManager().getLevel());
+        gauge(out, "particlegen_save_queue_depth", "Generator changes waiting to be written", plugin.getStore().getDirtyCount() + plugin.getStore().getQueuedWrites());
+
+        out.append("# HELP particlegen_generator_cost_seconds_total Total emission time of the most expensive generators\n");
+        out.append("# TYPE particlegen_generator_cost_seconds_total counter\n");
+        for (Map.Entry<String, ParticleGenerator> entry : top(plugin.getGenerators(), topGenerators)) {
+            out.append("particlegen_generator_cost_seconds_total{generator=\"").append(escape(entry.getKey())).append("\"} ")
+                    .append(seconds(entry.getValue().getCostNanos())).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void summary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        quantile(out, name, "0.5", histogram.getPercentile(50));
+        quantile(out, name, "0.9", histogram.getPercentile(90));
+        quantile(out, name, "0.99", histogram.getPercentile(99));
+        quantile(out, name, "1", histogram.getMax());
+        out.append(name).append("_sum ").append(seconds(histogram.getSum())).append('\n');
+        out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static void quantile(StringBuilder out, String name, String quantile, long nanos) {
+        out.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(seconds(nanos)).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1_000_000_000.0);
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
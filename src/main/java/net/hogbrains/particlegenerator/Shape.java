@@ -0,0 +1,140 @@
+package net.hogbrains.particlegenerator;
+
+import java.util.Locale;
+
+/**
+ * Precomputed point set a generator emits around its position instead of a single point.
+ * Points are stored as interleaved x, y, z offsets. Spinning shapes keep one rotated copy
+ * per frame, so animating them only advances a frame index.
+ *
+ * Instances are immutable and shared through the {@link ShapeCache}.
+ */
+final class Shape {
+
+    enum Type {
+        RING, SPHERE, HELIX, LINE, IMAGE
+    }
+
+    private final String spec;
+    private final Type type;
+    private final double[][] frames;
+    private final double extent;
+
+    Shape(String spec, Type type, double[][] frames) {
+        this.spec = spec;
+        this.type = type;
+        this.frames = frames;
+        double max = 0;
+        double[] points = frames[0];
+        for (int i = 0; i < points.length; i += 3) {
+            max = Math.max(max, points[i] * points[i] + points[i + 1] * points[i + 1] + points[i + 2] * points[i + 2]);
+        }
+        this.extent = Math.sqrt(max);
+    }
+
+    /**
+     * Returns the canonical spec this shape was built from, as stored with the generator.
+     */
+    public String getSpec() {
+        return spec;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    /**
+     * Returns the interleaved offsets of one frame. The array is shared and must not be modified.
+     */
+    public double[] getFrame(int frame) {
+        return frames[frame];
+    }
+
+    public int getPointCount() {
+        return frames[0].length / 3;
+    }
+
+    /**
+     * Returns the distance of the furthest point from the generator position.
+     */
+    public double getExtent() {
+        return extent;
+    }
+
+    static double[] ring(double radius, int points) {
+        double[] offsets = new double[points * 3];
+        for (int i = 0; i < points; i++) {
+            double angle = 2 * Math.PI * i / points;
+            offsets[i * 3] = radius * Math.cos(angle);
+            offsets[i * 3 + 2] = radius * Math.sin(angle);
+        }
+        return offsets;
+    }
+
+    static double[] sphere(double radius, int points) {
+        // Fibonacci lattice, which spreads the points evenly over the surface
+        double goldenAngle = Math.PI * (3 - Math.sqrt(5));
+        double[] offsets = new double[points * 3];
+        for (int i = 0; i < points; i++) {
+            double y = 1 - 2 * (i + 0.5) / points;
+            double ring = Math.sqrt(1 - y * y);
+            double angle = goldenAngle * i;
+            offsets[i * 3] = radius * ring * Math.cos(angle);
+            offsets[i * 3 + 1] = radius * y;
+            offsets[i * 3 + 2] = radius * ring * Math.sin(angle);
+        }
+        return offsets;
+    }
+
+    static double[] helix(double radius, double height, double turns, int points) {
+        double[] offsets = new double[points * 3];
+        for (int i = 0; i < points; i++) {
+            double t = points == 1 ? 0 : (double) i / (points - 1);
+            double angle = 2 * Math.PI * turns * t;
+            offsets[i * 3] = radius * Math.cos(angle);
+            offsets[i * 3 + 1] = height * t;
+            offsets[i * 3 + 2] = radius * Math.sin(angle);
+        }
+        return offsets;
+    }
+
+    static double[] line(double length, int points) {
+        double[] offsets = new double[points * 3];
+        for (int i = 0; i < points; i++) {
+            offsets[i * 3] = points == 1 ? 0 : length * i / (points - 1);
+        }
+        return offsets;
+    }
+
+    /**
+     * Tilts the points around the X axis by the pitch, then turns them around the Y axis by the yaw.
+     */
+    static double[] rotate(double[] offsets, double yaw, double pitch) {
+        double yawSin = Math.sin(Math.toRadians(yaw));
+        double yawCos = Math.cos(Math.toRadians(yaw));
+        double pitchSin = Math.sin(Math.toRadians(pitch));
+        double pitchCos = Math.cos(Math.toRadians(pitch));
+        double[] rotated = new double[offsets.length];
+        for (int i = 0; i < offsets.length; i += 3) {
+            double x = offsets[i];
+            double y = offsets[i + 1] * pitchCos - offsets[i + 2] * pitchSin;
+            double z = offsets[i + 1] * pitchSin + offsets[i + 2] * pitchCos;
+            rotated[i] = x * yawCos - z * yawSin;
+            rotated[i + 1] = y;
+            rotated[i + 2] = x * yawSin + z * yawCos;
+        }
+        return rotated;
+    }
+
+    static Type parseType(String name) {
+        try {
+            return Type.valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown shape " + name);
+        }
+    }
+}
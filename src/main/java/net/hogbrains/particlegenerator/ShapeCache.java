@@ -0,0 +1,255 @@
+package net.hogbrains.particlegenerator;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Parses shape specs and keeps one precomputed {@link Shape} per distinct spec, so every
+ * generator using the same shape and parameters shares the same point buffers.
+ *
+ * A spec is the shape type followed by optional comma separated parameters, for example
+ * {@code ring,radius=2,points=32,spin=15}. Parameters left at their default are dropped
+ * from the canonical spec so equivalent shapes end up with the same key.
+ */
+class ShapeCache {
+
+    // Upper bound on stored points across all frames of a single shape
+    private static final int MAX_STORED_POINTS = 1 << 17;
+    private static final int MAX_POINTS = 4096;
+
+    // Canonical parameter order; the first entries are only valid for some types
+    private static final List<String> PARAMETERS = Arrays.asList("file", "radius", "length", "height", "turns", "points", "scale", "yaw", "pitch", "spin");
+
+    private final File imageFolder;
+    private final Map<String, Shape> shapes = new HashMap<>();
+
+    ShapeCache(File imageFolder) {
+        this.imageFolder = imageFolder;
+    }
+
+    /**
+     * Returns the shape for the given spec, computing its points on first use.
+     *
+     * @throws IllegalArgumentException if the spec is invalid or its image can't be read
+     */
+    public Shape get(String spec) {
+        // Only canonical specs are keys, so typing variants can't grow the cache
+        Shape shape = shapes.get(spec);
+        if (shape != null) {
+            return shape;
+        }
+        String[] parts = spec.split(",");
+        Shape.Type type = Shape.parseType(parts[0].trim());
+        Map<String, String> values = new TreeMap<>();
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i].trim();
+            int separator = part.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + part);
+            }
+            String key = part.substring(0, separator).toLowerCase(Locale.ROOT);
+            if (!PARAMETERS.contains(key) || !defaults(type).containsKey(key)) {
+                throw new IllegalArgumentException("Unknown parameter " + key + " for " + type.name().toLowerCase(Locale.ROOT));
+            }
+            values.put(key, part.substring(separator + 1));
+        }
+
+        // Build the canonical spec first, so equivalent specs share one entry
+        String canonical = canonicalize(type, values);
+        shape = shapes.get(canonical);
+        if (shape == null) {
+            shape = build(canonical, type, values);
+            shapes.put(canonical, shape);
+        }
+        return shape;
+    }
+
+    public int size() {
+        return shapes.size();
+    }
+
+    public void clear() {
+        shapes.clear();
+    }
+
+    private String canonicalize(Shape.Type type, Map<String, String> values) {
+        Map<String, Double> defaults = defaults(type);
+        StringBuilder builder = new StringBuilder(type.name().toLowerCase(Locale.ROOT));
+        for (String key : PARAMETERS) {
+            String value = values.get(key);
+            if (value == null) {
+                continue;
+            }
+            if (key.equals("file")) {
+                builder.append(",file=").append(value);
+                continue;
+            }
+            double number = parseNumber(key, value);
+            if (number != defaults.get(key)) {
+                builder.append(',').append(key).append('=').append(formatNumber(number));
+            }
+        }
+        return builder.toString();
+    }
+
+    private Shape build(String canonical, Shape.Type type, Map<String, String> values) {
+        Map<String, Double> defaults = defaults(type);
+        int points = (int) number(values, defaults, "points");
+        if (points < 1 || points > MAX_POINTS) {
+            throw new IllegalArgumentException("Points must be between 1 and " + MAX_POINTS);
+        }
+        double[] base;
+        switch (type) {
+            case RING:
+                base = Shape.ring(number(values, defaults, "radius"), points);
+                break;
+            case SPHERE:
+                base = Shape.sphere(number(values, defaults, "radius"), points);
+                break;
+            case HELIX:
+                base = Shape.helix(number(values, defaults, "radius"), number(values, defaults, "height"), number(values, defaults, "turns"), points);
+                break;
+            case LINE:
+                base = Shape.line(number(values, defaults, "length"), points);
+                break;
+            default:
+                String file = values.get("file");
+                if (file == null) {
+                    throw new IllegalArgumentException("Image shapes need a file parameter");
+                }
+                base = image(file, number(values, defaults, "scale"), points);
+                break;
+        }
+        base = Shape.rotate(base, number(values, defaults, "yaw"), number(values, defaults, "pitch"));
+
+        // A spinning shape stores one copy per step of a full turn around the Y axis
+        double spin = number(values, defaults, "spin");
+        // Computed as a long, since a tiny spin needs more frames than an int holds
+        long frameCount = spin == 0 ? 1 : Math.max(1, Math.round(360 / Math.abs(spin)));
+        if (frameCount > MAX_STORED_POINTS || frameCount * (base.length / 3) > MAX_STORED_POINTS) {
+            throw new IllegalArgumentException("Too many points for this spin, use fewer points or a larger spin");
+        }
+        double[][] frames = new double[(int) frameCount][];
+        frames[0] = base;
+        for (int i = 1; i < frameCount; i++) {
+            frames[i] = Shape.rotate(base, spin * i, 0);
+        }
+        return new Shape(canonical, type, frames);
+    }
+
+    private double[] image(String file, double scale, int maxPoints) {
+        File imageFile = new File(imageFolder, file);
+        // Keep lookups inside the images folder
+        try {
+            if (!imageFile.getCanonicalPath().startsWith(imageFolder.getCanonicalPath() + File.separator)) {
+                throw new IllegalArgumentException("Invalid image file " + file);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid image file " + file);
+        }
+        BufferedImage image;
+        try {
+            image = ImageIO.read(imageFile);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read image " + file);
+        }
+        if (image == null) {
+            throw new IllegalArgumentException("Could not read image " + file);
+        }
+
+        // Every opaque pixel becomes a point, thinned out evenly if there are too many
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int opaque = 0;
+        for (int py = 0; py < height; py++) {
+            for (int px = 0; px < width; px++) {
+                if ((image.getRGB(px, py) >>> 24) >= 128) {
+                    opaque++;
+                }
+            }
+        }
+        if (opaque == 0) {
+            throw new IllegalArgumentException("Image " + file + " has no opaque pixels");
+        }
+        int stride = Math.max(1, (opaque + maxPoints - 1) / maxPoints);
+        double[] offsets = new double[(opaque + stride - 1) / stride * 3];
+        int seen = 0;
+        int index = 0;
+        for (int py = 0; py < height; py++) {
+            for (int px = 0; px < width; px++) {
+                if ((image.getRGB(px, py) >>> 24) >= 128 && seen++ % stride == 0) {
+                    offsets[index++] = (px - width / 2.0) * scale;
+                    offsets[index++] = (height - 1 - py) * scale;
+                    offsets[index++] = 0;
+                }
+            }
+        }
+        return index == offsets.length ? offsets : Arrays.copyOf(offsets, index);
+    }
+
+    private static double number(Map<String, String> values, Map<String, Double> defaults, String key) {
+        String value = values.get(key);
+        return value == null ? defaults.get(key) : parseNumber(key, value);
+    }
+
+    private static double parseNumber(String key, String value) {
+        double number;
+        try {
+            number = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + key + " " + value);
+        }
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            throw new IllegalArgumentException("Invalid " + key + " " + value);
+        }
+        if ((key.equals("radius") || key.equals("scale")) && number <= 0) {
+            throw new IllegalArgumentException(key + " must be positive");
+        }
+        return number;
+    }
+
+    private static String formatNumber(double number) {
+        return number == Math.rint(number) && Math.abs(number) < 1e15 ? String.valueOf((long) number) : String.valueOf(number);
+    }
+
+    private static Map<String, Double> defaults(Shape.Type type) {
+        Map<String, Double> defaults = new HashMap<>();
+        defaults.put("yaw", 0.0);
+        defaults.put("pitch", 0.0);
+        defaults.put("spin", 0.0);
+        switch (type) {
+            case RING:
+                defaults.put("radius", 1.0);
+                defaults.put("points", 16.0);
+                break;
+            case SPHERE:
+                defaults.put("radius", 1.0);
+                defaults.put("points", 64.0);
+                break;
+            case HELIX:
+                defaults.put("radius", 1.0);
+                defaults.put("height", 2.0);
+                defaults.put("turns", 2.0);
+                defaults.put("points", 48.0);
+                break;
+            case LINE:
+                defaults.put("length", 3.0);
+                defaults.put("points", 10.0);
+                break;
+            case IMAGE:
+                defaults.put("file", null);
+                defaults.put("scale", 0.1);
+                defaults.put("points", 1024.0);
+                break;
+        }
+        return defaults;
+    }
+}
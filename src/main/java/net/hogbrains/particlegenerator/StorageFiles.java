@@ -0,0 +1,29 @@
+package net.hogbrains.particlegenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+final class StorageFiles {
+
+    private StorageFiles() {
+    }
+
+    /**
+     * Writes to a sibling temp file and renames it over the target, so readers never see
+     * a partially written file.
+     */
+    static void writeAtomically(File file, byte[] contents) throws IOException {
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+        Files.write(temp, contents);
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.command.CommandSender;
+
+import java.util.List;
+
+/**
+ * Entry in the /particlegen dispatch table: the handler that runs the subcommand, the
+ * completer for its arguments and whether it needs a player's location.
+ *
+ * Handlers and completers get the full argument array, so args[0] is the subcommand.
+ */
+final class SubCommand {
+
+    interface Handler {
+        void run(CommandSender sender, String[] args);
+    }
+
+    interface Completer {
+        /**
+         * Returns suggestions for the last argument, or null for none.
+         */
+        List<String> complete(CommandSender sender, String[] args);
+    }
+
+    final String name;
+    final boolean playerOnly;
+    final Handler handler;
+    final Completer completer;
+
+    SubCommand(String name, boolean playerOnly, Handler handler, Completer completer) {
+        this.name = name;
+        this.playerOnly = playerOnly;
+        this.handler = handler;
+        this.completer = completer;
+    }
+}
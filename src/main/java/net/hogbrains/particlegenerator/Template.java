@@ -0,0 +1,158 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Named parameter block shared by its member generators. Members that override nothing
+ * reference the template's {@link ParticleParams} instance directly.
+ */
+final class Template {
+
+    private final String name;
+    private ParticleParams params;
+    private final Set<ParticleGenerator> members = new HashSet<>();
+
+    Template(String name, ParticleParams params) {
+        this.name = name;
+        this.params = params;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ParticleParams getParams() {
+        return params;
+    }
+
+    /**
+     * Replaces the parameters and applies them to every member right away.
+     */
+    public void setParams(ParticleParams params) {
+        this.params = params;
+        for (ParticleGenerator member : members) {
+            member.onTemplateChanged();
+        }
+    }
+
+    public Set<ParticleGenerator> getMembers() {
+        return Collections.unmodifiableSet(members);
+    }
+
+    void addMember(ParticleGenerator generator) {
+        members.add(generator);
+    }
+
+    void removeMember(ParticleGenerator generator) {
+        members.remove(generator);
+    }
+
+    /**
+     * Formats the parameters like the tail of a generator string: the seven emission fields
+     * followed by optional key=value properties.
+     */
+    String format() {
+        StringBuilder builder = new StringBuilder(64);
+        builder.append(params.particle).append(';')
+                .append(params.count).append(';')
+                .append(params.interval).append(';')
+                .append(params.speed).append(';')
+                .append(params.offsetX).append(';')
+                .append(params.offsetY).append(';')
+                .append(params.offsetZ).append(';')
+                .append("viewRadius=").append(params.viewRadius);
+        if (params.priority != 0) {
+            builder.append(";priority=").append(params.priority);
+        }
+        if (params.shape != null) {
+            builder.append(";shape=").append(params.shape.getSpec());
+        }
+        if (params.lod != null) {
+            builder.append(";lod=").append(params.lod.getSpec());
+        }
+        if (params.animation != null) {
+            builder.append(";animation=").append(params.animation.getSpec());
+        }
+        if (params.data != ParticleData.NONE) {
+            builder.append(";data=").append(params.data.getSpec());
+        }
+        if (params.trigger != null) {
+            builder.append(";trigger=").append(params.trigger.getSpec());
+        }
+        return builder.toString();
+    }
+
+    static Template parse(String name, String value, ParticleGeneratorPlugin plugin) {
+        String[] parts = value.split(";");
+        int viewRadius = plugin.getDefaultViewRadius();
+        int priority = 0;
+        Shape shape = null;
+        LodTiers lod = null;
+        Animation animation = null;
+        Trigger trigger = null;
+        Particle particle = Particle.valueOf(parts[0]);
+        ParticleData data = ParticleData.NONE;
+        for (int i = 7; i < parts.length; i++) {
+            int separator = parts[i].indexOf('=');
+            if (separator <= 0) {
+                continue;
+            }
+            String key = parts[i].substring(0, separator);
+            String property = parts[i].substring(separator + 1);
+            if (key.equals("viewRadius")) {
+                viewRadius = Integer.parseInt(property);
+            } else if (key.equals("priority")) {
+                priority = BudgetManager.clampPriority(Integer.parseInt(property));
+                if (priority != Integer.parseInt(property)) {
+                    plugin.getLogger().warning("Template " + name + " has priority " + property + ", using " + priority);
+                }
+            } else if (key.equals("shape")) {
+                try {
+                    shape = plugin.getShapeCache().get(property);
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("Ignoring shape of template " + name + ": " + e.getMessage());
+                }
+            } else if (key.equals("lod")) {
+                try {
+                    lod = LodTiers.parse(property);
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("Ignoring LOD tiers of template " + name + ": " + e.getMessage());
+                }
+            } else if (key.equals("data")) {
+                try {
+                    data = ParticleData.parse(particle, property);
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("Ignoring particle data of template " + name + ": " + e.getMessage());
+                }
+            } else if (key.equals("animation")) {
+                try {
+                    animation = Animation.parse(property);
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("Ignoring animation of template " + name + ": " + e.getMessage());
+                }
+            } else if (key.equals("trigger")) {
+                try {
+                    trigger = Trigger.parse(property);
+                } catch (IllegalArgumentException e) {
+                    plugin.getLogger().warning("Ignoring trigger of template " + name + ": " + e.getMessage());
+                }
+            }
+        }
+        int storedCount = Integer.parseInt(parts[1]);
+        int count = plugin.getBudgetManager().clampCount(storedCount);
+        if (count != storedCount) {
+            plugin.getLogger().warning("Template " + name + " has count " + storedCount + ", using " + count);
+        }
+        int storedInterval = Integer.parseInt(parts[2]);
+        int interval = plugin.getBudgetManager().clampInterval(storedInterval);
+        if (interval != storedInterval) {
+            plugin.getLogger().warning("Template " + name + " has interval " + storedInterval + ", using " + interval + " ticks");
+        }
+        return new Template(name, new ParticleParams(particle, data, count, interval, Double.parseDouble(parts[3]),
+                Double.parseDouble(parts[4]), Double.parseDouble(parts[5]), Double.parseDouble(parts[6]), viewRadius, priority, shape, lod, animation, trigger));
+    }
+}
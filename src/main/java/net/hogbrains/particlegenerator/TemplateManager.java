@@ -0,0 +1,79 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the named templates and persists them to templates.yml. Generators only store the
+ * template name and their overrides, so editing a template is a single small write no
+ * matter how many generators use it.
+ */
+class TemplateManager {
+
+    private final ParticleGeneratorPlugin plugin;
+    private final File file;
+    private final Map<String, Template> templates = new LinkedHashMap<>();
+
+    TemplateManager(ParticleGeneratorPlugin plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), "templates.yml");
+    }
+
+    /**
+     * Loads templates.yml. Called before the generators are loaded so they can resolve
+     * their templates.
+     */
+    public void load() {
+        templates.clear();
+        if (!file.exists()) {
+            return;
+        }
+        ConfigurationSection section = YamlConfiguration.loadConfiguration(file).getConfigurationSection("templates");
+        if (section == null) {
+            return;
+        }
+        for (String name : section.getKeys(false)) {
+            try {
+                templates.put(name, Template.parse(name, section.getString(name), plugin));
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                plugin.getLogger().warning("Ignoring invalid template " + name + " in templates.yml");
+            }
+        }
+    }
+
+    public Template get(String name) {
+        return templates.get(name);
+    }
+
+    public Collection<Template> getTemplates() {
+        return templates.values();
+    }
+
+    public void add(Template template) {
+        templates.put(template.getName(), template);
+        save();
+    }
+
+    public void remove(Template template) {
+        templates.remove(template.getName());
+        save();
+    }
+
+    /**
+     * Queues templates.yml to be rewritten with the current templates.
+     */
+    public void save() {
+        YamlConfiguration config = new YamlConfiguration();
+        ConfigurationSection section = config.createSection("templates");
+        for (Template template : templates.values()) {
+            section.set(template.getName(), template.format());
+        }
+        plugin.getStore().writeFile(file, config.saveToString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,221 @@
+package net.hogbrains.particlegenerator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The running generators of one {@link WorldShard}, kept in a timing wheel: one bucket per
+ * interval, each bucket split into phase slots. Every tick, each bucket fires only the
+ * slot whose phase matches the current tick, so generators sharing an interval are spread
+ * across ticks. A bucket only holds slots for the phases in use, so a long interval costs
+ * no more than a short one.
+ *
+ * A wheel is dropped as a whole when its world unloads. Generators still pointing at one
+ * of its buckets count as unregistered from then on.
+ */
+final class TimingWheel {
+
+    private final Map<Integer, IntervalBucket> buckets = new HashMap<>();
+    private IntervalBucket[] bucketArray = new IntervalBucket[0];
+
+    public void register(ParticleGenerator generator) {
+        if (generator.bucket != null && generator.bucket.wheel == this) {
+            return;
+        }
+        int interval = Math.max(1, generator.getInterval());
+        IntervalBucket bucket = buckets.get(interval);
+        if (bucket == null) {
+            bucket = new IntervalBucket(this, interval);
+            buckets.put(interval, bucket);
+            rebuildBucketArray();
+        }
+        bucket.add(generator);
+    }
+
+    public void unregister(ParticleGenerator generator) {
+        IntervalBucket bucket = generator.bucket;
+        if (bucket == null) {
+            return;
+        }
+        if (bucket.wheel != this) {
+            // Left over from a wheel that was dropped with its world
+            generator.bucket = null;
+            return;
+        }
+        bucket.remove(generator);
+        if (bucket.size == 0) {
+            buckets.remove(bucket.interval);
+            rebuildBucketArray();
+        }
+    }
+
+    public void reschedule(ParticleGenerator generator) {
+        // Only move the generator if its interval no longer matches its bucket
+        IntervalBucket bucket = generator.bucket;
+        if (bucket != null && bucket.wheel == this && bucket.interval != Math.max(1, generator.getInterval())) {
+            unregister(generator);
+            register(generator);
+        }
+    }
+
+    boolean contains(ParticleGenerator generator) {
+        return generator.bucket != null && generator.bucket.wheel == this;
+    }
+
+    /**
+     * Fires every generator due at the tick.
+     */
+    void fire(long tick, EmissionTarget target, ViewerQuery viewers, int throttleLevel, PluginMetrics metrics) {
+        for (IntervalBucket bucket : bucketArray) {
+            bucket.fire(tick, target, viewers, throttleLevel, metrics);
+        }
+    }
+
+    /**
+     * Hands every generator due at the tick to the planner.
+     */
+    void collect(long tick, EmissionPlanner planner) {
+        for (IntervalBucket bucket : bucketArray) {
+            bucket.collect(tick, planner);
+        }
+    }
+
+    public int getRegisteredCount() {
+        int total = 0;
+        for (IntervalBucket bucket : bucketArray) {
+            total += bucket.size;
+        }
+        return total;
+    }
+
+    private void rebuildBucketArray() {
+        bucketArray = buckets.values().toArray(new IntervalBucket[0]);
+    }
+
+    static final class IntervalBucket {
+        final TimingWheel wheel;
+        final int interval;
+        // Only phases that hold generators have a slot, so memory follows the generator
+        // count rather than the interval
+        private final LongHashMap<PhaseSlot> slots = new LongHashMap<>();
+        // Where the search for a free phase starts next
+        private int nextPhase;
+        int size;
+
+        IntervalBucket(TimingWheel wheel, int interval) {
+            this.wheel = wheel;
+            this.interval = interval;
+        }
+
+        void fire(long tick, EmissionTarget target, ViewerQuery viewers, int throttleLevel, PluginMetrics metrics) {
+            PhaseSlot slot = slots.get(tick % interval);
+            if (slot == null) {
+                return;
+            }
+            ParticleGenerator[] generators = slot.generators;
+            int count = slot.size;
+            boolean timing = metrics.isGeneratorTiming();
+            for (int i = 0; i < count; i++) {
+                ParticleGenerator generator = generators[i];
+                long start = timing ? System.nanoTime() : 0;
+                int emitted = generator.emit(target, viewers, throttleLevel, tick);
+                long elapsed = timing ? System.nanoTime() - start : 0;
+                generator.recordFiring(emitted, elapsed);
+                if (timing) {
+                    metrics.emitNanos.record(elapsed);
+                }
+                if (emitted < 0) {
+                    metrics.skipped++;
+                } else {
+                    metrics.emissions++;
+                    metrics.particles += emitted;
+                }
+            }
+        }
+
+        void collect(long tick, EmissionPlanner planner) {
+            PhaseSlot slot = slots.get(tick % interval);
+            if (slot != null) {
+                planner.addDue(slot.generators, slot.size);
+            }
+        }
+
+        void add(ParticleGenerator generator) {
+            PhaseSlot slot = slots.size() < interval ? freeSlot() : leastPopulatedSlot();
+            ParticleGenerator[] generators = slot.generators;
+            int index = slot.size;
+            if (index == generators.length) {
+                generators = Arrays.copyOf(generators, index * 2);
+                slot.generators = generators;
+            }
+            generators[index] = generator;
+            slot.size = index + 1;
+            generator.bucket = this;
+            generator.slot = slot;
+            generator.slotIndex = index;
+            size++;
+        }
+
+        /**
+         * Opens a slot on a phase no generator uses yet. Only called while such a phase
+         * exists, so the search ends within one more step than there are slots.
+         */
+        private PhaseSlot freeSlot() {
+            int phase = nextPhase;
+            while (slots.containsKey(phase)) {
+                phase = phase + 1 == interval ? 0 : phase + 1;
+            }
+            nextPhase = phase + 1 == interval ? 0 : phase + 1;
+            PhaseSlot slot = new PhaseSlot(phase);
+            slots.put(phase, slot);
+            return slot;
+        }
+
+        /**
+         * Every phase is taken, which means the interval is no larger than the number of
+         * generators, so walking all of them is cheap.
+         */
+        private PhaseSlot leastPopulatedSlot() {
+            PhaseSlot least = slots.get(0);
+            for (int phase = 1; phase < interval; phase++) {
+                PhaseSlot slot = slots.get(phase);
+                if (slot.size < least.size) {
+                    least = slot;
+                }
+            }
+            return least;
+        }
+
+        void remove(ParticleGenerator generator) {
+            // Swap the last generator of the slot into the freed position
+            PhaseSlot slot = generator.slot;
+            ParticleGenerator[] generators = slot.generators;
+            int last = slot.size - 1;
+            ParticleGenerator moved = generators[last];
+            generators[generator.slotIndex] = moved;
+            moved.slotIndex = generator.slotIndex;
+            generators[last] = null;
+            slot.size = last;
+            if (last == 0) {
+                slots.remove(slot.phase);
+            }
+            generator.bucket = null;
+            generator.slot = null;
+            size--;
+        }
+    }
+
+    /**
+     * The generators of one bucket that fire on the same phase.
+     */
+    static final class PhaseSlot {
+        final int phase;
+        ParticleGenerator[] generators = new ParticleGenerator[4];
+        int size;
+
+        PhaseSlot(int phase) {
+            this.phase = phase;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package net.hogbrains.particlegenerator;
+
+import java.util.Locale;
+
+/**
+ * Condition a generator waits for before it emits. Until the condition holds the generator
+ * is kept out of the scheduler entirely, and {@link TriggerManager} arms it again when a
+ * player, redstone or a signal fires it. Areas and blocks are relative to the generator, so
+ * a trigger follows the generator when it is moved and fits any member of a template.
+ *
+ * Written as {@code kind[:arg,...]}:
+ * {@code proximity:radius} runs while a player is within the radius,
+ * {@code region:dx1,dy1,dz1,dx2,dy2,dz2} runs while a player is inside the box,
+ * {@code redstone[:dx,dy,dz]} runs while the block is powered, by default the block below
+ * the generator, and {@code signal:name[,ticks]} runs for a while after
+ * {@code /particlegen signal name}.
+ */
+final class Trigger {
+
+    enum Kind {
+        PROXIMITY, REGION, REDSTONE, SIGNAL
+    }
+
+    // Farthest a trigger area reaches from its generator, which bounds the chunks it is indexed in
+    static final int MAX_EXTENT = 128;
+    static final int DEFAULT_SIGNAL_TICKS = 100;
+
+    private final String spec;
+    private final Kind kind;
+    // Area around the generator: the box for regions, the bounding box of the sphere for
+    // proximity and the watched block for redstone
+    final double minX;
+    final double minY;
+    final double minZ;
+    final double maxX;
+    final double maxY;
+    final double maxZ;
+    final double radius;
+    final String signal;
+    final int ticks;
+
+    private Trigger(String spec, Kind kind, double minX, double minY, double minZ, double maxX, double maxY, double maxZ, double radius, String signal, int ticks) {
+        this.spec = spec;
+        this.kind = kind;
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.radius = radius;
+        this.signal = signal;
+        this.ticks = ticks;
+    }
+
+    /**
+     * Parses a trigger spec, normalizing how its numbers are written.
+     *
+     * @throws IllegalArgumentException if the spec is invalid
+     */
+    static Trigger parse(String spec) {
+        String trimmed = spec.trim();
+        int separator = trimmed.indexOf(':');
+        String kind = (separator < 0 ? trimmed : trimmed.substring(0, separator)).toLowerCase(Locale.ROOT);
+        String[] args = separator < 0 ? new String[0] : trimmed.substring(separator + 1).split(",");
+        if (kind.equals("proximity")) {
+            if (args.length != 1) {
+                throw new IllegalArgumentException("Expected proximity:radius");
+            }
+            double radius = parseExtent(args[0]);
+            if (radius <= 0) {
+                throw new IllegalArgumentException("Radius must be above 0");
+            }
+            return new Trigger("proximity:" + radius, Kind.PROXIMITY, -radius, -radius, -radius, radius, radius, radius, radius, null, 0);
+        } else if (kind.equals("region")) {
+            if (args.length != 6) {
+                throw new IllegalArgumentException("Expected region:dx1,dy1,dz1,dx2,dy2,dz2");
+            }
+            double[] corners = new double[6];
+            for (int i = 0; i < 6; i++) {
+                corners[i] = parseExtent(args[i]);
+            }
+            double minX = Math.min(corners[0], corners[3]);
+            double minY = Math.min(corners[1], corners[4]);
+            double minZ = Math.min(corners[2], corners[5]);
+            double maxX = Math.max(corners[0], corners[3]);
+            double maxY = Math.max(corners[1], corners[4]);
+            double maxZ = Math.max(corners[2], corners[5]);
+            return new Trigger("region:" + minX + "," + minY + "," + minZ + "," + maxX + "," + maxY + "," + maxZ, Kind.REGION, minX, minY, minZ, maxX, maxY, maxZ, 0, null, 0);
+        } else if (kind.equals("redstone")) {
+            int[] block = {0, -1, 0};
+            if (args.length == 3) {
+                for (int i = 0; i < 3; i++) {
+                    Integer value = Arguments.parseInt(args[i].trim());
+                    if (value == null || Math.abs(value) > MAX_EXTENT) {
+                        throw new IllegalArgumentException("Block offsets must be whole numbers up to " + MAX_EXTENT);
+                    }
+                    block[i] = value;
+                }
+            } else if (args.length != 0) {
+                throw new IllegalArgumentException("Expected redstone or redstone:dx,dy,dz");
+            }
+            return new Trigger("redstone:" + block[0] + "," + block[1] + "," + block[2], Kind.REDSTONE, block[0], block[1], block[2], block[0], block[1], block[2], 0, null, 0);
+        } else if (kind.equals("signal")) {
+            if (args.length < 1 || args.length > 2) {
+                throw new IllegalArgumentException("Expected signal:name[,ticks]");
+            }
+            String name = args[0].trim().toLowerCase(Locale.ROOT);
+            if (name.isEmpty() || !name.matches("[a-z0-9_.-]+")) {
+                throw new IllegalArgumentException("Signal names may only use letters, digits, _, . and -");
+            }
+            int ticks = DEFAULT_SIGNAL_TICKS;
+            if (args.length > 1) {
+                Integer value = Arguments.parseInt(args[1].trim());
+                if (value == null || value < 1) {
+                    throw new IllegalArgumentException("Ticks must be a whole number above 0");
+                }
+                ticks = value;
+            }
+            return new Trigger("signal:" + name + "," + ticks, Kind.SIGNAL, 0, 0, 0, 0, 0, 0, 0, name, ticks);
+        }
+        throw new IllegalArgumentException("Unknown trigger " + kind + ", expected proximity, region, redstone or signal");
+    }
+
+    private static double parseExtent(String value) {
+        Double number = Arguments.parseDouble(value.trim());
+        if (number == null) {
+            throw new IllegalArgumentException("Invalid number " + value.trim());
+        }
+        if (Math.abs(number) > MAX_EXTENT) {
+            throw new IllegalArgumentException("Triggers reach at most " + MAX_EXTENT + " blocks from their generator");
+        }
+        return number;
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns whether a player at the position relative to the generator fires a proximity
+     * or region trigger.
+     */
+    boolean contains(double dx, double dy, double dz) {
+        if (kind == Kind.PROXIMITY) {
+            return dx * dx + dy * dy + dz * dz <= radius * radius;
+        }
+        return kind == Kind.REGION && dx >= minX && dx <= maxX && dy >= minY && dy <= maxY && dz >= minZ && dz <= maxZ;
+    }
+
+    /**
+     * Returns the canonical spec, as stored with the generator.
+     */
+    public String getSpec() {
+        return spec;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Trigger && spec.equals(((Trigger) o).spec);
+    }
+
+    @Override
+    public int hashCode() {
+        return spec.hashCode();
+    }
+}
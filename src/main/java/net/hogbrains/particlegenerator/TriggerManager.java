@@ -0,0 +1,431 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockRedstoneEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Arms and disarms generators that have a {@link Trigger}. A disarmed generator is not in
+ * the scheduler at all, so it costs nothing per tick.
+ *
+ * Proximity, region and redstone triggers are indexed by world and by every chunk their
+ * area overlaps, so a player move only looks at the triggers of the chunk the player is
+ * in, and a redstone change only at those of the chunk the block is in. Armed triggers
+ * are checked again every few ticks and disarmed once their condition no longer holds.
+ * The checking task only runs while anything is armed or waiting to be checked.
+ */
+class TriggerManager implements Listener, Runnable {
+
+    // Ticks between checks whether an armed trigger still holds
+    private static final int CHECK_INTERVAL = 10;
+
+    private final Plugin plugin;
+    private final PlayerTracker tracker;
+    private final GeneratorIndex index;
+    // Proximity, region and redstone entries by world name and chunk
+    private final Map<String, LongHashMap<ArrayList<Entry>>> worlds = new HashMap<>();
+    private final Map<String, ArrayList<Entry>> signals = new HashMap<>();
+    private final ArrayList<Entry> armed = new ArrayList<>();
+    // Entries whose condition is evaluated on the next tick
+    private final ArrayList<Entry> pending = new ArrayList<>();
+    private int triggered;
+    private BukkitTask task;
+    private long tick;
+
+    TriggerManager(Plugin plugin, PlayerTracker tracker, GeneratorIndex index) {
+        this.plugin = plugin;
+        this.tracker = tracker;
+        this.index = index;
+    }
+
+    /**
+     * Indexes the generator's current trigger at its current position, replacing whatever
+     * was indexed for it before, and registers or parks the generator to match.
+     */
+    public void update(ParticleGenerator generator) {
+        remove(generator);
+        Trigger trigger = generator.getTrigger();
+        if (trigger != null) {
+            Entry entry = new Entry(generator, trigger);
+            generator.triggerEntry = entry;
+            triggered++;
+            if (trigger.getKind() == Trigger.Kind.SIGNAL) {
+                ArrayList<Entry> entries = signals.get(trigger.signal);
+                if (entries == null) {
+                    entries = new ArrayList<>(4);
+                    signals.put(trigger.signal, entries);
+                }
+                entries.add(entry);
+            } else {
+                addCells(entry);
+                // Pick up players already inside and blocks already powered
+                queue(entry);
+            }
+        }
+        index.refresh(generator);
+    }
+
+    /**
+     * Drops the generator's trigger from the index. The generator is left as it is in the
+     * scheduler, as it is about to be stopped or indexed again.
+     */
+    public void remove(ParticleGenerator generator) {
+        Entry entry = generator.triggerEntry;
+        if (entry == null) {
+            return;
+        }
+        generator.triggerEntry = null;
+        entry.removed = true;
+        triggered--;
+        if (entry.trigger.getKind() == Trigger.Kind.SIGNAL) {
+            ArrayList<Entry> entries = signals.get(entry.trigger.signal);
+            entries.remove(entry);
+            if (entries.isEmpty()) {
+                signals.remove(entry.trigger.signal);
+            }
+        } else {
+            removeCells(entry);
+        }
+        if (entry.armedIndex >= 0) {
+            removeArmed(entry);
+        }
+    }
+
+    public void clear() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        worlds.clear();
+        signals.clear();
+        armed.clear();
+        pending.clear();
+        triggered = 0;
+    }
+
+    /**
+     * Arms every generator waiting for the signal. Returns the number of generators armed.
+     */
+    public int fire(String signal) {
+        ArrayList<Entry> entries = signals.get(signal.toLowerCase(Locale.ROOT));
+        if (entries == null) {
+            return 0;
+        }
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            Entry entry = entries.get(i);
+            // Fired again while armed, the generator simply runs for longer
+            entry.disarmTick = tick + entry.trigger.ticks;
+            arm(entry);
+        }
+        return entries.size();
+    }
+
+    public Set<String> getSignals() {
+        return signals.keySet();
+    }
+
+    public int getTriggeredCount() {
+        return triggered;
+    }
+
+    public int getArmedCount() {
+        return armed.size();
+    }
+
+    @Override
+    public void run() {
+        long now = ++tick;
+        for (int i = 0; i < pending.size(); i++) {
+            Entry entry = pending.get(i);
+            entry.pending = false;
+            if (entry.removed) {
+                continue;
+            }
+            if (holds(entry)) {
+                arm(entry);
+            } else if (entry.armedIndex >= 0) {
+                disarm(entry);
+            }
+        }
+        pending.clear();
+
+        // Signals run out on their own tick, the other triggers are checked now and then
+        boolean check = now % CHECK_INTERVAL == 0;
+        for (int i = armed.size() - 1; i >= 0; i--) {
+            Entry entry = armed.get(i);
+            if (entry.trigger.getKind() == Trigger.Kind.SIGNAL ? now >= entry.disarmTick : check && !holds(entry)) {
+                disarm(entry);
+            }
+        }
+        if (armed.isEmpty() && pending.isEmpty() && task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    private boolean holds(Entry entry) {
+        World world = entry.generator.getWorld();
+        if (world == null) {
+            return false;
+        }
+        Trigger trigger = entry.trigger;
+        switch (trigger.getKind()) {
+            case PROXIMITY:
+                return tracker.hasViewerWithin(world, entry.x, entry.y, entry.z, trigger.radius);
+            case REGION:
+                return tracker.hasViewerInside(world, entry.x + trigger.minX, entry.y + trigger.minY, entry.z + trigger.minZ, entry.x + trigger.maxX, entry.y + trigger.maxY, entry.z + trigger.maxZ);
+            case REDSTONE:
+                return world.isChunkLoaded(entry.blockX >> 4, entry.blockZ >> 4) && world.getBlockAt(entry.blockX, entry.blockY, entry.blockZ).isBlockIndirectlyPowered();
+            default:
+                return tick < entry.disarmTick;
+        }
+    }
+
+    private void arm(Entry entry) {
+        if (entry.armedIndex >= 0) {
+            return;
+        }
+        entry.armedIndex = armed.size();
+        armed.add(entry);
+        index.refresh(entry.generator);
+        ensureRunning();
+    }
+
+    private void disarm(Entry entry) {
+        removeArmed(entry);
+        index.refresh(entry.generator);
+    }
+
+    private void removeArmed(Entry entry) {
+        // Move the last entry into the gap so the list stays dense
+        Entry last = armed.remove(armed.size() - 1);
+        if (last != entry) {
+            armed.set(entry.armedIndex, last);
+            last.armedIndex = entry.armedIndex;
+        }
+        entry.armedIndex = -1;
+    }
+
+    private void queue(Entry entry) {
+        if (!entry.pending) {
+            entry.pending = true;
+            pending.add(entry);
+            ensureRunning();
+        }
+    }
+
+    private void ensureRunning() {
+        if (task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this, 1, 1);
+        }
+    }
+
+    private void addCells(Entry entry) {
+        LongHashMap<ArrayList<Entry>> cells = worlds.get(entry.worldName);
+        if (cells == null) {
+            cells = new LongHashMap<>();
+            worlds.put(entry.worldName, cells);
+        }
+        for (long key : entry.cells) {
+            ArrayList<Entry> entries = cells.get(key);
+            if (entries == null) {
+                entries = new ArrayList<>(2);
+                cells.put(key, entries);
+            }
+            entries.add(entry);
+        }
+    }
+
+    private void removeCells(Entry entry) {
+        LongHashMap<ArrayList<Entry>> cells = worlds.get(entry.worldName);
+        if (cells == null) {
+            return;
+        }
+        for (long key : entry.cells) {
+            ArrayList<Entry> entries = cells.get(key);
+            if (entries != null) {
+                entries.remove(entry);
+                if (entries.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+        if (cells.isEmpty()) {
+            worlds.remove(entry.worldName);
+        }
+    }
+
+    private ArrayList<Entry> getCell(World world, int chunkX, int chunkZ) {
+        if (world == null) {
+            return null;
+        }
+        LongHashMap<ArrayList<Entry>> cells = worlds.get(world.getName());
+        return cells == null ? null : cells.get(LongHashMap.key(chunkX, chunkZ));
+    }
+
+    /**
+     * Arms the proximity and region triggers a player at the location is inside of.
+     */
+    private void check(Location location) {
+        ArrayList<Entry> entries = getCell(location.getWorld(), location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        if (entries == null) {
+            return;
+        }
+        double x = location.getX();
+        double y = location.getY();
+        double z = location.getZ();
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.armedIndex < 0 && entry.trigger.contains(x - entry.x, y - entry.y, z - entry.z)) {
+                arm(entry);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        // Only turning the head cannot bring anyone into a trigger
+        if (to == null || (to.getX() == from.getX() && to.getY() == from.getY() && to.getZ() == from.getZ())) {
+            return;
+        }
+        check(to);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        if (event.getTo() != null) {
+            check(event.getTo());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        check(event.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        check(event.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent event) {
+        check(event.getRespawnLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onBlockRedstone(BlockRedstoneEvent event) {
+        Block block = event.getBlock();
+        ArrayList<Entry> entries = getCell(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+        if (entries == null) {
+            return;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            // The change can be the watched block itself or a component powering it from
+            // the side, and the block only reads as powered once the change went through
+            if (entry.trigger.getKind() == Trigger.Kind.REDSTONE
+                    && Math.abs(block.getX() - entry.blockX) + Math.abs(block.getY() - entry.blockY) + Math.abs(block.getZ() - entry.blockZ) <= 1) {
+                queue(entry);
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        Chunk chunk = event.getChunk();
+        ArrayList<Entry> entries = getCell(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        if (entries == null) {
+            return;
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            if (entry.trigger.getKind() == Trigger.Kind.REDSTONE) {
+                queue(entry);
+            }
+        }
+    }
+
+    /**
+     * A trigger as indexed for one generator, at the position the generator had then.
+     */
+    static final class Entry {
+        final ParticleGenerator generator;
+        final Trigger trigger;
+        final String worldName;
+        final double x;
+        final double y;
+        final double z;
+        // Watched block of a redstone trigger
+        final int blockX;
+        final int blockY;
+        final int blockZ;
+        // Chunks the area overlaps
+        final long[] cells;
+        int armedIndex = -1;
+        long disarmTick;
+        boolean pending;
+        boolean removed;
+
+        Entry(ParticleGenerator generator, Trigger trigger) {
+            this.generator = generator;
+            this.trigger = trigger;
+            this.worldName = generator.getWorldName();
+            this.x = generator.getX();
+            this.y = generator.getY();
+            this.z = generator.getZ();
+            this.blockX = Location.locToBlock(x) + (int) trigger.minX;
+            this.blockY = Location.locToBlock(y) + (int) trigger.minY;
+            this.blockZ = Location.locToBlock(z) + (int) trigger.minZ;
+            if (trigger.getKind() == Trigger.Kind.SIGNAL) {
+                this.cells = new long[0];
+                return;
+            }
+            int minChunkX;
+            int maxChunkX;
+            int minChunkZ;
+            int maxChunkZ;
+            if (trigger.getKind() == Trigger.Kind.REDSTONE) {
+                // Components next to the block may sit across a chunk border
+                minChunkX = (blockX - 1) >> 4;
+                maxChunkX = (blockX + 1) >> 4;
+                minChunkZ = (blockZ - 1) >> 4;
+                maxChunkZ = (blockZ + 1) >> 4;
+            } else {
+                minChunkX = Location.locToBlock(x + trigger.minX) >> 4;
+                maxChunkX = Location.locToBlock(x + trigger.maxX) >> 4;
+                minChunkZ = Location.locToBlock(z + trigger.minZ) >> 4;
+                maxChunkZ = Location.locToBlock(z + trigger.maxZ) >> 4;
+            }
+            cells = new long[(maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1)];
+            int i = 0;
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                    cells[i++] = LongHashMap.key(chunkX, chunkZ);
+                }
+            }
+        }
+    }
+}
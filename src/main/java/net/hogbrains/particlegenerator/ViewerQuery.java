@@ -0,0 +1,12 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.World;
+
+/**
+ * Answers whether any player is close enough to see an emission, either from the live
+ * {@link PlayerTracker} or from a snapshot of it.
+ */
+interface ViewerQuery {
+
+    boolean hasViewerWithin(World world, double x, double y, double z, double radius);
+}
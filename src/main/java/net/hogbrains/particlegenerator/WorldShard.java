@@ -0,0 +1,96 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything kept for the generators of one world: the generators by name and by chunk,
+ * the timing wheel they fire from, their changes waiting to be saved and their stats.
+ * Shards only share the emission pipeline, which enforces the budgets that span worlds,
+ * so nothing in a shard is touched while another shard ticks.
+ *
+ * Unloading the world detaches its shard in O(1): the scheduler stops visiting it, its
+ * wheel is dropped as a whole and the world reference is cleared for every generator at
+ * once. When the world loads again its generators register one chunk at a time as their
+ * chunks load.
+ */
+final class WorldShard {
+
+    final String worldName;
+    // Read by planner threads through each generator's placement
+    private volatile World world;
+
+    // Generators by name, and the same generators in a dense list so list pages can be read by position
+    private final Map<String, ParticleGenerator> generators = new HashMap<>();
+    private final List<ParticleGenerator> list = new ArrayList<>();
+    // Generators by chunk, whether or not the chunk is loaded
+    final LongHashMap<ArrayList<ParticleGenerator>> chunks = new LongHashMap<>();
+    // Replaced as a whole when the world unloads
+    TimingWheel wheel = new TimingWheel();
+    // Position in the scheduler's attached shards, -1 while the world is not loaded
+    int attachedIndex = -1;
+
+    // Persisted form of the shard's generators as it will be written, and the changes since
+    // the last flush; a null change marks a generator that was deleted or left the world
+    final Map<String, GeneratorRecord> records = new LinkedHashMap<>();
+    final Map<String, ParticleGenerator> dirty = new LinkedHashMap<>();
+
+    // Firings and particles queued on the main thread, added up after every tick
+    long emissions;
+    long particles;
+
+    WorldShard(String worldName, World world) {
+        this.worldName = worldName;
+        this.world = world;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    void setWorld(World world) {
+        this.world = world;
+    }
+
+    public boolean isLoaded() {
+        return attachedIndex >= 0;
+    }
+
+    void add(ParticleGenerator generator) {
+        generator.listIndex = list.size();
+        list.add(generator);
+        generators.put(generator.getName(), generator);
+    }
+
+    void remove(ParticleGenerator generator) {
+        if (generators.remove(generator.getName()) != generator) {
+            return;
+        }
+        // Move the last generator into the gap so the list stays dense
+        ParticleGenerator last = list.remove(list.size() - 1);
+        if (last != generator) {
+            list.set(generator.listIndex, last);
+            last.listIndex = generator.listIndex;
+        }
+    }
+
+    public ParticleGenerator get(String name) {
+        return generators.get(name);
+    }
+
+    /**
+     * Returns the generator at a position of the dense list.
+     */
+    public ParticleGenerator get(int index) {
+        return list.get(index);
+    }
+
+    public int size() {
+        return generators.size();
+    }
+}
@@ -0,0 +1,87 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores generators in the legacy semicolon-delimited format under the
+ * {@code generators} section of config.yml.
+ */
+class YamlGeneratorStorage implements GeneratorStorage {
+
+    private final ParticleGeneratorPlugin plugin;
+    private final File configFile;
+
+    YamlGeneratorStorage(ParticleGeneratorPlugin plugin) {
+        this.plugin = plugin;
+        this.configFile = new File(plugin.getDataFolder(), "config.yml");
+    }
+
+    @Override
+    public String getName() {
+        return "yaml";
+    }
+
+    @Override
+    public Map<String, GeneratorRecord> load() {
+        return read(plugin.getConfig());
+    }
+
+    /**
+     * Parses the generators section of a config, which need not be the plugin's own.
+     */
+    static Map<String, GeneratorRecord> read(ConfigurationSection config) {
+        Map<String, GeneratorRecord> records = new LinkedHashMap<>();
+        ConfigurationSection section = config.getConfigurationSection("generators");
+        if (section == null) {
+            return records;
+        }
+        for (Map.Entry<String, Object> entry : section.getValues(false).entrySet()) {
+            records.put(entry.getKey(), GeneratorRecord.parseLegacy(entry.getKey(), String.valueOf(entry.getValue())));
+        }
+        return records;
+    }
+
+    @Override
+    public void save(Collection<GeneratorRecord> records) throws IOException {
+        // Start from the file on disk so messages, settings and comments are kept as they are
+        YamlConfiguration config = new YamlConfiguration();
+        if (configFile.exists()) {
+            try {
+                config.loadFromString(new String(Files.readAllBytes(configFile.toPath()), StandardCharsets.UTF_8));
+            } catch (InvalidConfigurationException e) {
+                throw new IOException("Could not parse " + configFile, e);
+            }
+        }
+
+        // Reuse the existing section so it keeps its position in the file
+        ConfigurationSection section = config.getConfigurationSection("generators");
+        if (section == null) {
+            section = config.createSection("generators");
+        }
+        Set<String> names = new HashSet<>();
+        for (GeneratorRecord record : records) {
+            names.add(record.getName());
+        }
+        for (String name : section.getKeys(false)) {
+            if (!names.contains(name)) {
+                section.set(name, null);
+            }
+        }
+        for (GeneratorRecord record : records) {
+            section.set(record.getName(), record.toLegacy());
+        }
+        StorageFiles.writeAtomically(configFile, config.saveToString().getBytes(StandardCharsets.UTF_8));
+    }
+}
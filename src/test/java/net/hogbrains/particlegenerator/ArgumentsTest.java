@@ -0,0 +1,82 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ArgumentsTest {
+
+    @Test
+    public void parsesIntegers() {
+        assertEquals(Integer.valueOf(0), Arguments.parseInt("0"));
+        assertEquals(Integer.valueOf(42), Arguments.parseInt("42"));
+        assertEquals(Integer.valueOf(42), Arguments.parseInt("+42"));
+        assertEquals(Integer.valueOf(-7), Arguments.parseInt("-7"));
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE), Arguments.parseInt("2147483647"));
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE), Arguments.parseInt("-2147483648"));
+    }
+
+    @Test
+    public void rejectsInvalidIntegers() {
+        assertNull(Arguments.parseInt(""));
+        assertNull(Arguments.parseInt("-"));
+        assertNull(Arguments.parseInt("+"));
+        assertNull(Arguments.parseInt("1.5"));
+        assertNull(Arguments.parseInt("12a"));
+        assertNull(Arguments.parseInt(" 1"));
+        assertNull(Arguments.parseInt("2147483648"));
+        assertNull(Arguments.parseInt("-2147483649"));
+        assertNull(Arguments.parseInt("99999999999999999999"));
+    }
+
+    @Test
+    public void parsesDecimals() {
+        assertEquals(1.5, Arguments.parseDouble("1.5"), 0);
+        assertEquals(-0.25, Arguments.parseDouble("-.25"), 0);
+        assertEquals(3, Arguments.parseDouble("3."), 0);
+        assertEquals(1000, Arguments.parseDouble("1e3"), 0);
+        assertEquals(0.015, Arguments.parseDouble("1.5E-2"), 0);
+        assertEquals(2, Arguments.parseDouble("+2"), 0);
+    }
+
+    @Test
+    public void rejectsInvalidDecimals() {
+        assertNull(Arguments.parseDouble(""));
+        assertNull(Arguments.parseDouble("."));
+        assertNull(Arguments.parseDouble("-"));
+        assertNull(Arguments.parseDouble("NaN"));
+        assertNull(Arguments.parseDouble("Infinity"));
+        assertNull(Arguments.parseDouble("0x1p3"));
+        assertNull(Arguments.parseDouble("1e"));
+        assertNull(Arguments.parseDouble("1e+"));
+        assertNull(Arguments.parseDouble("1.5f"));
+        assertNull(Arguments.parseDouble("1e999"));
+    }
+
+    @Test
+    public void parsesParticlesIgnoringCase() {
+        assertEquals(Particle.FLAME, Arguments.parseParticle("flame"));
+        assertEquals(Particle.END_ROD, Arguments.parseParticle("End_Rod"));
+        assertNull(Arguments.parseParticle("no_such_particle"));
+    }
+
+    @Test
+    public void acceptsSafeNames() {
+        assertTrue(Arguments.isName("spawn"));
+        assertTrue(Arguments.isName("Arena_1-north"));
+    }
+
+    @Test
+    public void rejectsNamesThatBreakStorage() {
+        assertFalse(Arguments.isName(""));
+        assertFalse(Arguments.isName("a.b"));
+        assertFalse(Arguments.isName("a;b"));
+        assertFalse(Arguments.isName("a=b"));
+        assertFalse(Arguments.isName("a b"));
+        assertFalse(Arguments.isName("caf\u00e9"));
+    }
+}
@@ -0,0 +1,148 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryGeneratorStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordsRoundTrip() throws IOException {
+        BinaryGeneratorStorage storage = new BinaryGeneratorStorage(new File(folder.getRoot(), "generators.dat"));
+        List<GeneratorRecord> records = sampleRecords();
+
+        storage.save(records);
+        Map<String, GeneratorRecord> loaded = storage.load();
+
+        assertEquals(records, new ArrayList<>(loaded.values()));
+        assertEquals(Arrays.asList("fountain", "torch", "spawn"), new ArrayList<>(loaded.keySet()));
+        assertEquals(records.get(0).getProperties(), loaded.get("fountain").getProperties());
+    }
+
+    @Test
+    public void emptyStoreRoundTrips() throws IOException {
+        BinaryGeneratorStorage storage = new BinaryGeneratorStorage(new File(folder.getRoot(), "generators.dat"));
+
+        storage.save(Collections.<GeneratorRecord>emptyList());
+
+        assertTrue(storage.exists());
+        assertTrue(storage.load().isEmpty());
+    }
+
+    @Test
+    public void missingFileLoadsNothing() throws IOException {
+        BinaryGeneratorStorage storage = new BinaryGeneratorStorage(new File(folder.getRoot(), "generators.dat"));
+
+        assertTrue(storage.load().isEmpty());
+    }
+
+    @Test
+    public void truncatedFileFailsWithIOException() throws IOException {
+        File file = new File(folder.getRoot(), "generators.dat");
+        new BinaryGeneratorStorage(file).save(sampleRecords());
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        // Every cut, from inside the header to the last column, has to be reported cleanly
+        for (int length = 0; length < bytes.length; length += 7) {
+            Files.write(file.toPath(), Arrays.copyOf(bytes, length));
+            assertThrows("cut at " + length, IOException.class, () -> new BinaryGeneratorStorage(file).load());
+        }
+    }
+
+    @Test
+    public void wrongMagicFailsWithIOException() throws IOException {
+        File file = new File(folder.getRoot(), "generators.dat");
+        Files.write(file.toPath(), "generators: {}\n".getBytes("UTF-8"));
+
+        assertThrows(IOException.class, () -> new BinaryGeneratorStorage(file).load());
+    }
+
+    @Test
+    public void unknownVersionFailsWithIOException() throws IOException {
+        File file = new File(folder.getRoot(), "generators.dat");
+        Files.write(file.toPath(), ByteBuffer.allocate(8).putInt(BinaryGeneratorStorage.MAGIC).putInt(BinaryGeneratorStorage.VERSION + 1).array());
+
+        assertThrows(IOException.class, () -> new BinaryGeneratorStorage(file).load());
+    }
+
+    @Test
+    public void hugeCountFailsWithIOException() throws IOException {
+        File file = new File(folder.getRoot(), "generators.dat");
+        // A string table claiming two billion entries in a 12 byte file
+        Files.write(file.toPath(), ByteBuffer.allocate(12).putInt(BinaryGeneratorStorage.MAGIC).putInt(BinaryGeneratorStorage.VERSION).putInt(Integer.MAX_VALUE).array());
+
+        assertThrows(IOException.class, () -> new BinaryGeneratorStorage(file).load());
+    }
+
+    @Test
+    public void negativeCountFailsWithIOException() throws IOException {
+        File file = new File(folder.getRoot(), "generators.dat");
+        Files.write(file.toPath(), ByteBuffer.allocate(12).putInt(BinaryGeneratorStorage.MAGIC).putInt(BinaryGeneratorStorage.VERSION).putInt(-1).array());
+
+        assertThrows(IOException.class, () -> new BinaryGeneratorStorage(file).load());
+    }
+
+    @Test
+    public void stringIndexOutsideTableFailsWithIOException() throws IOException {
+        File file = new File(folder.getRoot(), "generators.dat");
+        new BinaryGeneratorStorage(file).save(Collections.singletonList(sampleRecords().get(1)));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(8);
+        int strings = buffer.getInt();
+        for (int i = 0; i < strings; i++) {
+            int length = buffer.getInt();
+            buffer.position(buffer.position() + length);
+        }
+        buffer.getInt();
+        // Point the name column past the end of the string table
+        buffer.putInt(buffer.position(), strings);
+        Files.write(file.toPath(), bytes);
+
+        assertThrows(IOException.class, () -> new BinaryGeneratorStorage(file).load());
+    }
+
+    @Test
+    public void unknownParticleFailsWithIOException() throws IOException {
+        File file = new File(folder.getRoot(), "generators.dat");
+        new BinaryGeneratorStorage(file).save(Collections.singletonList(sampleRecords().get(1)));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        String data = new String(bytes, "ISO-8859-1");
+        // Same length, so the rest of the layout stays valid
+        byte[] renamed = data.replace("END_ROD", "NO_SUCH").getBytes("ISO-8859-1");
+        Files.write(file.toPath(), renamed);
+
+        assertThrows(IOException.class, () -> new BinaryGeneratorStorage(file).load());
+    }
+
+    private static List<GeneratorRecord> sampleRecords() {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("viewRadius", "48");
+        properties.put("shape", "ring radius=2");
+        properties.put("group", "spawn");
+        List<GeneratorRecord> records = new ArrayList<>();
+        records.add(new GeneratorRecord("fountain", "world", 1.5, 64, -20.25, Particle.FLAME, 5, 10, 0.02, 0.5, 1, 0.5, Collections.unmodifiableMap(properties)));
+        records.add(new GeneratorRecord("torch", "world_nether", -100, 32, 7, Particle.END_ROD, 0, 1, 0.1, 0, 0, 0, Collections.<String, String>emptyMap()));
+        records.add(new GeneratorRecord("spawn", "world", 0, 70, 0, Particle.FLAME, 1000, 72000, 0, 3, 3, 3, Collections.singletonMap("group", "spawn")));
+        return records;
+    }
+}
@@ -0,0 +1,182 @@
+package net.hogbrains.particlegenerator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ExpressionTest {
+
+    private static double eval(String formula, double t) {
+        return Expression.compile(formula).eval(t);
+    }
+
+    private static String repeat(String part, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(part);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void evaluatesArithmetic() {
+        assertEquals(7, eval("1+2*3", 0), 0);
+        assertEquals(9, eval("(1+2)*3", 0), 0);
+        assertEquals(2.5, eval("5/2", 0), 0);
+        assertEquals(1, eval("7-3-3", 0), 0);
+        assertEquals(-4, eval("-2*2", 0), 0);
+        assertEquals(5, eval(" 2 + +3 ", 0), 0);
+        assertEquals(Math.PI, eval("PI", 0), 0);
+    }
+
+    @Test
+    public void powersAreRightAssociative() {
+        assertEquals(512, eval("2^3^2", 0), 0);
+        assertEquals(-4, eval("-2^2", 0), 0);
+        assertEquals(0.25, eval("2^-2", 0), 0);
+    }
+
+    @Test
+    public void dependsOnTime() {
+        Expression expression = Expression.compile("5+3*sin(t/10)");
+
+        assertFalse(expression.isConstant());
+        assertEquals(5, expression.eval(0), 1e-9);
+        assertEquals(5 + 3 * Math.sin(2), expression.eval(20), 1e-9);
+    }
+
+    @Test
+    public void foldsConstantSubtrees() {
+        assertTrue(Expression.compile("2*pi+max(1,2)").isConstant());
+        assertFalse(Expression.compile("2*pi+t").isConstant());
+    }
+
+    @Test
+    public void evaluatesFunctions() {
+        assertEquals(3, eval("abs(-3)", 0), 0);
+        assertEquals(4, eval("sqrt(16)", 0), 0);
+        assertEquals(1, eval("floor(1.7)", 0), 0);
+        assertEquals(2, eval("ceil(1.2)", 0), 0);
+        assertEquals(2, eval("round(2.5)", 0), 0);
+        assertEquals(-1, eval("sign(-8)", 0), 0);
+        assertEquals(1, eval("min(1,2)", 0), 0);
+        assertEquals(2, eval("max(1,2)", 0), 0);
+        assertEquals(8, eval("pow(2,3)", 0), 0);
+        assertEquals(10, eval("clamp(t,0,10)", 50), 0);
+        assertEquals(0, eval("clamp(t,0,10)", -5), 0);
+        assertEquals(1, eval("cos(0)", 0), 0);
+    }
+
+    @Test
+    public void undefinedResultsAreZero() {
+        assertEquals(0, eval("1/0", 0), 0);
+        assertEquals(0, eval("t%0", 5), 0);
+        assertEquals(0, eval("sqrt(-4)", 0), 0);
+    }
+
+    @Test
+    public void moduloIsNeverNegative() {
+        assertEquals(3, eval("t%10", 13), 0);
+        assertEquals(7, eval("t%10", -3), 0);
+    }
+
+    @Test
+    public void interpolatesKeyframes() {
+        Expression keys = Expression.compile("keys(0:0,20:1.5,40:0)");
+
+        assertEquals(0, keys.eval(0), 1e-9);
+        assertEquals(0.75, keys.eval(10), 1e-9);
+        assertEquals(1.5, keys.eval(20), 1e-9);
+        assertEquals(0.75, keys.eval(30), 1e-9);
+        assertEquals(0.75, keys.eval(50), 1e-9);
+        assertEquals(0.75, keys.eval(-10), 1e-9);
+    }
+
+    @Test
+    public void holdsSteps() {
+        Expression steps = Expression.compile("steps(0:1,10:-2,20:0)");
+
+        assertEquals(1, steps.eval(0), 0);
+        assertEquals(1, steps.eval(9), 0);
+        assertEquals(-2, steps.eval(10), 0);
+        assertEquals(-2, steps.eval(19), 0);
+        assertEquals(1, steps.eval(25), 0);
+    }
+
+    @Test
+    public void holdsFirstKeyBeforeItsTime() {
+        Expression keys = Expression.compile("keys(5:2,10:4)");
+
+        assertEquals(2, keys.eval(0), 0);
+        assertEquals(3, keys.eval(7.5), 1e-9);
+    }
+
+    @Test
+    public void singleKeyIsConstant() {
+        Expression keys = Expression.compile("keys(0:3)");
+
+        assertTrue(keys.isConstant());
+        assertEquals(3, keys.eval(100), 0);
+    }
+
+    @Test
+    public void rejectsInvalidFormulas() {
+        String[] invalid = {"", "1+", "(1", "1)", "foo(1)", "sin(1,2)", "clamp(1,2)", "t t", "1..2", "keys(10:0,5:1)", "keys(0:0,0:1)", "keys()", "x"};
+        for (String formula : invalid) {
+            assertThrows(formula, IllegalArgumentException.class, () -> Expression.compile(formula));
+        }
+    }
+
+    @Test
+    public void acceptsNestingUpToTheLimit() {
+        assertEquals(1, eval(repeat("(", 40) + "1" + repeat(")", 40), 0), 0);
+        assertEquals(1, eval(repeat("--", 20) + "1", 0), 0);
+    }
+
+    @Test
+    public void rejectsDeepNestingWithoutOverflowing() {
+        String[] deep = {
+                repeat("(", 100000) + "1" + repeat(")", 100000),
+                repeat("-", 100000) + "1",
+                repeat("2^", 100000) + "1",
+                repeat("abs(", 100000) + "1" + repeat(")", 100000),
+                repeat("(", 100000)
+        };
+        for (String formula : deep) {
+            assertThrows(IllegalArgumentException.class, () -> Expression.compile(formula));
+        }
+    }
+
+    @Test
+    public void parsesAnimationSpecs() {
+        Animation animation = Animation.parse("count = 5 + 3*sin(t/10) | Y=keys(0:0,20:1.5,40:0)");
+
+        assertEquals("count=5+3*sin(t/10)|y=keys(0:0,20:1.5,40:0)", animation.getSpec());
+        assertEquals("5+3*sin(t/10)", animation.getSource(Animation.COUNT));
+        assertNull(animation.getSource(Animation.SPEED));
+        assertTrue(animation.isMoving());
+        assertFalse(animation.isColoured());
+        assertEquals(animation, Animation.parse(animation.getSpec()));
+    }
+
+    @Test
+    public void editsAnimationChannels() {
+        Animation animation = Animation.with(null, "red", "t%255");
+
+        assertTrue(animation.isColoured());
+        assertEquals("red=t%255", animation.getSpec());
+        assertNull(Animation.with(animation, "red", null));
+    }
+
+    @Test
+    public void rejectsInvalidAnimationSpecs() {
+        String[] invalid = {"count", "=1", "colour=1", "count=", "count=1+", "x=" + repeat("(", 100) + "1" + repeat(")", 100)};
+        for (String spec : invalid) {
+            assertThrows(spec, IllegalArgumentException.class, () -> Animation.parse(spec));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class GeneratorRecordTest {
+
+    @Test
+    public void legacyStringRoundTrips() {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("viewRadius", "32");
+        properties.put("priority", "2");
+        properties.put("enabled", "false");
+        GeneratorRecord record = new GeneratorRecord("fountain", "world", 1.5, 64, -20.25, Particle.FLAME, 5, 10, 0.02, 0.5, 1, 0.5, properties);
+
+        GeneratorRecord parsed = GeneratorRecord.parseLegacy("fountain", record.toLegacy());
+
+        assertEquals(record, parsed);
+        assertEquals(properties, parsed.getProperties());
+        assertFalse(parsed.isEnabled());
+    }
+
+    @Test
+    public void legacyStringWithoutPropertiesIsEnabled() {
+        GeneratorRecord parsed = GeneratorRecord.parseLegacy("plain", "world;0.0;70.0;0.0;END_ROD;1;20;0.0;0.0;0.0;0.0");
+
+        assertEquals(Particle.END_ROD, parsed.getParticle());
+        assertEquals(20, parsed.getInterval());
+        assertTrue(parsed.getProperties().isEmpty());
+        assertTrue(parsed.isEnabled());
+    }
+
+    @Test
+    public void malformedPropertiesAreSkipped() {
+        GeneratorRecord parsed = GeneratorRecord.parseLegacy("odd", "world;0;0;0;FLAME;1;1;0;0;0;0;noseparator;=empty;priority=1");
+
+        assertEquals(Collections.singletonMap("priority", "1"), parsed.getProperties());
+    }
+
+    @Test
+    public void shortLegacyStringIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> GeneratorRecord.parseLegacy("short", "world;0;0;0;FLAME;1"));
+    }
+
+    @Test
+    public void invalidNumberIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> GeneratorRecord.parseLegacy("bad", "world;x;0;0;FLAME;1;1;0;0;0;0"));
+    }
+}
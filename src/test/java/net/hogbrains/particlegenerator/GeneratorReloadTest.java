@@ -0,0 +1,113 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GeneratorReloadTest {
+
+    private static GeneratorRecord record(String name, int count, Map<String, String> properties) {
+        return new GeneratorRecord(name, "world", 1, 64, 2, Particle.FLAME, count, 20, 0.1, 0, 0, 0, properties);
+    }
+
+    private static GeneratorRecord record(String name, int count) {
+        return record(name, count, Collections.<String, String>emptyMap());
+    }
+
+    private static Map<String, GeneratorRecord> records(GeneratorRecord... records) {
+        Map<String, GeneratorRecord> map = new LinkedHashMap<>();
+        for (GeneratorRecord record : records) {
+            map.put(record.getName(), record);
+        }
+        return map;
+    }
+
+    private static List<String> names(List<GeneratorRecord> records) {
+        List<String> names = new ArrayList<>();
+        for (GeneratorRecord record : records) {
+            names.add(record.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void sortsGeneratorsIntoAddedChangedRemovedAndUnchanged() {
+        Map<String, GeneratorRecord> baseline = records(record("kept", 1), record("edited", 1), record("deleted", 1), record("alsoKept", 3));
+        GeneratorRecord edited = record("edited", 2);
+        GeneratorRecord created = record("created", 1);
+
+        GeneratorReload reload = new GeneratorReload(baseline).diff(records(record("kept", 1), edited, created, record("alsoKept", 3)));
+
+        assertEquals(Collections.singletonList("created"), names(reload.getAdded()));
+        assertEquals(Collections.singletonList("edited"), names(reload.getChanged()));
+        assertSame(edited, reload.getChanged().get(0));
+        assertSame(created, reload.getAdded().get(0));
+        assertEquals(Collections.singletonList("deleted"), reload.getRemoved());
+        assertEquals(2, reload.getUnchanged());
+    }
+
+    @Test
+    public void comparesPropertiesAsWell() {
+        Map<String, String> before = new LinkedHashMap<>();
+        before.put("viewRadius", "32");
+        Map<String, String> after = new LinkedHashMap<>();
+        after.put("viewRadius", "48");
+        Map<String, String> same = new LinkedHashMap<>();
+        same.put("viewRadius", "32");
+
+        GeneratorReload changed = new GeneratorReload(records(record("a", 1, before))).diff(records(record("a", 1, after)));
+        GeneratorReload unchanged = new GeneratorReload(records(record("a", 1, before))).diff(records(record("a", 1, same)));
+
+        assertEquals(1, changed.getChanged().size());
+        assertEquals(0, changed.getUnchanged());
+        assertTrue(unchanged.getChanged().isEmpty());
+        assertEquals(1, unchanged.getUnchanged());
+    }
+
+    @Test
+    public void emptyFilesRemoveEverything() {
+        GeneratorReload reload = new GeneratorReload(records(record("a", 1), record("b", 1))).diff(records());
+
+        assertTrue(reload.getAdded().isEmpty());
+        assertTrue(reload.getChanged().isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(reload.getRemoved()));
+        assertEquals(0, reload.getUnchanged());
+    }
+
+    @Test
+    public void emptyBaselineAddsEverything() {
+        GeneratorReload reload = new GeneratorReload(records()).diff(records(record("a", 1), record("b", 1)));
+
+        assertEquals(Arrays.asList("a", "b"), names(reload.getAdded()));
+        assertTrue(reload.getChanged().isEmpty());
+        assertTrue(reload.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void identicalSetsChangeNothing() {
+        Map<String, GeneratorRecord> baseline = new LinkedHashMap<>();
+        Map<String, GeneratorRecord> reloaded = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            baseline.put("gen" + i, record("gen" + i, i));
+            reloaded.put("gen" + i, record("gen" + i, i));
+        }
+
+        GeneratorReload reload = new GeneratorReload(baseline).diff(reloaded);
+
+        assertTrue(reload.getAdded().isEmpty());
+        assertTrue(reload.getChanged().isEmpty());
+        assertTrue(reload.getRemoved().isEmpty());
+        assertEquals(1000, reload.getUnchanged());
+    }
+}
@@ -0,0 +1,89 @@
+package net.hogbrains.particlegenerator;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (long value = 0; value < 16; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            assertEquals(value, LatencyHistogram.lowerBound(index));
+            assertEquals(value, LatencyHistogram.upperBound(index));
+        }
+    }
+
+    @Test
+    public void everyValueFallsInsideItsBucket() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(value + " below bucket " + index, LatencyHistogram.lowerBound(index) <= value);
+            assertTrue(value + " above bucket " + index, LatencyHistogram.upperBound(index) >= value);
+        }
+        int last = LatencyHistogram.indexOf(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(last));
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        int last = LatencyHistogram.indexOf(Long.MAX_VALUE);
+        for (int index = 1; index <= last; index++) {
+            assertEquals(LatencyHistogram.upperBound(index - 1) + 1, LatencyHistogram.lowerBound(index));
+        }
+    }
+
+    @Test
+    public void bucketsStayWithinSixPercent() {
+        int last = LatencyHistogram.indexOf(Long.MAX_VALUE);
+        for (int index = 16; index <= last; index++) {
+            long lower = LatencyHistogram.lowerBound(index);
+            long width = LatencyHistogram.upperBound(index) - lower + 1;
+            assertTrue("bucket " + index, width <= lower / 16 + 1);
+        }
+    }
+
+    @Test
+    public void percentilesComeFromTheRecordedValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getMean());
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(1_000_000, histogram.getPercentile(100));
+        assertEquals(500_000, histogram.getPercentile(50), 500_000 / 16.0);
+        assertEquals(990_000, histogram.getPercentile(99), 990_000 / 16.0);
+        assertTrue(histogram.getPercentile(50) >= 500_000);
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(123_456);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getSum());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+}
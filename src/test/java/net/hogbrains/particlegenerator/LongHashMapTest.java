@@ -0,0 +1,179 @@
+package net.hogbrains.particlegenerator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashMapTest {
+
+    // Capacity of a map created with the default size
+    private static final int MASK = 15;
+
+    /**
+     * Returns the first keys from the start that hash to the given slot of a default map.
+     */
+    private static List<Long> keysWithHome(int home, int count, long start) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = start; keys.size() < count; key++) {
+            if ((LongHashMap.mix(key) & MASK) == home) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static void assertSameEntries(Map<Long, String> expected, LongHashMap<String> map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+            assertTrue(map.containsKey(entry.getKey()));
+        }
+        Map<Long, String> visited = new HashMap<>();
+        map.forEach((key, value) -> assertNull(visited.put(key, value)));
+        assertEquals(expected, visited);
+    }
+
+    @Test
+    public void packsChunkCoordinates() {
+        int[] values = {0, 1, -1, 12345, -98765, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int x : values) {
+            for (int z : values) {
+                long key = LongHashMap.key(x, z);
+
+                assertEquals(x, LongHashMap.keyX(key));
+                assertEquals(z, LongHashMap.keyZ(key));
+            }
+        }
+    }
+
+    @Test
+    public void putsGetsAndReplaces() {
+        LongHashMap<String> map = new LongHashMap<>();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.put(7, "a"));
+        assertNull(map.put(-7, "b"));
+        assertEquals("a", map.put(7, "c"));
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(7));
+        assertEquals("b", map.get(-7));
+        assertNull(map.get(8));
+        assertFalse(map.containsKey(8));
+    }
+
+    @Test
+    public void removesFromClusterThatWrapsAround() {
+        // Four keys that all want the last slot fill it and wrap around into slots 0 to 2,
+        // and two keys that want slot 0 are pushed behind them
+        List<Long> last = keysWithHome(MASK, 4, 0);
+        List<Long> first = keysWithHome(0, 2, 0);
+        List<Long> order = new ArrayList<>(last);
+        order.addAll(first);
+
+        for (int removed = 0; removed < order.size(); removed++) {
+            LongHashMap<String> map = new LongHashMap<>();
+            Map<Long, String> expected = new HashMap<>();
+            for (long key : order) {
+                map.put(key, "v" + key);
+                expected.put(key, "v" + key);
+            }
+
+            long key = order.get(removed);
+            assertEquals("v" + key, map.remove(key));
+            expected.remove(key);
+
+            assertSameEntries(expected, map);
+            assertNull(map.remove(key));
+        }
+    }
+
+    @Test
+    public void removesWholeClusterInAnyOrder() {
+        List<Long> last = keysWithHome(MASK, 3, 0);
+        List<Long> first = keysWithHome(0, 2, 0);
+        List<Long> middle = keysWithHome(1, 2, 0);
+        List<Long> keys = new ArrayList<>(last);
+        keys.addAll(first);
+        keys.addAll(middle);
+        Random random = new Random(42);
+
+        for (int round = 0; round < 200; round++) {
+            LongHashMap<String> map = new LongHashMap<>();
+            Map<Long, String> expected = new HashMap<>();
+            List<Long> shuffled = new ArrayList<>(keys);
+            Collections.shuffle(shuffled, random);
+            for (long key : shuffled) {
+                map.put(key, "v" + key);
+                expected.put(key, "v" + key);
+            }
+            Collections.shuffle(shuffled, random);
+            for (long key : shuffled) {
+                assertEquals("v" + key, map.remove(key));
+                expected.remove(key);
+                assertSameEntries(expected, map);
+            }
+            assertTrue(map.isEmpty());
+        }
+    }
+
+    @Test
+    public void keepsEntriesAcrossResizes() {
+        LongHashMap<String> map = new LongHashMap<>();
+        Map<Long, String> expected = new HashMap<>();
+        for (int x = -50; x < 50; x++) {
+            for (int z = -50; z < 50; z++) {
+                long key = LongHashMap.key(x, z);
+                map.put(key, x + "," + z);
+                expected.put(key, x + "," + z);
+            }
+        }
+        assertSameEntries(expected, map);
+
+        for (int x = -50; x < 50; x += 2) {
+            for (int z = -50; z < 50; z++) {
+                long key = LongHashMap.key(x, z);
+                assertEquals(x + "," + z, map.remove(key));
+                expected.remove(key);
+            }
+        }
+        assertSameEntries(expected, map);
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(LongHashMap.key(1, 1)));
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(7);
+        LongHashMap<String> map = new LongHashMap<>(4);
+        Map<Long, String> expected = new HashMap<>();
+
+        for (int i = 0; i < 200000; i++) {
+            // A small key range keeps the table crowded with long probe chains
+            long key = random.nextInt(96) - 32;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                String value = "v" + i;
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected.get(key), map.get(key));
+            if (i % 1000 == 0) {
+                assertSameEntries(expected, map);
+            }
+        }
+        assertSameEntries(expected, map);
+    }
+}
@@ -0,0 +1,86 @@
+package net.hogbrains.particlegenerator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NameTrieTest {
+
+    @Test
+    public void completesPrefixesInAlphabeticalOrder() {
+        NameTrie trie = new NameTrie(Arrays.asList("torch", "fountain", "torch2", "tower", "fog"));
+
+        assertEquals(Arrays.asList("torch", "torch2", "tower"), trie.complete("to"));
+        assertEquals(Arrays.asList("fog", "fountain"), trie.complete("f"));
+        assertEquals(Arrays.asList("fog", "fountain", "torch", "torch2", "tower"), trie.complete(""));
+    }
+
+    @Test
+    public void ignoresCaseButKeepsTheOriginalSpelling() {
+        NameTrie trie = new NameTrie(Arrays.asList("SpawnFountain", "spawnTorch"));
+
+        assertEquals(Arrays.asList("SpawnFountain", "spawnTorch"), trie.complete("SPAWN"));
+        assertEquals(Collections.singletonList("spawnTorch"), trie.complete("spawnt"));
+    }
+
+    @Test
+    public void namesDifferingOnlyInCaseAreBothKept() {
+        NameTrie trie = new NameTrie(Arrays.asList("Arena", "arena"));
+
+        assertEquals(Arrays.asList("Arena", "arena"), trie.complete("ar"));
+    }
+
+    @Test
+    public void unknownPrefixCompletesNothing() {
+        NameTrie trie = new NameTrie(Arrays.asList("torch"));
+
+        assertTrue(trie.complete("x").isEmpty());
+        assertTrue(trie.complete("torches").isEmpty());
+    }
+
+    @Test
+    public void addingTwiceKeepsOneEntry() {
+        NameTrie trie = new NameTrie();
+        trie.add("torch");
+        trie.add("torch");
+
+        assertEquals(Collections.singletonList("torch"), trie.complete("t"));
+    }
+
+    @Test
+    public void removedNamesAreNoLongerCompleted() {
+        NameTrie trie = new NameTrie(Arrays.asList("torch", "torch2"));
+        trie.remove("torch");
+        trie.remove("missing");
+
+        assertEquals(Collections.singletonList("torch2"), trie.complete("t"));
+    }
+
+    @Test
+    public void clearRemovesEverything() {
+        NameTrie trie = new NameTrie(Arrays.asList("torch", "fountain"));
+        trie.clear();
+
+        assertTrue(trie.complete("").isEmpty());
+        trie.add("again");
+        assertEquals(Collections.singletonList("again"), trie.complete("a"));
+    }
+
+    @Test
+    public void completionsAreCapped() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < NameTrie.MAX_COMPLETIONS * 3; i++) {
+            names.add("gen" + i);
+        }
+        NameTrie trie = new NameTrie(names);
+
+        assertEquals(NameTrie.MAX_COMPLETIONS, trie.complete("gen").size());
+        assertEquals(Arrays.asList("gen29", "gen290", "gen291", "gen292", "gen293", "gen294", "gen295", "gen296", "gen297", "gen298", "gen299"), trie.complete("gen29"));
+    }
+}
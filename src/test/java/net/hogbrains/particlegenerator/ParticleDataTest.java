@@ -0,0 +1,104 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+import org.bukkit.inventory.ItemStack;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ParticleDataTest {
+
+    @Test
+    public void particlesWithoutDataTakeNone() {
+        assertSame(ParticleData.NONE, ParticleData.parse(Particle.FLAME, null));
+        assertSame(ParticleData.NONE, ParticleData.parse(Particle.FLAME, " "));
+        assertEquals("", ParticleData.NONE.getSpec());
+    }
+
+    @Test
+    public void normalizesDust() {
+        ParticleData data = ParticleData.parse(Particle.REDSTONE, " FF8800 ");
+
+        assertEquals("#ff8800:1.0", data.getSpec());
+        Particle.DustOptions dust = (Particle.DustOptions) data.getValue();
+        assertEquals(0xff8800, dust.getColor().asRGB());
+        assertEquals(1, dust.getSize(), 0);
+        assertEquals("#0000ff:2.5", ParticleData.parse(Particle.REDSTONE, "#0000FF:2.5").getSpec());
+    }
+
+    @Test
+    public void normalizesDustTransitions() {
+        ParticleData data = ParticleData.parse(Particle.DUST_COLOR_TRANSITION, "#FF0000>00ff00:0.5");
+
+        assertEquals("#ff0000>#00ff00:0.5", data.getSpec());
+        Particle.DustTransition dust = (Particle.DustTransition) data.getValue();
+        assertEquals(0xff0000, dust.getColor().asRGB());
+        assertEquals(0x00ff00, dust.getToColor().asRGB());
+        assertEquals(0.5, dust.getSize(), 0);
+    }
+
+    @Test
+    public void normalizesNumbersAndItems() {
+        assertEquals("1.5", ParticleData.parse(Particle.SCULK_CHARGE, "1.50").getSpec());
+        assertEquals(1.5f, ParticleData.parse(Particle.SCULK_CHARGE, "1.50").getValue());
+        assertEquals("20", ParticleData.parse(Particle.SHRIEK, "+20").getSpec());
+        assertEquals(20, ParticleData.parse(Particle.SHRIEK, "20").getValue());
+        ParticleData item = ParticleData.parse(Particle.ITEM_CRACK, "DIAMOND");
+        assertEquals("diamond", item.getSpec());
+        assertTrue(item.getValue() instanceof ItemStack);
+    }
+
+    @Test
+    public void internsEquivalentSpecs() {
+        ParticleData first = ParticleData.parse(Particle.REDSTONE, "#112233");
+        ParticleData second = ParticleData.parse(Particle.REDSTONE, "112233:1");
+        ParticleData third = ParticleData.parse(Particle.REDSTONE, "#112233:1.0");
+
+        assertSame(first, second);
+        assertSame(first, third);
+        assertSame(first.getValue(), third.getValue());
+        assertNotSame(first, ParticleData.parse(Particle.REDSTONE, "#112233:2"));
+    }
+
+    @Test
+    public void internsByDataType() {
+        ParticleData charge = ParticleData.parse(Particle.SCULK_CHARGE, "3");
+        ParticleData shriek = ParticleData.parse(Particle.SHRIEK, "3");
+
+        assertNotSame(charge, shriek);
+        assertEquals(3.0f, charge.getValue());
+        assertEquals(3, shriek.getValue());
+    }
+
+    @Test
+    public void rejectsInvalidData() {
+        assertThrows(IllegalArgumentException.class, () -> ParticleData.parse(Particle.FLAME, "#ffffff"));
+        assertThrows(IllegalArgumentException.class, () -> ParticleData.parse(Particle.REDSTONE, null));
+        assertThrows(IllegalArgumentException.class, () -> ParticleData.parse(Particle.REDSTONE, ""));
+        String[] dust = {"#fff", "#ff88zz", "#ff8800:", "#ff8800:0", "#ff8800:4.5", "#ff8800:-1", "#ff8800:big"};
+        for (String spec : dust) {
+            assertThrows(spec, IllegalArgumentException.class, () -> ParticleData.parse(Particle.REDSTONE, spec));
+        }
+        assertThrows(IllegalArgumentException.class, () -> ParticleData.parse(Particle.DUST_COLOR_TRANSITION, "#ff0000"));
+        assertThrows(IllegalArgumentException.class, () -> ParticleData.parse(Particle.DUST_COLOR_TRANSITION, "#ff0000>"));
+        assertThrows(IllegalArgumentException.class, () -> ParticleData.parse(Particle.SCULK_CHARGE, "up"));
+        assertThrows(IllegalArgumentException.class, () -> ParticleData.parse(Particle.SHRIEK, "-1"));
+        assertThrows(IllegalArgumentException.class, () -> ParticleData.parse(Particle.SHRIEK, "1.5"));
+        assertThrows(IllegalArgumentException.class, () -> ParticleData.parse(Particle.ITEM_CRACK, "not_an_item"));
+        assertThrows(IllegalArgumentException.class, () -> ParticleData.parse(Particle.VIBRATION, "anything"));
+    }
+
+    @Test
+    public void describesEveryDataType() {
+        assertEquals("no data", ParticleData.describe(Particle.FLAME));
+        assertEquals("#rrggbb[:size]", ParticleData.describe(Particle.REDSTONE));
+        assertEquals("#rrggbb>#rrggbb[:size]", ParticleData.describe(Particle.DUST_COLOR_TRANSITION));
+        assertEquals("<block>", ParticleData.describe(Particle.BLOCK_CRACK));
+        assertEquals("<item>", ParticleData.describe(Particle.ITEM_CRACK));
+        assertEquals("unsupported", ParticleData.describe(Particle.VIBRATION));
+    }
+}
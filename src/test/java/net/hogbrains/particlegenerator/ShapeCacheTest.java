@@ -0,0 +1,66 @@
+package net.hogbrains.particlegenerator;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+public class ShapeCacheTest {
+
+    private final ShapeCache cache = new ShapeCache(new File("images"));
+
+    @Test
+    public void sharesShapesOfEquivalentSpecs() {
+        Shape shape = cache.get("ring,radius=2,points=32");
+
+        assertEquals("ring,radius=2,points=32", shape.getSpec());
+        assertSame(shape, cache.get("RING, points=32, radius=2.0"));
+        assertSame(shape, cache.get("ring,radius=2,points=32,spin=0"));
+        assertSame(shape, cache.get(shape.getSpec()));
+    }
+
+    @Test
+    public void keysOnlyByCanonicalSpec() {
+        for (int i = 0; i < 100; i++) {
+            cache.get("ring,radius=2" + (i % 2 == 0 ? ".0" : "") + ",points=32" + repeat(' ', i));
+        }
+
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void storesOneFramePerSpinStep() {
+        assertEquals(1, cache.get("ring").getFrameCount());
+        assertEquals(24, cache.get("ring,spin=15").getFrameCount());
+        assertEquals(24, cache.get("ring,spin=-15").getFrameCount());
+        assertEquals(1, cache.get("ring,spin=720").getFrameCount());
+    }
+
+    @Test
+    public void rejectsSpinsNeedingTooManyFrames() {
+        String[] invalid = {"ring,spin=1e-7", "ring,spin=1e-300", "line,points=1,spin=0.0001", "sphere,points=4096,spin=1"};
+        for (String spec : invalid) {
+            assertThrows(spec, IllegalArgumentException.class, () -> cache.get(spec));
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void rejectsInvalidSpecs() {
+        String[] invalid = {"cube", "ring,radius", "ring,length=2", "ring,radius=0", "ring,radius=NaN", "ring,points=0", "ring,points=5000", "image"};
+        for (String spec : invalid) {
+            assertThrows(spec, IllegalArgumentException.class, () -> cache.get(spec));
+        }
+    }
+
+    private static String repeat(char c, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,169 @@
+package net.hogbrains.particlegenerator;
+
+import org.bukkit.Particle;
+import org.bukkit.util.Vector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelTest {
+
+    private static ParticleGenerator generator(int interval) {
+        return new ParticleGenerator(null, "world", 0, 64, 0, Particle.FLAME, 1, interval, 0, new Vector(), 16);
+    }
+
+    /**
+     * Checks that every registered generator sits where its bookkeeping says, and returns
+     * how many generators each phase holds across all intervals.
+     */
+    private static Map<Integer, Integer> checkSlots(TimingWheel wheel, List<ParticleGenerator> registered) {
+        Map<Integer, Integer> phases = new HashMap<>();
+        Map<TimingWheel.PhaseSlot, Integer> slots = new IdentityHashMap<>();
+        for (ParticleGenerator generator : registered) {
+            assertTrue(wheel.contains(generator));
+            TimingWheel.PhaseSlot slot = generator.slot;
+            assertSame(generator, slot.generators[generator.slotIndex]);
+            assertTrue(slot.phase >= 0 && slot.phase < generator.bucket.interval);
+            assertEquals(generator.getInterval(), generator.bucket.interval);
+            phases.merge(slot.phase, 1, Integer::sum);
+            slots.merge(slot, 1, Integer::sum);
+        }
+        for (Map.Entry<TimingWheel.PhaseSlot, Integer> entry : slots.entrySet()) {
+            assertEquals((int) entry.getValue(), entry.getKey().size);
+        }
+        assertEquals(registered.size(), wheel.getRegisteredCount());
+        return phases;
+    }
+
+    @Test
+    public void spreadsGeneratorsAcrossPhases() {
+        TimingWheel wheel = new TimingWheel();
+        List<ParticleGenerator> generators = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ParticleGenerator generator = generator(4);
+            wheel.register(generator);
+            generators.add(generator);
+        }
+
+        Map<Integer, Integer> phases = checkSlots(wheel, generators);
+        assertEquals(4, phases.size());
+        for (int count : phases.values()) {
+            assertTrue(count == 2 || count == 3);
+        }
+    }
+
+    @Test
+    public void givesEachGeneratorItsOwnPhaseWhileThereAreFreeOnes() {
+        TimingWheel wheel = new TimingWheel();
+        List<ParticleGenerator> generators = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ParticleGenerator generator = generator(20);
+            wheel.register(generator);
+            generators.add(generator);
+        }
+
+        assertEquals(20, checkSlots(wheel, generators).size());
+    }
+
+    @Test
+    public void handlesHugeIntervalsWithoutAllocatingPerTick() {
+        TimingWheel wheel = new TimingWheel();
+        List<ParticleGenerator> generators = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ParticleGenerator generator = generator(Integer.MAX_VALUE);
+            wheel.register(generator);
+            generators.add(generator);
+        }
+
+        assertEquals(1000, checkSlots(wheel, generators).size());
+    }
+
+    @Test
+    public void reusesPhasesFreedByRemovedGenerators() {
+        TimingWheel wheel = new TimingWheel();
+        List<ParticleGenerator> generators = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ParticleGenerator generator = generator(3);
+            wheel.register(generator);
+            generators.add(generator);
+        }
+        ParticleGenerator removed = generators.remove(1);
+        int freed = removed.slot.phase;
+
+        wheel.unregister(removed);
+        ParticleGenerator added = generator(3);
+        wheel.register(added);
+        generators.add(added);
+
+        assertNull(removed.bucket);
+        assertNull(removed.slot);
+        assertFalse(wheel.contains(removed));
+        assertEquals(freed, added.slot.phase);
+        assertEquals(3, checkSlots(wheel, generators).size());
+    }
+
+    @Test
+    public void registersOnlyOnce() {
+        TimingWheel wheel = new TimingWheel();
+        ParticleGenerator generator = generator(5);
+
+        wheel.register(generator);
+        wheel.register(generator);
+
+        assertEquals(1, wheel.getRegisteredCount());
+    }
+
+    @Test
+    public void forgetsGeneratorsOfAnotherWheel() {
+        TimingWheel dropped = new TimingWheel();
+        TimingWheel current = new TimingWheel();
+        ParticleGenerator generator = generator(5);
+        dropped.register(generator);
+
+        current.unregister(generator);
+
+        assertNull(generator.bucket);
+        assertFalse(current.contains(generator));
+        assertEquals(0, current.getRegisteredCount());
+    }
+
+    @Test
+    public void keepsSlotsConsistentUnderRandomChurn() {
+        Random random = new Random(3);
+        TimingWheel wheel = new TimingWheel();
+        List<ParticleGenerator> registered = new ArrayList<>();
+
+        for (int i = 0; i < 20000; i++) {
+            if (!registered.isEmpty() && random.nextInt(5) < 2) {
+                ParticleGenerator generator = registered.remove(random.nextInt(registered.size()));
+                wheel.unregister(generator);
+                assertFalse(wheel.contains(generator));
+            } else {
+                int[] intervals = {1, 2, 7, 40, 1 << 30};
+                ParticleGenerator generator = generator(intervals[random.nextInt(intervals.length)]);
+                wheel.register(generator);
+                registered.add(generator);
+            }
+            if (i % 500 == 0) {
+                checkSlots(wheel, registered);
+            }
+        }
+        checkSlots(wheel, registered);
+
+        for (ParticleGenerator generator : registered) {
+            wheel.unregister(generator);
+        }
+        assertEquals(0, wheel.getRegisteredCount());
+    }
+}
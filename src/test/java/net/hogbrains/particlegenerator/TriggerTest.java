@@ -0,0 +1,96 @@
+package net.hogbrains.particlegenerator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class TriggerTest {
+
+    @Test
+    public void parsesProximity() {
+        Trigger trigger = Trigger.parse(" Proximity:5 ");
+
+        assertEquals(Trigger.Kind.PROXIMITY, trigger.getKind());
+        assertEquals("proximity:5.0", trigger.getSpec());
+        assertEquals(5, trigger.radius, 0);
+        assertEquals(-5, trigger.minX, 0);
+        assertEquals(5, trigger.maxZ, 0);
+        assertTrue(trigger.contains(3, 0, 4));
+        assertFalse(trigger.contains(3, 1, 4));
+    }
+
+    @Test
+    public void parsesRegionWithCornersInAnyOrder() {
+        Trigger trigger = Trigger.parse("region:2, -1, 3, -2, 4, -3");
+
+        assertEquals(Trigger.Kind.REGION, trigger.getKind());
+        assertEquals("region:-2.0,-1.0,-3.0,2.0,4.0,3.0", trigger.getSpec());
+        assertTrue(trigger.contains(-2, -1, -3));
+        assertTrue(trigger.contains(2, 4, 3));
+        assertTrue(trigger.contains(0, 0, 0));
+        assertFalse(trigger.contains(0, 4.5, 0));
+    }
+
+    @Test
+    public void parsesRedstone() {
+        Trigger below = Trigger.parse("redstone");
+        Trigger beside = Trigger.parse("redstone:1,0,-2");
+
+        assertEquals(Trigger.Kind.REDSTONE, below.getKind());
+        assertEquals("redstone:0,-1,0", below.getSpec());
+        assertEquals(-1, below.minY, 0);
+        assertEquals("redstone:1,0,-2", beside.getSpec());
+        assertEquals(1, beside.maxX, 0);
+        assertEquals(-2, beside.minZ, 0);
+        assertFalse(below.contains(0, -1, 0));
+    }
+
+    @Test
+    public void parsesSignals() {
+        Trigger trigger = Trigger.parse("signal:Door.Open");
+        Trigger timed = Trigger.parse("signal:door-open,+40");
+
+        assertEquals(Trigger.Kind.SIGNAL, trigger.getKind());
+        assertEquals("door.open", trigger.signal);
+        assertEquals(Trigger.DEFAULT_SIGNAL_TICKS, trigger.ticks);
+        assertEquals("signal:door.open," + Trigger.DEFAULT_SIGNAL_TICKS, trigger.getSpec());
+        assertEquals("signal:door-open,40", timed.getSpec());
+        assertFalse(timed.contains(0, 0, 0));
+    }
+
+    @Test
+    public void canonicalSpecsParseToEqualTriggers() {
+        String[] specs = {"proximity:2.50", "region:0,0,0,1,1,1", "redstone", "signal:a_b,7"};
+        for (String spec : specs) {
+            Trigger trigger = Trigger.parse(spec);
+            Trigger reparsed = Trigger.parse(trigger.getSpec());
+
+            assertEquals(trigger, reparsed);
+            assertEquals(trigger.hashCode(), reparsed.hashCode());
+            assertEquals(trigger.getSpec(), reparsed.getSpec());
+        }
+    }
+
+    @Test
+    public void acceptsExtentsUpToTheLimit() {
+        assertEquals(Trigger.MAX_EXTENT, Trigger.parse("proximity:" + Trigger.MAX_EXTENT).radius, 0);
+        assertEquals(-Trigger.MAX_EXTENT, Trigger.parse("redstone:0,-" + Trigger.MAX_EXTENT + ",0").minY, 0);
+    }
+
+    @Test
+    public void rejectsInvalidSpecs() {
+        String[] invalid = {
+                "", "sparkle", "proximity", "proximity:", "proximity:0", "proximity:-1", "proximity:1,2", "proximity:far",
+                "proximity:129", "proximity:1e999",
+                "region:1,2,3", "region:0,0,0,1,1,200", "region:0,0,0,1,1,x",
+                "redstone:1,2", "redstone:0,0.5,0", "redstone:0,0,129",
+                "signal", "signal:", "signal:door open", "signal:door;open", "signal:door,0", "signal:door,-5", "signal:door,5,6"
+        };
+        for (String spec : invalid) {
+            assertThrows(spec, IllegalArgumentException.class, () -> Trigger.parse(spec));
+        }
+    }
+}